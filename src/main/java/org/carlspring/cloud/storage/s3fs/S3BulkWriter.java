@@ -0,0 +1,151 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3ContentDigest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.util.Md5Utils;
+import com.google.common.base.Preconditions;
+import static java.lang.String.format;
+
+/**
+ * Uploads many small objects, each with a single PUT, several at the same time: see
+ * {@link S3FileSystem#newBulkWriter()} and {@link S3FileSystem#writeAll(java.util.Map)}.
+ * <p>
+ * Unlike <code>Files.write</code>, a write neither checks whether the object exists nor goes through a
+ * temp file: the content is sent from memory, so the cost of an object is one request and the throughput
+ * is bounded by the concurrency instead of the latency. An existing object is replaced. The number of
+ * writes queued or running is bounded, so a fast producer blocks in {@link #write(Path, ByteBuffer)}.
+ * </p>
+ */
+public class S3BulkWriter
+{
+
+    private final S3FileSystem fileSystem;
+
+    private final S3PendingTasks tasks;
+
+
+    /**
+     * @param fileSystem the file system of the objects written
+     * @param executor   the executor that runs the uploads
+     * @param maxPending the maximum number of writes queued or running
+     */
+    public S3BulkWriter(S3FileSystem fileSystem, ExecutorService executor, int maxPending)
+    {
+        this.fileSystem = fileSystem;
+        this.tasks = new S3PendingTasks(executor, maxPending, "write");
+    }
+
+    /**
+     * Queue the upload of an object, waiting for a slot if too many writes are pending. The content is
+     * copied: the buffer can be reused once the method returns.
+     *
+     * @param path    the path of the object, in the file system of the writer
+     * @param content the bytes between the position and the limit are the content of the object; the
+     *                position is moved to the limit
+     * @return a future completed when the object is uploaded, exceptionally if the upload failed
+     * @throws IOException if the write can not be queued
+     */
+    public CompletableFuture<Void> write(Path path, ByteBuffer content)
+            throws IOException
+    {
+        Preconditions.checkArgument(path instanceof S3Path, "path must be an instance of %s", S3Path.class.getName());
+
+        S3Path s3Path = (S3Path) path;
+        String key = s3Path.getKey();
+
+        Preconditions.checkArgument(s3Path.getFileSystem() == fileSystem,
+                                    "path must belong to the file system of the writer: %s",
+                                    path);
+        Preconditions.checkArgument(!key.isEmpty() && !key.endsWith(S3Path.PATH_SEPARATOR),
+                                    "path must be a file in a bucket: %s",
+                                    path);
+
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+
+        return tasks.submit(path, () -> putObject(s3Path, bytes));
+    }
+
+    /**
+     * Wait for all the writes pending when the method is called.
+     *
+     * @throws IOException if any of them, or any write that ended since the previous flush, failed, or the
+     *                     wait is interrupted
+     */
+    public void flush()
+            throws IOException
+    {
+        tasks.flush();
+    }
+
+    /**
+     * Wait for all the writes pending when the method is called, leaving their failures to the next
+     * {@link #flush()}.
+     *
+     * @throws InterruptedIOException if the wait is interrupted
+     */
+    public void await()
+            throws InterruptedIOException
+    {
+        tasks.await();
+    }
+
+    /**
+     * @return the number of writes queued or running
+     */
+    public int getPendingCount()
+    {
+        return tasks.getPendingCount();
+    }
+
+    private void putObject(S3Path path, byte[] bytes)
+            throws IOException
+    {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+        metadata.setContentMD5(Md5Utils.md5AsBase64(bytes));
+
+        S3ContentTypeResolver resolver = fileSystem.getContentTypeResolver();
+
+        String contentType = resolver.resolve(path.getFileName().toString(),
+                                              bytes,
+                                              Math.min(bytes.length, resolver.getPrefixSize()));
+        if (contentType != null)
+        {
+            metadata.setContentType(contentType);
+        }
+
+        try
+        {
+            PutObjectResult result = fileSystem.getClient().putObject(path.getFileStore().name(),
+                                                                      path.getKey(),
+                                                                      new ByteArrayInputStream(bytes),
+                                                                      metadata);
+            if (result != null)
+            {
+                S3ContentDigest.verify(metadata.getContentMD5(),
+                                       result.getETag(),
+                                       result.getSSEAlgorithm(),
+                                       path.toString());
+            }
+        }
+        catch (AmazonClientException e)
+        {
+            throw new IOException(format("Cannot upload file: %s", path), e);
+        }
+
+        fileSystem.getAttributeCache().invalidate(path);
+    }
+
+}
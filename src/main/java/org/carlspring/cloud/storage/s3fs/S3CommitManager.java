@@ -0,0 +1,164 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the uploads of closed channels and streams in the background, when the file system is
+ * configured with {@link S3FileSystemProvider#ASYNC_COMMIT}.
+ * <p>
+ * <code>close()</code> then returns as soon as the commit is queued, and the caller can produce the next
+ * file while the previous one is uploaded. The outcome of every commit is available through the future
+ * returned by {@link #submit(Path, Commit)} (and by the <code>getCommit()</code> method of the channels),
+ * and is reported to the registered listeners. The number of pending commits is bounded, so a fast
+ * producer blocks in <code>close()</code> instead of filling the disk with temp files.
+ * </p>
+ * <p>
+ * Closing the file system flushes all the pending commits.
+ * </p>
+ */
+public class S3CommitManager
+{
+
+    /**
+     * Upload of a closed channel or stream.
+     */
+    @FunctionalInterface
+    public interface Commit
+    {
+
+        void run()
+                throws IOException;
+
+    }
+
+    /**
+     * Notified of the outcome of every commit, from the thread that ran it.
+     */
+    @FunctionalInterface
+    public interface Listener
+    {
+
+        /**
+         * @param path    the path of the object committed
+         * @param failure the reason why the commit failed, null if the object has been uploaded
+         */
+        void committed(Path path, Throwable failure);
+
+    }
+
+    private final S3PendingTasks tasks;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong committed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+
+    /**
+     * @param executor   the executor that runs the commits
+     * @param maxPending the maximum number of commits queued or running
+     */
+    public S3CommitManager(ExecutorService executor, int maxPending)
+    {
+        this.tasks = new S3PendingTasks(executor, maxPending, "commit");
+    }
+
+    /**
+     * Queue a commit, waiting for a slot if too many commits are pending.
+     *
+     * @param path   the path of the object committed
+     * @param commit the upload
+     * @return a future completed when the commit is done, exceptionally if it failed
+     * @throws IOException if the commit can not be queued
+     */
+    public CompletableFuture<Void> submit(Path path, Commit commit)
+            throws IOException
+    {
+        return tasks.submit(path, () -> run(path, commit));
+    }
+
+    /**
+     * Wait for all the commits pending when the method is called.
+     *
+     * @throws IOException if any of them, or any commit that ended since the previous flush, failed, or the
+     *                     wait is interrupted
+     */
+    public void flush()
+            throws IOException
+    {
+        tasks.flush();
+    }
+
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the number of commits queued or running
+     */
+    public int getPendingCount()
+    {
+        return tasks.getPendingCount();
+    }
+
+    public long getCommittedCount()
+    {
+        return committed.get();
+    }
+
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    private void run(Path path, Commit commit)
+            throws IOException
+    {
+        Throwable failure = null;
+        try
+        {
+            commit.run();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            failure = e;
+        }
+
+        (failure == null ? committed : failed).incrementAndGet();
+
+        for (Listener listener : listeners)
+        {
+            try
+            {
+                listener.committed(path, failure);
+            }
+            catch (RuntimeException e)
+            {
+                // a listener does not change the outcome of the commit
+            }
+        }
+
+        if (failure instanceof IOException)
+        {
+            throw (IOException) failure;
+        }
+        else if (failure != null)
+        {
+            throw (RuntimeException) failure;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decides the content type of the objects uploaded by a file system, configured with
+ * {@link S3FileSystemProvider#CONTENT_TYPE_RESOLVER}.
+ * <p>
+ * A resolver looks at the name of the object and, if {@link #getPrefixSize()} is not 0, at its first
+ * bytes: the streams pass the bytes they still have in memory, the channels peek at them in the stream
+ * that uploads their temp file. Implementations must be thread-safe, a single instance is shared by the
+ * file system.
+ * </p>
+ */
+public interface S3ContentTypeResolver
+{
+
+    /**
+     * Leaves the content type unset, S3 then serves the object as <code>application/octet-stream</code>.
+     */
+    S3ContentTypeResolver NONE = new S3ContentTypeResolver()
+    {
+
+        @Override
+        public int getPrefixSize()
+        {
+            return 0;
+        }
+
+        @Override
+        public String resolve(String fileName, byte[] prefix, int length)
+        {
+            return null;
+        }
+
+    };
+
+    /**
+     * @return the number of leading bytes of the content looked at, 0 if only the name is
+     */
+    int getPrefixSize();
+
+    /**
+     * @param fileName the name of the object, without its directories; null for the root
+     * @param prefix   the first bytes of the content, not to be modified
+     * @param length   the number of bytes of the prefix, at most {@link #getPrefixSize()}
+     * @return the content type, null if unknown
+     */
+    String resolve(String fileName, byte[] prefix, int length);
+
+    /**
+     * @param fileName the name of the object, without its directories; null for the root
+     * @param stream   the content of the object, supporting mark/reset: it is reset to where it was
+     * @return the content type, null if unknown
+     * @throws IOException if the stream can not be read
+     */
+    default String resolve(String fileName, InputStream stream)
+            throws IOException
+    {
+        byte[] prefix = new byte[getPrefixSize()];
+
+        int length = 0;
+        if (prefix.length > 0)
+        {
+            stream.mark(prefix.length);
+            try
+            {
+                int read;
+                while (length < prefix.length && (read = stream.read(prefix, length, prefix.length - length)) > 0)
+                {
+                    length += read;
+                }
+            }
+            finally
+            {
+                stream.reset();
+            }
+        }
+
+        return resolve(fileName, prefix, length);
+    }
+
+}
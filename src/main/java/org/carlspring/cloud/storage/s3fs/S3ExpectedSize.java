@@ -0,0 +1,73 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.nio.file.OpenOption;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Open option that tells {@link S3FileSystemProvider#newOutputStream} how many bytes are going to be
+ * written, so the multipart upload picks a part size that fits the object in the 10,000 parts allowed
+ * by S3 from the first part on:
+ * <pre>
+ * Files.newOutputStream(path, S3ExpectedSize.of(Files.size(source)));
+ * </pre>
+ * <p>
+ * Without the option the part size grows with the number of parts written. The size is a hint: a
+ * stream may write fewer or more bytes. {@link S3FileSystemProvider#newByteChannel} honors it too for
+ * the channels that upload while they are written, the write-only and append-only ones (see
+ * {@link S3WriteOnlySeekableByteChannel}); the other channels and the file channels ignore it.
+ * </p>
+ */
+public final class S3ExpectedSize
+        implements OpenOption
+{
+
+    private final long size;
+
+
+    private S3ExpectedSize(long size)
+    {
+        this.size = size;
+    }
+
+    /**
+     * @param size the number of bytes expected to be written
+     * @return S3ExpectedSize
+     */
+    public static S3ExpectedSize of(long size)
+    {
+        Preconditions.checkArgument(size >= 0, "size must not be negative: %s", size);
+
+        return new S3ExpectedSize(size);
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @param options the options used to open a stream
+     * @return the number of bytes expected to be written, -1 if the option is not present
+     */
+    public static long getSize(Set<? extends OpenOption> options)
+    {
+        for (OpenOption option : options)
+        {
+            if (option instanceof S3ExpectedSize)
+            {
+                return ((S3ExpectedSize) option).getSize();
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "S3ExpectedSize[" + size + "]";
+    }
+
+}
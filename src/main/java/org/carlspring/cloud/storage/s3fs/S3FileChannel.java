@@ -1,5 +1,9 @@
 package org.carlspring.cloud.storage.s3fs;
 
+import org.carlspring.cloud.storage.s3fs.util.S3ContentDigest;
+import org.carlspring.cloud.storage.s3fs.util.S3DirtyRanges;
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBuffer;
+
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -7,16 +11,19 @@ import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
-import org.apache.tika.Tika;
+import com.google.common.io.CountingInputStream;
 import static java.lang.String.format;
 
 public class S3FileChannel
@@ -27,9 +34,36 @@ public class S3FileChannel
 
     private Set<? extends OpenOption> options;
 
-    private FileChannel filechannel;
+    /**
+     * size of the chunks of the transfers, which go through a heap buffer.
+     */
+    private static final int TRANSFER_SIZE = 8192;
+
+    private S3WriteBuffer buffer;
+
+    private CompletableFuture<Void> commit;
 
-    private Path tempFile;
+    /**
+     * ranges of the buffer modified since the object was downloaded.
+     */
+    private final S3DirtyRanges dirtyRanges = new S3DirtyRanges();
+
+    /**
+     * number of leading bytes of the buffer still equal to the object, unless modified.
+     */
+    private long copyLimit;
+
+    private String eTag;
+
+    /**
+     * size of the object when the channel was opened, -1 if it did not exist.
+     */
+    private long objectSize = -1;
+
+    /**
+     * MD5 of the buffer while it is written sequentially.
+     */
+    private final S3ContentDigest digest = new S3ContentDigest();
 
 
     public S3FileChannel(S3Path path, Set<? extends OpenOption> options)
@@ -52,36 +86,43 @@ public class S3FileChannel
             throw new NoSuchFileException(format("target not exists: %s", path));
         }
 
-        tempFile = Files.createTempFile("temp-s3-", key.replaceAll("/", "_"));
-        boolean removeTempFile = true;
+        Set<? extends OpenOption> bufferOptions = new HashSet<>(this.options);
+        bufferOptions.remove(StandardOpenOption.CREATE_NEW);
 
-        try
+        if (exists)
         {
-            if (exists)
+            try (S3Object object = path.getFileSystem().getClient().getObject(path.getFileStore()
+                                                                                  .getBucket()
+                                                                                  .getName(),
+                                                                              key))
             {
-                try (S3Object object = path.getFileSystem().getClient().getObject(path.getFileStore()
-                                                                                      .getBucket()
-                                                                                      .getName(),
-                                                                                  key))
-                {
-                    Files.copy(object.getObjectContent(), tempFile, StandardCopyOption.REPLACE_EXISTING);
-                }
-            }
+                CountingInputStream content = new CountingInputStream(object.getObjectContent());
 
-            Set<? extends OpenOption> fileChannelOptions = new HashSet<>(this.options);
+                buffer = path.getFileSystem()
+                             .getWriteBufferPool()
+                             .newBuffer(key.replaceAll("/", "_"),
+                                        bufferOptions,
+                                        content,
+                                        object.getObjectMetadata().getContentLength());
 
-            fileChannelOptions.remove(StandardOpenOption.CREATE_NEW);
+                objectSize = content.getCount();
+                eTag = object.getObjectMetadata().getETag();
+            }
+        }
+        else
+        {
+            buffer = path.getFileSystem()
+                         .getWriteBufferPool()
+                         .newBuffer(key.replaceAll("/", "_"), bufferOptions, null, -1);
+        }
 
-            filechannel = FileChannel.open(tempFile, fileChannelOptions);
+        // after TRUNCATE_EXISTING nothing is left to copy
+        copyLimit = exists ? buffer.size() : 0;
 
-            removeTempFile = false;
-        }
-        finally
+        if (buffer.size() > 0)
         {
-            if (removeTempFile)
-            {
-                Files.deleteIfExists(tempFile);
-            }
+            // the digest only follows the content written from the start
+            digest.invalidate();
         }
     }
 
@@ -89,148 +130,375 @@ public class S3FileChannel
     public int read(ByteBuffer dst)
             throws IOException
     {
-        return filechannel.read(dst);
+        return buffer.read(dst);
     }
 
     @Override
     public long read(ByteBuffer[] dsts, int offset, int length)
             throws IOException
     {
-        return filechannel.read(dsts, offset, length);
+        long read = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (!dsts[i].hasRemaining())
+            {
+                continue;
+            }
+
+            int count = buffer.read(dsts[i]);
+            if (count < 0)
+            {
+                return read > 0 ? read : -1;
+            }
+
+            read += count;
+
+            if (dsts[i].hasRemaining())
+            {
+                break;
+            }
+        }
+
+        return read;
     }
 
     @Override
     public int write(ByteBuffer src)
             throws IOException
     {
-        return filechannel.write(src);
+        ByteBuffer bytes = src.duplicate();
+
+        int written = buffer.write(src);
+
+        // the position is the end of the bytes written, even when appending
+        long position = buffer.position() - written;
+
+        dirtyRanges.add(position, written);
+
+        bytes.limit(bytes.position() + written);
+        digest.update(position, bytes);
+
+        return written;
     }
 
     @Override
     public long write(ByteBuffer[] srcs, int offset, int length)
             throws IOException
     {
-        return filechannel.write(srcs, offset, length);
+        ByteBuffer[] bytes = new ByteBuffer[length];
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = srcs[offset + i].duplicate();
+        }
+
+        long written = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            written += buffer.write(srcs[i]);
+        }
+
+        long position = buffer.position() - written;
+
+        dirtyRanges.add(position, written);
+        digest.update(position, bytes, written);
+
+        return written;
     }
 
     @Override
     public long position()
             throws IOException
     {
-        return filechannel.position();
+        return buffer.position();
     }
 
     @Override
     public FileChannel position(long newPosition)
             throws IOException
     {
-        return filechannel.position(newPosition);
+        buffer.position(newPosition);
+
+        return this;
     }
 
     @Override
     public long size()
             throws IOException
     {
-        return filechannel.size();
+        return buffer.size();
     }
 
     @Override
     public FileChannel truncate(long size)
             throws IOException
     {
-        return filechannel.truncate(size);
+        buffer.truncate(size);
+
+        dirtyRanges.truncate(size);
+        digest.truncate(size);
+        copyLimit = Math.min(copyLimit, size);
+
+        return this;
     }
 
     @Override
     public void force(boolean metaData)
             throws IOException
     {
-        filechannel.force(metaData);
+        buffer.force(metaData);
     }
 
     @Override
     public long transferTo(long position, long count, WritableByteChannel target)
             throws IOException
     {
-        return filechannel.transferTo(position, count, target);
+        long transferred = 0;
+
+        ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(count, TRANSFER_SIZE));
+        while (transferred < count)
+        {
+            bytes.clear();
+            bytes.limit((int) Math.min(bytes.capacity(), count - transferred));
+
+            if (buffer.read(bytes, position + transferred) <= 0)
+            {
+                break;
+            }
+
+            bytes.flip();
+            transferred += target.write(bytes);
+
+            if (bytes.hasRemaining())
+            {
+                // the target does not take more bytes for now
+                break;
+            }
+        }
+
+        return transferred;
     }
 
     @Override
     public long transferFrom(ReadableByteChannel src, long position, long count)
             throws IOException
     {
-        return filechannel.transferFrom(src, position, count);
+        if (position > buffer.size())
+        {
+            return 0;
+        }
+
+        long transferred = 0;
+
+        ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(count, TRANSFER_SIZE));
+        while (transferred < count)
+        {
+            bytes.clear();
+            bytes.limit((int) Math.min(bytes.capacity(), count - transferred));
+
+            if (src.read(bytes) <= 0)
+            {
+                break;
+            }
+
+            bytes.flip();
+            transferred += buffer.write(bytes, position + transferred);
+        }
+
+        dirtyRanges.add(position, transferred);
+        digest.invalidate();
+
+        return transferred;
     }
 
     @Override
     public int read(ByteBuffer dst, long position)
             throws IOException
     {
-        return filechannel.read(dst, position);
+        return buffer.read(dst, position);
     }
 
     @Override
     public int write(ByteBuffer src, long position)
             throws IOException
     {
-        return filechannel.write(src, position);
+        ByteBuffer bytes = src.duplicate();
+
+        int written = buffer.write(src, position);
+
+        dirtyRanges.add(position, written);
+
+        bytes.limit(bytes.position() + written);
+        digest.update(position, bytes);
+
+        return written;
     }
 
     @Override
     public MappedByteBuffer map(MapMode mode, long position, long size)
             throws IOException
     {
-        return filechannel.map(mode, position, size);
+        if (mode != MapMode.READ_ONLY && !isWritable())
+        {
+            throw new NonWritableChannelException();
+        }
+
+        // only a temp file can be mapped
+        MappedByteBuffer mapped = buffer.getFileChannel().map(mode, position, size);
+
+        if (mode != MapMode.READ_ONLY)
+        {
+            // any byte of the region may be modified through the buffer
+            dirtyRanges.add(position, size);
+            digest.invalidate();
+        }
+
+        return mapped;
     }
 
     @Override
     public FileLock lock(long position, long size, boolean shared)
             throws IOException
     {
-        return filechannel.lock(position, size, shared);
+        return buffer.getFileChannel().lock(position, size, shared);
     }
 
     @Override
     public FileLock tryLock(long position, long size, boolean shared)
             throws IOException
     {
-        return filechannel.tryLock(position, size, shared);
+        return buffer.getFileChannel().tryLock(position, size, shared);
     }
 
+    /**
+     * Upload the buffer, in the background if the file system is configured with
+     * {@link S3FileSystemProvider#ASYNC_COMMIT}: see {@link #getCommit()}.
+     */
     @Override
     protected void implCloseChannel()
             throws IOException
     {
         super.close();
-        filechannel.close();
+        buffer.close();
 
-        if (!this.options.contains(StandardOpenOption.READ))
+        boolean releaseBuffer = true;
+
+        // published when the upload is done or queued, so that a failed upload is not reported as a success
+        CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+        try
         {
-            sync();
+            if (isWritable() && (objectSize < 0 || isModified()))
+            {
+                if (path.getFileSystem().isAsyncCommit())
+                {
+                    result = path.getFileSystem().getCommitManager().submit(path, () -> {
+                        try
+                        {
+                            sync();
+                        }
+                        finally
+                        {
+                            buffer.release();
+                        }
+                    });
+
+                    releaseBuffer = false;
+
+                    return;
+                }
+
+                sync();
+            }
         }
+        catch (IOException | RuntimeException e)
+        {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
 
-        Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        finally
+        {
+            if (releaseBuffer)
+            {
+                buffer.release();
+            }
+
+            commit = result;
+        }
     }
 
     /**
-     * try to sync the temp file with the remote s3 path.
+     * @return true if the channel was opened for writing
+     */
+    private boolean isWritable()
+    {
+        return options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
+    }
+
+    /**
+     * An existing object opened for writing is uploaded only if the buffer no longer matches it:
+     * bytes were written, mapped for writing, or truncated (including by TRUNCATE_EXISTING).
      *
-     * @throws IOException if the tempFile fails to open a newInputStream
+     * @return true if the buffer may differ from the object
+     */
+    boolean isModified()
+    {
+        return !dirtyRanges.isEmpty() || copyLimit < objectSize;
+    }
+
+    /**
+     * @return a future completed when the content written is uploaded, null if the channel is open
+     */
+    public CompletableFuture<Void> getCommit()
+    {
+        return commit;
+    }
+
+    /**
+     * try to sync the buffer with the remote s3 path.
+     *
+     * @throws IOException if the buffer has spilled and its temp file can not be read
      */
     protected void sync()
             throws IOException
     {
-        try (InputStream stream = new BufferedInputStream(Files.newInputStream(tempFile)))
+        // a partial upload copies at least a part, larger than the content kept in memory
+        if (copyLimit >= S3PartialUpload.MIN_PART_SIZE &&
+            new S3PartialUpload(path, buffer.spill(), eTag, copyLimit, dirtyRanges).upload())
+        {
+            path.getFileSystem().getAttributeCache().invalidate(path);
+
+            return;
+        }
+
+        try (InputStream stream = new BufferedInputStream(buffer.newInputStream()))
         {
+            long size = buffer.getContentSize();
+
             ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(Files.size(tempFile));
-            metadata.setContentType(new Tika().detect(stream, path.getFileName().toString()));
+            metadata.setContentLength(size);
+            metadata.setContentMD5(digest.getMD5(size));
+            if (path.getFileName() != null)
+            {
+                metadata.setContentType(path.getFileSystem()
+                                            .getContentTypeResolver()
+                                            .resolve(path.getFileName().toString(), stream));
+            }
 
             String bucket = path.getFileStore().name();
             String key = path.getKey();
 
-            path.getFileSystem().getClient().putObject(bucket, key, stream, metadata);
+            PutObjectResult result = path.getFileSystem().getClient().putObject(bucket, key, stream, metadata);
+            if (result != null)
+            {
+                S3ContentDigest.verify(metadata.getContentMD5(),
+                                       result.getETag(),
+                                       result.getSSEAlgorithm(),
+                                       path.toString());
+            }
         }
+
+        path.getFileSystem().getAttributeCache().invalidate(path);
     }
 
 }
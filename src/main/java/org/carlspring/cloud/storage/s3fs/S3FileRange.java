@@ -0,0 +1,69 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A range of an object to be read by {@link S3VectoredReadChannel#readVectored(java.util.List)}, together
+ * with the buffer that receives its bytes.
+ * <p>
+ * The buffer is filled from its position up to its limit. When {@link #getData()} completes, the
+ * position of the buffer equals its limit, as after a regular read.
+ * </p>
+ */
+public class S3FileRange
+{
+
+    private final long offset;
+
+    private final ByteBuffer buffer;
+
+    private final CompletableFuture<ByteBuffer> data = new CompletableFuture<>();
+
+
+    /**
+     * @param offset the position in the object of the first byte of the range
+     * @param buffer the buffer that receives the range, its remaining bytes are the length of the range
+     */
+    public S3FileRange(long offset, ByteBuffer buffer)
+    {
+        Preconditions.checkArgument(offset >= 0, "offset must be non-negative: %s", offset);
+        Preconditions.checkNotNull(buffer, "buffer must not be null");
+
+        this.offset = offset;
+        this.buffer = buffer;
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public int getLength()
+    {
+        return buffer.remaining();
+    }
+
+    public ByteBuffer getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return future completed with the buffer once it has been filled, or exceptionally if the range
+     * could not be read
+     */
+    public CompletableFuture<ByteBuffer> getData()
+    {
+        return data;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + offset + ", " + (offset + getLength()) + ")";
+    }
+
+}
@@ -1,13 +1,41 @@
 package org.carlspring.cloud.storage.s3fs;
 
+import org.carlspring.cloud.storage.s3fs.util.S3AttributeCache;
+import org.carlspring.cloud.storage.s3fs.util.S3BlockCache;
+import org.carlspring.cloud.storage.s3fs.util.S3DiskCache;
+import org.carlspring.cloud.storage.s3fs.util.S3ExtensionContentTypeResolver;
+import org.carlspring.cloud.storage.s3fs.util.S3StreamClosePolicy;
+import org.carlspring.cloud.storage.s3fs.util.S3UploadConcurrency;
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.Bucket;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.PROXY_PASSWORD;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.*;
 import static org.carlspring.cloud.storage.s3fs.S3Path.PATH_SEPARATOR;
 
 /**
@@ -28,16 +56,60 @@ public class S3FileSystem
 
     private final String endpoint;
 
-    private int cache;
+    private final Properties properties;
+
+    private final S3AttributeCache attributeCache;
+
+    private ExecutorService downloadExecutor;
+
+    private ExecutorService uploadExecutor;
+
+    private S3BlockCache blockCache;
+
+    private S3DiskCache diskCache;
+
+    private S3StreamClosePolicy streamClosePolicy;
+
+    private S3UploadConcurrency uploadConcurrency;
+
+    private ExecutorService commitExecutor;
+
+    private S3CommitManager commitManager;
+
+    private ExecutorService bulkWriteExecutor;
+
+    /**
+     * the bulk writers in use, waited for by {@link #close()}.
+     */
+    private final Set<S3BulkWriter> bulkWriters = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private boolean closed;
+
+    private S3ContentTypeResolver contentTypeResolver;
+
+    private S3WriteBufferPool writeBufferPool;
 
 
     public S3FileSystem(S3FileSystemProvider provider, String key, AmazonS3 client, String endpoint)
+    {
+        this(provider, key, client, endpoint, new Properties());
+    }
+
+    public S3FileSystem(S3FileSystemProvider provider,
+                        String key,
+                        AmazonS3 client,
+                        String endpoint,
+                        Properties properties)
     {
         this.provider = provider;
         this.key = key;
         this.client = client;
         this.endpoint = endpoint;
-        this.cache = 60000; // 1 minute cache for the s3Path
+        this.properties = properties;
+        this.attributeCache = new S3AttributeCache(getCache(),
+                                                   getIntProperty(ATTRIBUTE_CACHE_SIZE, DEFAULT_ATTRIBUTE_CACHE_SIZE),
+                                                   getIntProperty(ATTRIBUTE_CACHE_MISSING_TTL,
+                                                                  DEFAULT_ATTRIBUTE_CACHE_MISSING_TTL));
     }
 
     @Override
@@ -51,9 +123,105 @@ public class S3FileSystem
         return key;
     }
 
+    /**
+     * Wait for the pending commits and bulk writes, then release the resources of the file system. The
+     * failures of the commits are reported through their futures and the listeners of the
+     * {@link S3CommitManager}, those of the writes through their futures and the next flush of their writer.
+     * If the wait is interrupted, the uploads still queued fail.
+     */
     @Override
     public void close()
     {
+        S3CommitManager pendingCommits;
+        synchronized (this)
+        {
+            pendingCommits = commitManager;
+        }
+
+        if (pendingCommits != null)
+        {
+            try
+            {
+                pendingCommits.flush();
+            }
+            catch (IOException e)
+            {
+                // already reported
+            }
+        }
+
+        List<S3BulkWriter> pendingWrites;
+        synchronized (this)
+        {
+            pendingWrites = new ArrayList<>(bulkWriters);
+        }
+
+        try
+        {
+            for (S3BulkWriter writer : pendingWrites)
+            {
+                writer.await();
+            }
+        }
+        catch (InterruptedIOException e)
+        {
+            // the writes still queued are failed below
+        }
+
+        synchronized (this)
+        {
+            closed = true;
+
+            if (commitExecutor != null)
+            {
+                S3PendingTasks.abort(commitExecutor.shutdownNow());
+                commitExecutor = null;
+                commitManager = null;
+            }
+
+            if (bulkWriteExecutor != null)
+            {
+                S3PendingTasks.abort(bulkWriteExecutor.shutdownNow());
+                bulkWriteExecutor = null;
+            }
+
+            bulkWriters.clear();
+
+            if (downloadExecutor != null)
+            {
+                // the readers waiting for the downloads not started yet fail instead of waiting for ever
+                for (Runnable dropped : downloadExecutor.shutdownNow())
+                {
+                    if (dropped instanceof Future)
+                    {
+                        ((Future<?>) dropped).cancel(false);
+                    }
+                }
+
+                downloadExecutor = null;
+            }
+
+            if (uploadExecutor != null)
+            {
+                uploadExecutor.shutdownNow();
+                uploadExecutor = null;
+            }
+
+            if (blockCache != null)
+            {
+                blockCache.clear();
+                blockCache = null;
+            }
+
+            if (writeBufferPool != null)
+            {
+                writeBufferPool.close();
+                writeBufferPool = null;
+            }
+
+            attributeCache.invalidateAll();
+        }
+
         this.provider.close(this);
     }
 
@@ -224,9 +392,514 @@ public class S3FileSystem
         return key.compareTo(o.getKey());
     }
 
+    /**
+     * @return the milliseconds the attributes of an object are cached, -1 for ever, 0 if they are not cached
+     */
     public int getCache()
     {
-        return cache;
+        return getIntProperty(ATTRIBUTE_CACHE_TTL, DEFAULT_ATTRIBUTE_CACHE_TTL);
+    }
+
+    /**
+     * Attributes of the objects of this file system, shared by all its paths.
+     *
+     * @return S3AttributeCache never null, empty if the cache is disabled
+     */
+    public S3AttributeCache getAttributeCache()
+    {
+        return attributeCache;
+    }
+
+    /**
+     * @return a copy of the properties this file system was created with and of the values it publishes,
+     * without the credentials; changing it does not change the file system
+     */
+    public Properties getProperties()
+    {
+        Properties copy = (Properties) properties.clone();
+        copy.remove(ACCESS_KEY);
+        copy.remove(SECRET_KEY);
+        copy.remove(PROXY_PASSWORD);
+
+        return copy;
+    }
+
+    /**
+     * Publish a value chosen by the file system in its properties, such as the current part size.
+     */
+    void publishProperty(String name, long value)
+    {
+        properties.setProperty(name, String.valueOf(value));
+    }
+
+    /**
+     * @return true if large objects are downloaded with parallel range requests by newInputStream
+     */
+    public boolean isParallelDownload()
+    {
+        return getBooleanProperty(PARALLEL_DOWNLOAD, false);
+    }
+
+    /**
+     * @return the size in bytes of every range requested by a parallel download
+     */
+    public int getParallelDownloadChunkSize()
+    {
+        return getIntProperty(PARALLEL_DOWNLOAD_CHUNK_SIZE, DEFAULT_PARALLEL_DOWNLOAD_CHUNK_SIZE);
+    }
+
+    /**
+     * @return the maximum number of bytes a single parallel download may hold in memory
+     */
+    public long getParallelDownloadMaxInFlight()
+    {
+        return getLongProperty(PARALLEL_DOWNLOAD_MAX_IN_FLIGHT, DEFAULT_PARALLEL_DOWNLOAD_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @return the largest range in bytes requested by a channel reading sequentially
+     */
+    public long getReadaheadMaxSize()
+    {
+        return getLongProperty(READAHEAD_MAX_SIZE, DEFAULT_READAHEAD_MAX_SIZE);
+    }
+
+    /**
+     * @return the largest number of unused bytes fetched to coalesce two ranges of a vectored read
+     */
+    public int getVectoredReadMaxGap()
+    {
+        return getIntProperty(VECTORED_READ_MAX_GAP, DEFAULT_VECTORED_READ_MAX_GAP);
+    }
+
+    /**
+     * @return the largest range in bytes requested by a vectored read after coalescing
+     */
+    public int getVectoredReadMaxMergedSize()
+    {
+        return getIntProperty(VECTORED_READ_MAX_MERGED_SIZE, DEFAULT_VECTORED_READ_MAX_MERGED_SIZE);
+    }
+
+    /**
+     * @return the maximum number of times a stream returned by newInputStream resumes after a failure
+     */
+    public int getInputStreamMaxRetries()
+    {
+        return getIntProperty(INPUT_STREAM_MAX_RETRIES, DEFAULT_INPUT_STREAM_MAX_RETRIES);
+    }
+
+    /**
+     * Policy applied when a response is closed before the end, with the count of drained and aborted
+     * connections.
+     *
+     * @return S3StreamClosePolicy never null
+     */
+    public synchronized S3StreamClosePolicy getStreamClosePolicy()
+    {
+        if (streamClosePolicy == null)
+        {
+            streamClosePolicy = new S3StreamClosePolicy(getLongProperty(INPUT_STREAM_DRAIN_THRESHOLD,
+                                                                        DEFAULT_INPUT_STREAM_DRAIN_THRESHOLD));
+        }
+
+        return streamClosePolicy;
+    }
+
+    /**
+     * Thread pool shared by all the parallel downloads of this file system. Its size bounds the number
+     * of concurrent range requests.
+     *
+     * @return ExecutorService never null
+     * @throws ClosedFileSystemException if the file system is closed
+     */
+    public synchronized ExecutorService getDownloadExecutor()
+    {
+        if (closed)
+        {
+            throw new ClosedFileSystemException();
+        }
+
+        if (downloadExecutor == null)
+        {
+            int concurrency = getIntProperty(PARALLEL_DOWNLOAD_CONCURRENCY, DEFAULT_PARALLEL_DOWNLOAD_CONCURRENCY);
+
+            downloadExecutor = Executors.newFixedThreadPool(concurrency,
+                                                            new ThreadFactoryBuilder().setDaemon(true)
+                                                                                      .setNameFormat("s3fs-download-%d")
+                                                                                      .build());
+        }
+
+        return downloadExecutor;
+    }
+
+    /**
+     * @return the smallest size in bytes of the parts of a multipart upload but the last one, never less
+     * than the {@link S3PartialUpload#MIN_PART_SIZE} accepted by S3; larger parts are used for large objects
+     */
+    public int getMultipartUploadPartSize()
+    {
+        int partSize = getIntProperty(MULTIPART_UPLOAD_PART_SIZE, DEFAULT_MULTIPART_UPLOAD_PART_SIZE);
+
+        // a smaller part would only be rejected when the upload is completed
+        return (int) Math.max(partSize, S3PartialUpload.MIN_PART_SIZE);
+    }
+
+    /**
+     * @return the bytes a stream holds in memory for the parts it is writing and uploading: fewer parts
+     * are uploaded at the same time when they are large
+     */
+    public long getMultipartUploadMaxMemory()
+    {
+        return getLongProperty(MULTIPART_UPLOAD_MAX_MEMORY, DEFAULT_MULTIPART_UPLOAD_MAX_MEMORY);
+    }
+
+    /**
+     * @return the number of parts a stream uploads at the same time before the concurrency is adapted
+     */
+    public int getMultipartUploadConcurrency()
+    {
+        return getIntProperty(MULTIPART_UPLOAD_CONCURRENCY, DEFAULT_MULTIPART_UPLOAD_CONCURRENCY);
+    }
+
+    /**
+     * @return the lowest number of parts a stream uploads at the same time
+     */
+    public int getMultipartUploadMinConcurrency()
+    {
+        return getIntProperty(MULTIPART_UPLOAD_MIN_CONCURRENCY, DEFAULT_MULTIPART_UPLOAD_MIN_CONCURRENCY);
+    }
+
+    /**
+     * @return the highest number of parts a stream uploads at the same time, and the size of the
+     * upload thread pool
+     */
+    public int getMultipartUploadMaxConcurrency()
+    {
+        return getIntProperty(MULTIPART_UPLOAD_MAX_CONCURRENCY, DEFAULT_MULTIPART_UPLOAD_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Concurrency of the multipart uploads, shared by all the uploads of this file system. The current
+     * value is published in the properties as {@link S3FileSystemProvider#MULTIPART_UPLOAD_CURRENT_CONCURRENCY}.
+     *
+     * @return S3UploadConcurrency never null
+     */
+    public synchronized S3UploadConcurrency getUploadConcurrency()
+    {
+        if (uploadConcurrency == null)
+        {
+            uploadConcurrency = new S3UploadConcurrency(getMultipartUploadConcurrency(),
+                                                        getMultipartUploadMinConcurrency(),
+                                                        getMultipartUploadMaxConcurrency(),
+                                                        this::publishUploadConcurrency);
+
+            publishUploadConcurrency(uploadConcurrency.getLimit());
+        }
+
+        return uploadConcurrency;
+    }
+
+    private void publishUploadConcurrency(int limit)
+    {
+        publishProperty(MULTIPART_UPLOAD_CURRENT_CONCURRENCY, limit);
+    }
+
+    /**
+     * Thread pool shared by all the multipart uploads of this file system.
+     *
+     * @return ExecutorService never null
+     */
+    public synchronized ExecutorService getUploadExecutor()
+    {
+        if (uploadExecutor == null)
+        {
+            uploadExecutor = Executors.newFixedThreadPool(getUploadConcurrency().getMaxLimit(),
+                                                          new ThreadFactoryBuilder().setDaemon(true)
+                                                                                    .setNameFormat("s3fs-upload-%d")
+                                                                                    .build());
+        }
+
+        return uploadExecutor;
+    }
+
+    /**
+     * @return true if closing a channel or stream uploads the object in the background
+     */
+    public boolean isAsyncCommit()
+    {
+        return getBooleanProperty(ASYNC_COMMIT, false);
+    }
+
+    /**
+     * Background uploads of the channels and streams closed when {@link #isAsyncCommit()}.
+     *
+     * @return S3CommitManager never null
+     */
+    public synchronized S3CommitManager getCommitManager()
+    {
+        if (commitManager == null)
+        {
+            commitExecutor = Executors.newFixedThreadPool(getIntProperty(ASYNC_COMMIT_CONCURRENCY,
+                                                                         DEFAULT_ASYNC_COMMIT_CONCURRENCY),
+                                                          new ThreadFactoryBuilder().setDaemon(true)
+                                                                                    .setNameFormat("s3fs-commit-%d")
+                                                                                    .build());
+
+            commitManager = new S3CommitManager(commitExecutor,
+                                                getIntProperty(ASYNC_COMMIT_MAX_PENDING,
+                                                               DEFAULT_ASYNC_COMMIT_MAX_PENDING));
+        }
+
+        return commitManager;
+    }
+
+    /**
+     * A writer of many small objects, which uploads them several at the same time without checking
+     * whether they exist and without temp files.
+     *
+     * @return a new S3BulkWriter, sharing the threads of the other writers of this file system; closing the
+     * file system waits for its pending writes
+     * @throws ClosedFileSystemException if the file system is closed
+     */
+    public synchronized S3BulkWriter newBulkWriter()
+    {
+        S3BulkWriter writer = new S3BulkWriter(this,
+                                               getBulkWriteExecutor(),
+                                               getIntProperty(BULK_WRITE_MAX_PENDING, DEFAULT_BULK_WRITE_MAX_PENDING));
+        bulkWriters.add(writer);
+
+        return writer;
+    }
+
+    /**
+     * Write many small objects, several at the same time: see {@link #newBulkWriter()}.
+     *
+     * @param contents the content of every object, between the position and the limit of its buffer
+     * @return the paths that could not be written, with the reason, in the order of the contents; empty if
+     * all the objects have been written
+     * @throws IOException if the writes are interrupted or the file system is closed
+     */
+    public Map<Path, Throwable> writeAll(Map<? extends Path, ByteBuffer> contents)
+            throws IOException
+    {
+        S3BulkWriter writer = newBulkWriter();
+
+        Map<Path, CompletableFuture<Void>> writes = new LinkedHashMap<>();
+        for (Map.Entry<? extends Path, ByteBuffer> content : contents.entrySet())
+        {
+            writes.put(content.getKey(), writer.write(content.getKey(), content.getValue()));
+        }
+
+        Map<Path, Throwable> failures = new LinkedHashMap<>();
+        for (Map.Entry<Path, CompletableFuture<Void>> write : writes.entrySet())
+        {
+            try
+            {
+                write.getValue().get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for the writes");
+            }
+            catch (ExecutionException e)
+            {
+                failures.put(write.getKey(), e.getCause());
+            }
+        }
+
+        return failures;
+    }
+
+    private synchronized ExecutorService getBulkWriteExecutor()
+    {
+        if (closed)
+        {
+            throw new ClosedFileSystemException();
+        }
+
+        if (bulkWriteExecutor == null)
+        {
+            bulkWriteExecutor = Executors.newFixedThreadPool(getIntProperty(BULK_WRITE_CONCURRENCY,
+                                                                            DEFAULT_BULK_WRITE_CONCURRENCY),
+                                                             new ThreadFactoryBuilder().setDaemon(true)
+                                                                                       .setNameFormat(
+                                                                                               "s3fs-bulk-write-%d")
+                                                                                       .build());
+        }
+
+        return bulkWriteExecutor;
+    }
+
+    /**
+     * Resolver of the content type of the objects uploaded by this file system.
+     *
+     * @return S3ContentTypeResolver never null
+     * @throws S3FileSystemConfigurationException if the configured resolver can not be created
+     */
+    public synchronized S3ContentTypeResolver getContentTypeResolver()
+    {
+        if (contentTypeResolver == null)
+        {
+            Object name = properties.get(CONTENT_TYPE_RESOLVER);
+
+            contentTypeResolver = createContentTypeResolver(name != null ? name.toString() : null);
+        }
+
+        return contentTypeResolver;
+    }
+
+    /**
+     * Memory and temp files shared by the read-write channels of this file system, which keep the content
+     * they modify in memory until it grows past the threshold and then in a temp file.
+     *
+     * @return S3WriteBufferPool never null
+     */
+    public synchronized S3WriteBufferPool getWriteBufferPool()
+    {
+        if (writeBufferPool == null)
+        {
+            Object directory = properties.get(WRITE_BUFFER_SPILL_DIR);
+
+            writeBufferPool = new S3WriteBufferPool(directory != null && !directory.toString().isEmpty() ?
+                                                    Paths.get(directory.toString()) :
+                                                    null,
+                                                    getLongProperty(WRITE_BUFFER_MEMORY_THRESHOLD,
+                                                                    DEFAULT_WRITE_BUFFER_MEMORY_THRESHOLD),
+                                                    getLongProperty(WRITE_BUFFER_MEMORY_BUDGET,
+                                                                    DEFAULT_WRITE_BUFFER_MEMORY_BUDGET),
+                                                    getLongProperty(WRITE_BUFFER_SPILL_QUOTA, 0),
+                                                    getLongProperty(WRITE_BUFFER_SPILL_QUOTA_TIMEOUT, 0));
+
+            // the temp files of the processes that died before closing their file systems
+            writeBufferPool.deleteOrphans();
+        }
+
+        return writeBufferPool;
+    }
+
+    private static S3ContentTypeResolver createContentTypeResolver(String name)
+    {
+        if (name == null || name.isEmpty())
+        {
+            name = isTikaAvailable() ? "tika" : "extension";
+        }
+
+        switch (name)
+        {
+            case "none":
+                return S3ContentTypeResolver.NONE;
+            case "extension":
+                return new S3ExtensionContentTypeResolver();
+            case "tika":
+                // by name, the class needs Tika to be loaded
+                name = "org.carlspring.cloud.storage.s3fs.util.S3TikaContentTypeResolver";
+                break;
+            default:
+                break;
+        }
+
+        try
+        {
+            return (S3ContentTypeResolver) Class.forName(name).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | ClassCastException | LinkageError e)
+        {
+            throw new S3FileSystemConfigurationException("Configuration problem, couldn't instantiate " +
+                                                         "S3ContentTypeResolver (" + name + "): ",
+                                                         e);
+        }
+    }
+
+    private static boolean isTikaAvailable()
+    {
+        try
+        {
+            Class.forName("org.apache.tika.Tika", false, S3FileSystem.class.getClassLoader());
+
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Cache of object blocks shared by all the range readers of this file system.
+     *
+     * @return S3BlockCache, or null if the block cache is disabled (the default)
+     */
+    public synchronized S3BlockCache getBlockCache()
+    {
+        if (blockCache == null)
+        {
+            long capacity = getLongProperty(BLOCK_CACHE_SIZE, 0);
+            if (capacity <= 0)
+            {
+                return null;
+            }
+
+            blockCache = new S3BlockCache(getCacheBlockSize(), capacity);
+        }
+
+        return blockCache;
+    }
+
+    /**
+     * Cache of object blocks kept in a local directory, shared by all the range readers of this file
+     * system and by any other process that uses the same directory.
+     *
+     * @return S3DiskCache, or null if the disk cache is disabled (the default)
+     * @throws IOException if the cache directory can not be created
+     */
+    public synchronized S3DiskCache getDiskCache()
+            throws IOException
+    {
+        if (diskCache == null)
+        {
+            Object directory = properties.get(DISK_CACHE_DIR);
+            if (directory == null || directory.toString().isEmpty())
+            {
+                return null;
+            }
+
+            diskCache = new S3DiskCache(Paths.get(directory.toString()),
+                                        getCacheBlockSize(),
+                                        getLongProperty(DISK_CACHE_SIZE, DEFAULT_DISK_CACHE_SIZE));
+        }
+
+        return diskCache;
+    }
+
+    /**
+     * @return the size in bytes of the blocks held by the block cache and the disk cache
+     */
+    public int getCacheBlockSize()
+    {
+        return getIntProperty(BLOCK_CACHE_BLOCK_SIZE, DEFAULT_BLOCK_CACHE_BLOCK_SIZE);
+    }
+
+    protected int getIntProperty(String name, int defaultValue)
+    {
+        Object value = properties.get(name);
+
+        return value != null ? Integer.parseInt(value.toString()) : defaultValue;
+    }
+
+    protected long getLongProperty(String name, long defaultValue)
+    {
+        Object value = properties.get(name);
+
+        return value != null ? Long.parseLong(value.toString()) : defaultValue;
+    }
+
+    protected boolean getBooleanProperty(String name, boolean defaultValue)
+    {
+        Object value = properties.get(name);
+
+        return value != null ? Boolean.parseBoolean(value.toString()) : defaultValue;
     }
 
 }
@@ -6,11 +6,13 @@ import org.carlspring.cloud.storage.s3fs.attribute.S3PosixFileAttributeView;
 import org.carlspring.cloud.storage.s3fs.attribute.S3PosixFileAttributes;
 import org.carlspring.cloud.storage.s3fs.util.AttributesUtils;
 import org.carlspring.cloud.storage.s3fs.util.Cache;
+import org.carlspring.cloud.storage.s3fs.util.S3AttributeCache;
 import org.carlspring.cloud.storage.s3fs.util.S3Utils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
@@ -25,8 +27,10 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.internal.Constants;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -71,6 +75,135 @@ public class S3FileSystemProvider
 
     public static final String AMAZON_S3_FACTORY_CLASS = "s3fs_amazon_s3_factory";
 
+    public static final String PARALLEL_DOWNLOAD = "s3fs_parallel_download";
+
+    public static final String PARALLEL_DOWNLOAD_CHUNK_SIZE = "s3fs_parallel_download_chunk_size";
+
+    public static final String PARALLEL_DOWNLOAD_CONCURRENCY = "s3fs_parallel_download_concurrency";
+
+    public static final String PARALLEL_DOWNLOAD_MAX_IN_FLIGHT = "s3fs_parallel_download_max_in_flight";
+
+    public static final int DEFAULT_PARALLEL_DOWNLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    public static final int DEFAULT_PARALLEL_DOWNLOAD_CONCURRENCY = 8;
+
+    public static final long DEFAULT_PARALLEL_DOWNLOAD_MAX_IN_FLIGHT = 64 * 1024 * 1024;
+
+    public static final String BLOCK_CACHE_SIZE = "s3fs_block_cache_size";
+
+    public static final String BLOCK_CACHE_BLOCK_SIZE = "s3fs_block_cache_block_size";
+
+    public static final int DEFAULT_BLOCK_CACHE_BLOCK_SIZE = 1024 * 1024;
+
+    public static final String DISK_CACHE_DIR = "s3fs_disk_cache_dir";
+
+    public static final String DISK_CACHE_SIZE = "s3fs_disk_cache_size";
+
+    public static final long DEFAULT_DISK_CACHE_SIZE = 1024L * 1024 * 1024;
+
+    public static final String READAHEAD_MAX_SIZE = "s3fs_readahead_max_size";
+
+    public static final long DEFAULT_READAHEAD_MAX_SIZE = 8 * 1024 * 1024;
+
+    public static final String VECTORED_READ_MAX_GAP = "s3fs_vectored_read_max_gap";
+
+    public static final String VECTORED_READ_MAX_MERGED_SIZE = "s3fs_vectored_read_max_merged_size";
+
+    public static final int DEFAULT_VECTORED_READ_MAX_GAP = 16 * 1024;
+
+    public static final int DEFAULT_VECTORED_READ_MAX_MERGED_SIZE = 8 * 1024 * 1024;
+
+    public static final String INPUT_STREAM_MAX_RETRIES = "s3fs_input_stream_max_retries";
+
+    public static final int DEFAULT_INPUT_STREAM_MAX_RETRIES = 3;
+
+    public static final String INPUT_STREAM_DRAIN_THRESHOLD = "s3fs_input_stream_drain_threshold";
+
+    public static final long DEFAULT_INPUT_STREAM_DRAIN_THRESHOLD = 128 * 1024;
+
+    public static final String MULTIPART_UPLOAD_PART_SIZE = "s3fs_multipart_upload_part_size";
+
+    public static final String MULTIPART_UPLOAD_CONCURRENCY = "s3fs_multipart_upload_concurrency";
+
+    public static final int DEFAULT_MULTIPART_UPLOAD_PART_SIZE = 8 * 1024 * 1024;
+
+    public static final int DEFAULT_MULTIPART_UPLOAD_CONCURRENCY = 4;
+
+    public static final String MULTIPART_UPLOAD_MIN_CONCURRENCY = "s3fs_multipart_upload_min_concurrency";
+
+    public static final String MULTIPART_UPLOAD_MAX_CONCURRENCY = "s3fs_multipart_upload_max_concurrency";
+
+    public static final int DEFAULT_MULTIPART_UPLOAD_MIN_CONCURRENCY = 1;
+
+    public static final int DEFAULT_MULTIPART_UPLOAD_MAX_CONCURRENCY = 16;
+
+    public static final String MULTIPART_UPLOAD_MAX_MEMORY = "s3fs_multipart_upload_max_memory";
+
+    public static final long DEFAULT_MULTIPART_UPLOAD_MAX_MEMORY = 256 * 1024 * 1024;
+
+    public static final String ASYNC_COMMIT = "s3fs_async_commit";
+
+    public static final String ASYNC_COMMIT_CONCURRENCY = "s3fs_async_commit_concurrency";
+
+    public static final String ASYNC_COMMIT_MAX_PENDING = "s3fs_async_commit_max_pending";
+
+    public static final int DEFAULT_ASYNC_COMMIT_CONCURRENCY = 4;
+
+    public static final int DEFAULT_ASYNC_COMMIT_MAX_PENDING = 64;
+
+    /**
+     * How the content type of the uploaded objects is decided: "none", "extension", "tika", or the name
+     * of a class implementing {@link S3ContentTypeResolver}. Defaults to "tika" when Tika is on the
+     * classpath, "extension" otherwise.
+     */
+    public static final String CONTENT_TYPE_RESOLVER = "s3fs_content_type_resolver";
+
+    public static final String BULK_WRITE_CONCURRENCY = "s3fs_bulk_write_concurrency";
+
+    public static final String BULK_WRITE_MAX_PENDING = "s3fs_bulk_write_max_pending";
+
+    public static final int DEFAULT_BULK_WRITE_CONCURRENCY = 16;
+
+    public static final int DEFAULT_BULK_WRITE_MAX_PENDING = 256;
+
+    public static final String WRITE_BUFFER_MEMORY_THRESHOLD = "s3fs_write_buffer_memory_threshold";
+
+    public static final String WRITE_BUFFER_MEMORY_BUDGET = "s3fs_write_buffer_memory_budget";
+
+    public static final String WRITE_BUFFER_SPILL_DIR = "s3fs_write_buffer_spill_dir";
+
+    public static final String WRITE_BUFFER_SPILL_QUOTA = "s3fs_write_buffer_spill_quota";
+
+    public static final String WRITE_BUFFER_SPILL_QUOTA_TIMEOUT = "s3fs_write_buffer_spill_quota_timeout";
+
+    public static final long DEFAULT_WRITE_BUFFER_MEMORY_THRESHOLD = 1024 * 1024;
+
+    public static final long DEFAULT_WRITE_BUFFER_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+    public static final String ATTRIBUTE_CACHE_TTL = "s3fs_attribute_cache_ttl";
+
+    public static final String ATTRIBUTE_CACHE_SIZE = "s3fs_attribute_cache_size";
+
+    public static final String ATTRIBUTE_CACHE_MISSING_TTL = "s3fs_attribute_cache_missing_ttl";
+
+    public static final int DEFAULT_ATTRIBUTE_CACHE_TTL = 60000;
+
+    public static final int DEFAULT_ATTRIBUTE_CACHE_SIZE = 10000;
+
+    public static final int DEFAULT_ATTRIBUTE_CACHE_MISSING_TTL = 5000;
+
+    /**
+     * Not a setting: the part size chosen for the last multipart upload of a file system, published
+     * in its properties.
+     */
+    public static final String MULTIPART_UPLOAD_CURRENT_PART_SIZE = "s3fs_multipart_upload_current_part_size";
+
+    /**
+     * Not a setting: the number of parts uploaded at the same time as adapted by a file system,
+     * published in its properties.
+     */
+    public static final String MULTIPART_UPLOAD_CURRENT_CONCURRENCY = "s3fs_multipart_upload_current_concurrency";
+
     private static final ConcurrentMap<String, S3FileSystem> fileSystems = new ConcurrentHashMap<>();
 
     private static final List<String> PROPS_TO_OVERLOAD = Arrays.asList(ACCESS_KEY,
@@ -92,12 +225,42 @@ public class S3FileSystemProvider
                                                                         USER_AGENT,
                                                                         AMAZON_S3_FACTORY_CLASS,
                                                                         SIGNER_OVERRIDE,
-                                                                        PATH_STYLE_ACCESS);
+                                                                        PATH_STYLE_ACCESS,
+                                                                        PARALLEL_DOWNLOAD,
+                                                                        PARALLEL_DOWNLOAD_CHUNK_SIZE,
+                                                                        PARALLEL_DOWNLOAD_CONCURRENCY,
+                                                                        PARALLEL_DOWNLOAD_MAX_IN_FLIGHT,
+                                                                        BLOCK_CACHE_SIZE,
+                                                                        BLOCK_CACHE_BLOCK_SIZE,
+                                                                        DISK_CACHE_DIR,
+                                                                        DISK_CACHE_SIZE,
+                                                                        READAHEAD_MAX_SIZE,
+                                                                        VECTORED_READ_MAX_GAP,
+                                                                        VECTORED_READ_MAX_MERGED_SIZE,
+                                                                        INPUT_STREAM_MAX_RETRIES,
+                                                                        INPUT_STREAM_DRAIN_THRESHOLD,
+                                                                        MULTIPART_UPLOAD_PART_SIZE,
+                                                                        MULTIPART_UPLOAD_CONCURRENCY,
+                                                                        MULTIPART_UPLOAD_MIN_CONCURRENCY,
+                                                                        MULTIPART_UPLOAD_MAX_CONCURRENCY,
+                                                                        MULTIPART_UPLOAD_MAX_MEMORY,
+                                                                        ASYNC_COMMIT,
+                                                                        ASYNC_COMMIT_CONCURRENCY,
+                                                                        ASYNC_COMMIT_MAX_PENDING,
+                                                                        CONTENT_TYPE_RESOLVER,
+                                                                        BULK_WRITE_CONCURRENCY,
+                                                                        BULK_WRITE_MAX_PENDING,
+                                                                        WRITE_BUFFER_MEMORY_THRESHOLD,
+                                                                        WRITE_BUFFER_MEMORY_BUDGET,
+                                                                        WRITE_BUFFER_SPILL_DIR,
+                                                                        WRITE_BUFFER_SPILL_QUOTA,
+                                                                        WRITE_BUFFER_SPILL_QUOTA_TIMEOUT,
+                                                                        ATTRIBUTE_CACHE_TTL,
+                                                                        ATTRIBUTE_CACHE_SIZE,
+                                                                        ATTRIBUTE_CACHE_MISSING_TTL);
 
     private S3Utils s3Utils = new S3Utils();
 
-    private Cache cache = new Cache();
-
 
     @Override
     public String getScheme()
@@ -436,15 +599,38 @@ public class S3FileSystemProvider
 
         try
         {
-            S3Object object = s3Path.getFileSystem().getClient().getObject(s3Path.getFileStore().name(), key);
-            InputStream res = object.getObjectContent();
+            S3FileSystem fileSystem = s3Path.getFileSystem();
+
+            S3Object object = null;
+            if (fileSystem.isParallelDownload())
+            {
+                // the first chunk, whose Content-Range gives the size of the object: a small object is then
+                // downloaded with a single request
+                int chunkSize = fileSystem.getParallelDownloadChunkSize();
+
+                object = getFirstChunk(s3Path, chunkSize);
+                if (object != null && object.getObjectContent() != null &&
+                    object.getObjectMetadata().getInstanceLength() > chunkSize)
+                {
+                    return new S3ParallelInputStream(new S3RangeReader(s3Path, object.getObjectMetadata()),
+                                                     chunkSize,
+                                                     fileSystem.getParallelDownloadMaxInFlight(),
+                                                     fileSystem.getDownloadExecutor(),
+                                                     object);
+                }
+            }
+
+            if (object == null)
+            {
+                object = fileSystem.getClient().getObject(s3Path.getFileStore().name(), key);
+            }
 
-            if (res == null)
+            if (object.getObjectContent() == null)
             {
                 throw new IOException(String.format("The specified path is a directory: %s", path));
             }
 
-            return res;
+            return new S3ResumableInputStream(s3Path, object, fileSystem.getInputStreamMaxRetries());
         }
         catch (AmazonS3Exception e)
         {
@@ -458,6 +644,89 @@ public class S3FileSystemProvider
         }
     }
 
+    /**
+     * @return the response to the range request of the first bytes of the object, or null if it is empty
+     */
+    private S3Object getFirstChunk(S3Path s3Path, int chunkSize)
+    {
+        GetObjectRequest request = new GetObjectRequest(s3Path.getFileStore().name(), s3Path.getKey());
+        request.setRange(0, chunkSize - 1);
+
+        try
+        {
+            return s3Path.getFileSystem().getClient().getObject(request);
+        }
+        catch (AmazonS3Exception e)
+        {
+            if (e.getStatusCode() == 416)
+            {
+                // an empty object has no range to return
+                return null;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Objects written from scratch are streamed to S3 with a {@link S3OutputStream}, without an existence
+     * check when they are created or truncated and without a temp file. Appending to an existing object
+     * starts the upload with parts copied by S3 from it (see {@link S3OutputStream#append(ObjectMetadata)}).
+     * Overwriting part of an existing object, and the SYNC, DSYNC and DELETE_ON_CLOSE options, still go
+     * through {@link #newByteChannel(Path, Set, FileAttribute[])}.
+     */
+    @Override
+    public OutputStream newOutputStream(Path path,
+                                        OpenOption... options)
+            throws IOException
+    {
+        S3Path s3Path = toS3Path(path);
+
+        Preconditions.checkArgument(!s3Path.getKey().equals(""),
+                                    "cannot create OutputStream for root directory: %s",
+                                    path);
+
+        Set<OpenOption> openOptions = new HashSet<>(Arrays.asList(options));
+        if (withoutS3Options(openOptions).isEmpty())
+        {
+            openOptions.add(StandardOpenOption.CREATE);
+            openOptions.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        if (openOptions.contains(StandardOpenOption.READ))
+        {
+            throw new IllegalArgumentException("READ not allowed");
+        }
+
+        if (openOptions.contains(StandardOpenOption.SYNC) ||
+            openOptions.contains(StandardOpenOption.DSYNC) ||
+            openOptions.contains(StandardOpenOption.DELETE_ON_CLOSE))
+        {
+            return super.newOutputStream(path, options);
+        }
+
+        if (openOptions.contains(StandardOpenOption.APPEND))
+        {
+            ObjectMetadata existing = getAppendedObjectMetadata(s3Path, openOptions);
+
+            S3OutputStream stream = new S3OutputStream(s3Path, S3ExpectedSize.getSize(openOptions));
+            if (existing != null)
+            {
+                stream.append(existing);
+            }
+
+            return stream;
+        }
+
+        if (checkReplacedObject(s3Path, openOptions))
+        {
+            // the bytes past the ones written are kept
+            return super.newOutputStream(path, options);
+        }
+
+        return new S3OutputStream(s3Path, S3ExpectedSize.getSize(openOptions));
+    }
+
     @Override
     public SeekableByteChannel newByteChannel(Path path,
                                               Set<? extends OpenOption> options,
@@ -466,7 +735,27 @@ public class S3FileSystemProvider
     {
         S3Path s3Path = toS3Path(path);
 
-        return new S3SeekableByteChannel(s3Path, options);
+        if (isReadOnly(options))
+        {
+            return new S3ReadOnlySeekableByteChannel(s3Path, S3TailPrefetch.getSize(options));
+        }
+
+        if (isWriteOnly(options))
+        {
+            // the object is truncated
+            checkReplacedObject(s3Path, options);
+
+            return new S3WriteOnlySeekableByteChannel(s3Path, S3ExpectedSize.getSize(options));
+        }
+
+        if (isAppendOnly(options))
+        {
+            ObjectMetadata existing = getAppendedObjectMetadata(s3Path, options);
+
+            return new S3WriteOnlySeekableByteChannel(s3Path, S3ExpectedSize.getSize(options), existing);
+        }
+
+        return new S3SeekableByteChannel(s3Path, withoutS3Options(options));
     }
 
     @Override
@@ -477,7 +766,167 @@ public class S3FileSystemProvider
     {
         S3Path s3Path = toS3Path(path);
 
-        return new S3FileChannel(s3Path, options);
+        if (isReadOnly(options))
+        {
+            return new S3ReadOnlyFileChannel(s3Path, S3TailPrefetch.getSize(options));
+        }
+
+        return new S3FileChannel(s3Path, withoutS3Options(options));
+    }
+
+    /**
+     * Read-only channels are served with range requests instead of a full download to a temp file.
+     *
+     * @param options the options used to open the channel
+     * @return true if the options don't ask for anything other than reading
+     */
+    private boolean isReadOnly(Set<? extends OpenOption> options)
+    {
+        for (OpenOption option : options)
+        {
+            if (option != StandardOpenOption.READ && !(option instanceof S3TailPrefetch) &&
+                !(option instanceof S3ExpectedSize))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Channels that write a new or truncated object without reading it are streamed to S3 without a
+     * temp file.
+     *
+     * @param options the options used to open the channel
+     * @return true if the previous content of the object is not needed
+     */
+    private boolean isWriteOnly(Set<? extends OpenOption> options)
+    {
+        return options.contains(StandardOpenOption.WRITE) &&
+               (options.contains(StandardOpenOption.CREATE_NEW) ||
+                options.contains(StandardOpenOption.TRUNCATE_EXISTING)) &&
+               !options.contains(StandardOpenOption.READ) &&
+               !options.contains(StandardOpenOption.APPEND) &&
+               !options.contains(StandardOpenOption.SYNC) &&
+               !options.contains(StandardOpenOption.DSYNC) &&
+               !options.contains(StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Channels that only append to an object are streamed to S3 too, the object being copied by S3.
+     *
+     * @param options the options used to open the channel
+     * @return true if the content of the object is only appended to
+     */
+    private boolean isAppendOnly(Set<? extends OpenOption> options)
+    {
+        return options.contains(StandardOpenOption.APPEND) &&
+               !options.contains(StandardOpenOption.READ) &&
+               !options.contains(StandardOpenOption.SYNC) &&
+               !options.contains(StandardOpenOption.DSYNC) &&
+               !options.contains(StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Check the options used to write an object from the start against the object. No request is sent
+     * when they allow both a new object and an existing one: CREATE with TRUNCATE_EXISTING.
+     *
+     * @param path    the path of the object
+     * @param options the options the object is opened with
+     * @return true if the object exists and is not truncated, so the bytes past the ones written are kept
+     * @throws FileAlreadyExistsException if the object exists and CREATE_NEW is set
+     * @throws NoSuchFileException        if the object does not exist and neither CREATE nor CREATE_NEW is set
+     */
+    private boolean checkReplacedObject(S3Path path, Set<? extends OpenOption> options)
+            throws IOException
+    {
+        boolean createNew = options.contains(StandardOpenOption.CREATE_NEW);
+        boolean create = options.contains(StandardOpenOption.CREATE);
+        boolean truncate = createNew || options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+
+        if (!createNew && create && truncate)
+        {
+            return false;
+        }
+
+        boolean exists = exists(path);
+
+        if (exists && createNew)
+        {
+            throw new FileAlreadyExistsException(String.format("target already exists: %s", path));
+        }
+
+        if (!exists && !createNew && !create)
+        {
+            throw new NoSuchFileException(String.format("target not exists: %s", path));
+        }
+
+        return exists && !truncate;
+    }
+
+    /**
+     * Check the options used to append to an object against the object.
+     *
+     * @param path    the path of the object
+     * @param options the options used to open the stream or channel
+     * @return the metadata of the object, null if it does not exist and must be created
+     * @throws FileAlreadyExistsException if the object exists and CREATE_NEW is specified
+     * @throws NoSuchFileException        if the object does not exist and neither CREATE nor CREATE_NEW is specified
+     */
+    private ObjectMetadata getAppendedObjectMetadata(S3Path path, Set<? extends OpenOption> options)
+            throws IOException
+    {
+        if (options.contains(StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            throw new IllegalArgumentException("APPEND + TRUNCATE_EXISTING not allowed");
+        }
+
+        ObjectMetadata metadata;
+        try
+        {
+            metadata = path.getFileSystem().getClient().getObjectMetadata(path.getFileStore().name(), path.getKey());
+        }
+        catch (AmazonS3Exception e)
+        {
+            if (e.getStatusCode() != 404)
+            {
+                throw new IOException(String.format("Cannot access file: %s", path), e);
+            }
+
+            metadata = null;
+        }
+
+        if (metadata != null && options.contains(StandardOpenOption.CREATE_NEW))
+        {
+            throw new FileAlreadyExistsException(String.format("target already exists: %s", path));
+        }
+
+        if (metadata == null &&
+            !options.contains(StandardOpenOption.CREATE_NEW) &&
+            !options.contains(StandardOpenOption.CREATE))
+        {
+            throw new NoSuchFileException(String.format("target not exists: %s", path));
+        }
+
+        return metadata;
+    }
+
+    /**
+     * The options of this provider mean nothing to the temp file that backs a writable channel.
+     */
+    private Set<OpenOption> withoutS3Options(Set<? extends OpenOption> options)
+    {
+        Set<OpenOption> standardOptions = new HashSet<>();
+        for (OpenOption option : options)
+        {
+            if (!(option instanceof S3TailPrefetch) && !(option instanceof S3ExpectedSize))
+            {
+                standardOptions.add(option);
+            }
+        }
+
+        return standardOptions;
     }
 
     /**
@@ -519,6 +968,8 @@ public class S3FileSystemProvider
                                                      directoryKey,
                                                      new ByteArrayInputStream(new byte[0]),
                                                      metadata);
+
+        s3Path.getFileSystem().getAttributeCache().invalidate(s3Path);
     }
 
     @Override
@@ -542,6 +993,8 @@ public class S3FileSystemProvider
 
         // we delete the two objects (sometimes exists the key '/' and sometimes not)
         s3Path.getFileSystem().getClient().deleteObject(bucketName, key + "/");
+
+        s3Path.getFileSystem().getAttributeCache().invalidate(s3Path);
     }
 
     @Override
@@ -574,6 +1027,8 @@ public class S3FileSystemProvider
         String keyTarget = s3Target.getKey();
 
         s3Source.getFileSystem().getClient().copyObject(bucketNameOrigin, keySource, bucketNameTarget, keyTarget);
+
+        s3Target.getFileSystem().getAttributeCache().invalidate(s3Target);
     }
 
     @Override
@@ -668,37 +1123,27 @@ public class S3FileSystemProvider
             throws IOException
     {
         S3Path s3Path = toS3Path(path);
+        S3AttributeCache attributeCache = s3Path.getFileSystem().getAttributeCache();
         if (type == BasicFileAttributes.class)
         {
-            if (cache.isInTime(s3Path.getFileSystem().getCache(), s3Path.getFileAttributes()))
+            S3BasicFileAttributes attrs = attributeCache.get(s3Path, S3BasicFileAttributes.class);
+            if (attrs == null)
             {
-                A result = type.cast(s3Path.getFileAttributes());
-                s3Path.setFileAttributes(null);
-
-                return result;
+                attrs = s3Utils.getS3FileAttributes(s3Path);
+                attributeCache.put(s3Path, attrs);
             }
-            else
-            {
-                S3BasicFileAttributes attrs = s3Utils.getS3FileAttributes(s3Path);
-                s3Path.setFileAttributes(attrs);
 
-                return type.cast(attrs);
-            }
+            return type.cast(attrs);
         }
         else if (type == PosixFileAttributes.class)
         {
-            if (s3Path.getFileAttributes() instanceof PosixFileAttributes &&
-                cache.isInTime(s3Path.getFileSystem().getCache(), s3Path.getFileAttributes()))
+            S3PosixFileAttributes attrs = attributeCache.get(s3Path, S3PosixFileAttributes.class);
+            if (attrs == null)
             {
-                A result = type.cast(s3Path.getFileAttributes());
-                s3Path.setFileAttributes(null);
-
-                return result;
+                attrs = s3Utils.getS3PosixFileAttributes(s3Path);
+                attributeCache.put(s3Path, attrs);
             }
 
-            S3PosixFileAttributes attrs = s3Utils.getS3PosixFileAttributes(s3Path);
-            s3Path.setFileAttributes(attrs);
-
             return type.cast(attrs);
         }
 
@@ -772,7 +1217,7 @@ public class S3FileSystemProvider
      */
     public S3FileSystem createFileSystem(URI uri, Properties props)
     {
-        return new S3FileSystem(this, getFileSystemKey(uri, props), getAmazonS3(uri, props), uri.getHost());
+        return new S3FileSystem(this, getFileSystemKey(uri, props), getAmazonS3(uri, props), uri.getHost(), props);
     }
 
     protected AmazonS3 getAmazonS3(URI uri, Properties props)
@@ -845,9 +1290,16 @@ public class S3FileSystemProvider
     boolean exists(S3Path path)
     {
         S3Path s3Path = toS3Path(path);
+        S3AttributeCache attributeCache = s3Path.getFileSystem().getAttributeCache();
+        if (attributeCache.get(s3Path, S3BasicFileAttributes.class) != null)
+        {
+            return true;
+        }
+
         try
         {
-            s3Utils.getS3ObjectSummary(s3Path);
+            S3ObjectSummary objectSummary = s3Utils.getS3ObjectSummary(s3Path);
+            attributeCache.put(s3Path, s3Utils.toS3FileAttributes(objectSummary, s3Path.getKey()));
 
             return true;
         }
@@ -879,14 +1331,26 @@ public class S3FileSystemProvider
         return fileSystems;
     }
 
+    /**
+     * @return a new Cache, not used by the provider
+     * @deprecated the attributes are cached per file system, see {@link S3FileSystem#getAttributeCache()}
+     */
+    @Deprecated
     public Cache getCache()
     {
-        return cache;
+        return new Cache();
     }
 
+    /**
+     * Does nothing.
+     *
+     * @param cache ignored
+     * @deprecated the attributes are cached per file system, see {@link S3FileSystem#getAttributeCache()}
+     */
+    @Deprecated
     public void setCache(Cache cache)
     {
-        this.cache = cache;
+        // the attribute cache of each file system replaces this one
     }
 
 }
@@ -0,0 +1,751 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3ContentDigest;
+import org.carlspring.cloud.storage.s3fs.util.S3DirtyRanges;
+import org.carlspring.cloud.storage.s3fs.util.S3UploadConcurrency;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.base.Preconditions;
+import static java.lang.String.format;
+
+/**
+ * OutputStream that uploads an object while it is being written, without a temp file.
+ * <p>
+ * Bytes are buffered in memory one part at a time. As soon as the first part is full a multipart upload
+ * is started, and every full part is uploaded in the background while the caller keeps writing; the
+ * number of parts held in memory is bounded by the number of parts in flight, which adapts to the
+ * measured throughput (see {@link S3UploadConcurrency}). Closing the stream uploads the last part and
+ * completes the upload. An object smaller than a part is sent with a single PUT request instead.
+ * </p>
+ * <p>
+ * S3 accepts at most 10,000 parts. The part size starts at the configured minimum, or at the size that
+ * fits the expected length in 10,000 parts when it's known, and doubles every 1,000 parts so a stream
+ * of unknown length still fits. The first buffer grows with the bytes written, so small objects don't
+ * hold a whole part in memory. The parts in flight and the part being written fit in the memory bound
+ * of the file system (see {@link S3FileSystem#getMultipartUploadMaxMemory()}): fewer parts are sent at
+ * the same time as they grow, down to one at a time.
+ * </p>
+ * <p>
+ * If any part fails the multipart upload is aborted, and nothing is written to the object.
+ * </p>
+ */
+public class S3OutputStream
+        extends OutputStream
+{
+
+    /**
+     * maximum number of parts of a multipart upload.
+     */
+    static final int MAX_PARTS = 10000;
+
+    /**
+     * number of parts uploaded before the part size doubles.
+     */
+    static final int PARTS_PER_DOUBLING = 1000;
+
+    /**
+     * largest part held in memory.
+     */
+    static final int MAX_PART_SIZE = 1024 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Path path;
+
+    private final String bucketName;
+
+    private final String key;
+
+    private final int minPartSize;
+
+    private final long expectedLength;
+
+    private final S3UploadConcurrency concurrency;
+
+    /**
+     * bytes held by the parts in flight and the part being written.
+     */
+    private final long maxMemory;
+
+    private int partSize;
+
+    private final ExecutorService executor;
+
+    private byte[] buffer;
+
+    private int count;
+
+    /**
+     * MD5 of the bytes of the buffer, computed as they are written.
+     */
+    private final S3ContentDigest partDigest = new S3ContentDigest();
+
+    private String contentType;
+
+    private String uploadId;
+
+    private int nextPartNumber = 1;
+
+    /**
+     * parts being uploaded, in part number order.
+     */
+    private final Deque<Future<PartETag>> pendingParts = new ArrayDeque<>();
+
+    private final List<PartETag> partETags = new ArrayList<>();
+
+    private boolean closed;
+
+    /**
+     * the failure that closed the stream, reported again by {@link #close()}.
+     */
+    private IOException failure;
+
+    private CompletableFuture<Void> commit;
+
+
+    /**
+     * Stream configured with the multipart upload settings of the file system of the path.
+     *
+     * @param path           the path of the object to write
+     * @param expectedLength the number of bytes expected to be written, -1 if unknown
+     */
+    public S3OutputStream(S3Path path, long expectedLength)
+    {
+        this(path,
+             path.getFileSystem().getMultipartUploadPartSize(),
+             expectedLength,
+             path.getFileSystem().getUploadConcurrency(),
+             path.getFileSystem().getUploadExecutor());
+    }
+
+    /**
+     * @param path             the path of the object to write
+     * @param partSize         the size in bytes of every part but the last one
+     * @param maxPartsInFlight the maximum number of parts being uploaded at the same time by this stream
+     * @param executor         the executor that uploads the parts
+     */
+    public S3OutputStream(S3Path path, int partSize, int maxPartsInFlight, ExecutorService executor)
+    {
+        this(path,
+             partSize,
+             -1,
+             new S3UploadConcurrency(maxPartsInFlight, maxPartsInFlight, maxPartsInFlight),
+             executor);
+    }
+
+    /**
+     * @param path           the path of the object to write
+     * @param minPartSize    the smallest size in bytes of the parts but the last one
+     * @param expectedLength the number of bytes expected to be written, -1 if unknown
+     * @param concurrency    the number of parts being uploaded at the same time by this stream
+     * @param executor       the executor that uploads the parts
+     */
+    public S3OutputStream(S3Path path,
+                          int minPartSize,
+                          long expectedLength,
+                          S3UploadConcurrency concurrency,
+                          ExecutorService executor)
+    {
+        this.path = path;
+        this.bucketName = path.getFileStore().name();
+        this.key = path.getKey();
+        this.minPartSize = minPartSize;
+        this.expectedLength = expectedLength;
+        this.concurrency = concurrency;
+        this.maxMemory = path.getFileSystem().getMultipartUploadMaxMemory();
+        this.executor = executor;
+        this.partSize = partSize(minPartSize, expectedLength, 1);
+
+        long initialSize = expectedLength >= 0 ? Math.max(1, expectedLength) : INITIAL_BUFFER_SIZE;
+        this.buffer = new byte[(int) Math.min(partSize, initialSize)];
+    }
+
+    /**
+     * @param minPartSize    the smallest size in bytes of the parts
+     * @param expectedLength the number of bytes expected to be written, -1 if unknown
+     * @param partNumber     the number of the part, starting at 1
+     * @return the size in bytes of the part
+     */
+    static int partSize(int minPartSize, long expectedLength, int partNumber)
+    {
+        long size = minPartSize;
+        if (expectedLength > 0)
+        {
+            size = Math.max(size, (expectedLength + MAX_PARTS - 1) / MAX_PARTS);
+        }
+
+        // past the expected length, the parts grow like for an unknown length
+        if (expectedLength < 0 || (partNumber - 1) * size >= expectedLength)
+        {
+            int doublings = Math.min((partNumber - 1) / PARTS_PER_DOUBLING, 30);
+
+            size = Math.max(size, (long) minPartSize << doublings);
+        }
+
+        return (int) Math.min(size, MAX_PART_SIZE);
+    }
+
+    /**
+     * @return the size in bytes of the part being written
+     */
+    public int getPartSize()
+    {
+        return partSize;
+    }
+
+    /**
+     * Start the stream with the content of the existing object, so the bytes written are appended to it.
+     * Must be called before anything is written.
+     * <p>
+     * An object of at least {@link S3PartialUpload#MIN_PART_SIZE} bytes is not downloaded: the multipart
+     * upload starts with parts copied by S3 from the object. A smaller object can't be a part on its
+     * own, so its content is downloaded into the first part instead. Both are pinned to the ETag of the
+     * object, so the content appended to is the one described by the metadata.
+     * </p>
+     *
+     * @param existing the metadata of the object
+     * @throws IOException if the object can not be read
+     */
+    public void append(ObjectMetadata existing)
+            throws IOException
+    {
+        Preconditions.checkState(count == 0 && uploadId == null, "append must be called before writing");
+
+        ensureOpen();
+
+        long length = existing.getContentLength();
+        if (length == 0)
+        {
+            return;
+        }
+
+        final String eTag = existing.getETag();
+
+        contentType = existing.getContentType();
+
+        if (length < S3PartialUpload.MIN_PART_SIZE)
+        {
+            GetObjectRequest request = new GetObjectRequest(bucketName, key);
+            if (eTag != null)
+            {
+                request.withMatchingETagConstraint(eTag);
+            }
+
+            S3Object object = getClient().getObject(request);
+            if (object == null)
+            {
+                throw new IOException(format("The object has been modified since it was opened: %s", path));
+            }
+
+            try (InputStream content = object.getObjectContent())
+            {
+                byte[] bytes = new byte[8192];
+
+                int read;
+                while ((read = content.read(bytes)) >= 0)
+                {
+                    write(bytes, 0, read);
+                }
+            }
+
+            return;
+        }
+
+        InitiateMultipartUploadRequest initiate = new InitiateMultipartUploadRequest(bucketName,
+                                                                                     key,
+                                                                                     createMetadata(-1));
+
+        uploadId = getClient().initiateMultipartUpload(initiate).getUploadId();
+
+        List<S3PartialUpload.Part> parts = S3PartialUpload.plan(new S3DirtyRanges(),
+                                                                length,
+                                                                length,
+                                                                S3PartialUpload.MIN_PART_SIZE,
+                                                                S3PartialUpload.COPY_PART_SIZE,
+                                                                S3PartialUpload.COPY_PART_SIZE);
+
+        for (S3PartialUpload.Part part : parts)
+        {
+            final CopyPartRequest request = new CopyPartRequest().withSourceBucketName(bucketName)
+                                                                 .withSourceKey(key)
+                                                                 .withDestinationBucketName(bucketName)
+                                                                 .withDestinationKey(key)
+                                                                 .withUploadId(uploadId)
+                                                                 .withPartNumber(nextPartNumber++)
+                                                                 .withFirstByte(part.getStart())
+                                                                 .withLastByte(part.getEnd() - 1);
+            if (eTag != null)
+            {
+                request.withMatchingETagConstraint(eTag);
+            }
+
+            pendingParts.add(executor.submit(() -> {
+                CopyPartResult result = getClient().copyPart(request);
+                if (result == null)
+                {
+                    throw new IOException(format("The object has been modified since it was opened: %s", path));
+                }
+
+                return result.getPartETag();
+            }));
+        }
+
+        // the parts written next follow the size schedule from here
+        buffer = null;
+    }
+
+    @Override
+    public void write(int b)
+            throws IOException
+    {
+        write(new byte[]{ (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (off < 0 || len < 0 || off + len > b.length)
+        {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0)
+        {
+            if (buffer == null)
+            {
+                nextBuffer();
+            }
+
+            int length = Math.min(len, partSize - count);
+
+            ensureCapacity(count + length);
+
+            System.arraycopy(b, off, buffer, count, length);
+            partDigest.update(count, b, off, length);
+            count += length;
+            off += length;
+            len -= length;
+
+            if (count == partSize)
+            {
+                try
+                {
+                    uploadPart();
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    closed = true;
+                    abort();
+
+                    throw fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Upload the rest of the object, in the background if the file system is configured with
+     * {@link S3FileSystemProvider#ASYNC_COMMIT}: see {@link #getCommit()}.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        close(path.getFileSystem().isAsyncCommit());
+    }
+
+    /**
+     * @param async true to upload the rest of the object in the background
+     * @throws IOException if the upload fails, or can not be queued
+     */
+    void close(boolean async)
+            throws IOException
+    {
+        if (closed)
+        {
+            if (failure != null)
+            {
+                throw new IOException(format("Cannot upload file: %s", path), failure);
+            }
+
+            return;
+        }
+
+        closed = true;
+
+        if (async)
+        {
+            commit = path.getFileSystem().getCommitManager().submit(path, this::commit);
+        }
+        else
+        {
+            try
+            {
+                commit();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                throw fail(e);
+            }
+
+            commit = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Keep the failure that closed the stream, so that closing it again and its commit report it.
+     *
+     * @return the failure as an IOException
+     */
+    private IOException fail(Exception e)
+    {
+        failure = e instanceof IOException ? (IOException) e :
+                  new IOException(format("Cannot upload file: %s", path), e);
+
+        commit = new CompletableFuture<>();
+        commit.completeExceptionally(failure);
+
+        return failure;
+    }
+
+    /**
+     * Close the stream without writing the object and hand over the bytes written, as long as they are
+     * all still in memory.
+     *
+     * @return the bytes written, null if parts have been sent: the stream is left open
+     */
+    ByteBuffer detach()
+    {
+        if (closed || uploadId != null)
+        {
+            return null;
+        }
+
+        closed = true;
+
+        ByteBuffer content = buffer != null ? ByteBuffer.wrap(buffer, 0, count) : ByteBuffer.allocate(0);
+        buffer = null;
+
+        return content;
+    }
+
+    /**
+     * @return a future completed when the object is uploaded, null if the stream is open
+     */
+    public CompletableFuture<Void> getCommit()
+    {
+        return commit;
+    }
+
+    private void commit()
+            throws IOException
+    {
+        if (uploadId == null)
+        {
+            putObject();
+
+            path.getFileSystem().getAttributeCache().invalidate(path);
+
+            return;
+        }
+
+        try
+        {
+            if (count > 0)
+            {
+                uploadPart();
+            }
+
+            while (!pendingParts.isEmpty())
+            {
+                partETags.add(await(pendingParts.poll()));
+            }
+
+            getClient().completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName,
+                                                                                   key,
+                                                                                   uploadId,
+                                                                                   partETags));
+
+            path.getFileSystem().getAttributeCache().invalidate(path);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            abort();
+
+            throw e instanceof IOException ? (IOException) e :
+                  new IOException(format("Cannot upload file: %s", path), e);
+        }
+        finally
+        {
+            buffer = null;
+        }
+    }
+
+    /**
+     * @return the id of the multipart upload, null if no part has been uploaded yet
+     */
+    public String getUploadId()
+    {
+        return uploadId;
+    }
+
+    /**
+     * Upload the buffered part in the background, starting the multipart upload if needed, and wait for
+     * the oldest part when too many are in flight.
+     */
+    private void uploadPart()
+            throws IOException
+    {
+        if (uploadId == null)
+        {
+            InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucketName,
+                                                                                        key,
+                                                                                        createMetadata(-1));
+
+            uploadId = getClient().initiateMultipartUpload(request).getUploadId();
+
+            publishPartSize();
+        }
+
+        if (nextPartNumber > MAX_PARTS)
+        {
+            throw new IOException(format("Cannot upload file: %s, more than %d parts of %d bytes",
+                                         path,
+                                         MAX_PARTS,
+                                         partSize));
+        }
+
+        while (pendingParts.size() >= getMaxPartsInFlight())
+        {
+            partETags.add(await(pendingParts.poll()));
+        }
+
+        final String md5 = partDigest.getMD5(count);
+        final int partNumber = nextPartNumber++;
+
+        final UploadPartRequest request = new UploadPartRequest().withBucketName(bucketName)
+                                                                 .withKey(key)
+                                                                 .withUploadId(uploadId)
+                                                                 .withPartNumber(partNumber)
+                                                                 .withPartSize(count)
+                                                                 .withMD5Digest(md5)
+                                                                 .withInputStream(new ByteArrayInputStream(buffer,
+                                                                                                           0,
+                                                                                                           count));
+
+        final long bytes = count;
+
+        pendingParts.add(executor.submit(() -> {
+            long start = System.nanoTime();
+            try
+            {
+                UploadPartResult result = getClient().uploadPart(request);
+
+                concurrency.onPartUploaded(bytes, System.nanoTime() - start);
+
+                S3ContentDigest.verify(md5, result.getETag(), result.getSSEAlgorithm(), path + " part " + partNumber);
+
+                return result.getPartETag();
+            }
+            catch (RuntimeException e)
+            {
+                // a part cancelled by an abort says nothing about the network
+                if (!Thread.currentThread().isInterrupted())
+                {
+                    concurrency.onPartFailed();
+                }
+
+                throw e;
+            }
+        }));
+
+        // allocated by the next write
+        buffer = null;
+        count = 0;
+        partDigest.reset();
+    }
+
+    /**
+     * @return the number of parts that may be in flight while the next one is written, at least one
+     */
+    private int getMaxPartsInFlight()
+    {
+        long fitting = maxMemory / partSize - 1;
+
+        return (int) Math.max(1, Math.min(concurrency.getLimit(), fitting));
+    }
+
+    private void nextBuffer()
+    {
+        int nextPartSize = partSize(minPartSize, expectedLength, nextPartNumber);
+        if (nextPartSize != partSize)
+        {
+            partSize = nextPartSize;
+
+            publishPartSize();
+        }
+
+        // the stream is large: the next buffers are allocated whole
+        buffer = new byte[partSize];
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, Math.min(partSize, Math.max(capacity, buffer.length * 2)));
+        }
+    }
+
+    private void publishPartSize()
+    {
+        path.getFileSystem().publishProperty(S3FileSystemProvider.MULTIPART_UPLOAD_CURRENT_PART_SIZE, partSize);
+    }
+
+    private void putObject()
+            throws IOException
+    {
+        try
+        {
+            ObjectMetadata metadata = createMetadata(count);
+            metadata.setContentMD5(partDigest.getMD5(count));
+
+            PutObjectResult result = getClient().putObject(bucketName,
+                                                           key,
+                                                           new ByteArrayInputStream(buffer, 0, count),
+                                                           metadata);
+
+            if (result != null)
+            {
+                S3ContentDigest.verify(metadata.getContentMD5(),
+                                       result.getETag(),
+                                       result.getSSEAlgorithm(),
+                                       path.toString());
+            }
+        }
+        catch (AmazonClientException e)
+        {
+            throw new IOException(format("Cannot upload file: %s", path), e);
+        }
+        finally
+        {
+            buffer = null;
+        }
+    }
+
+    private void abort()
+    {
+        for (Future<PartETag> part : pendingParts)
+        {
+            part.cancel(true);
+        }
+
+        pendingParts.clear();
+
+        if (uploadId != null)
+        {
+            try
+            {
+                getClient().abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            }
+            catch (AmazonClientException e)
+            {
+                // the upload expires with the bucket lifecycle rules
+            }
+        }
+    }
+
+    private PartETag await(Future<PartETag> part)
+            throws IOException
+    {
+        try
+        {
+            return part.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException(format("Interrupted while uploading: %s", path));
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(format("Cannot upload file: %s", path), e.getCause());
+        }
+    }
+
+    /**
+     * The content type is detected from the first bytes written, which are still in the buffer.
+     */
+    private ObjectMetadata createMetadata(long contentLength)
+    {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (contentLength >= 0)
+        {
+            metadata.setContentLength(contentLength);
+        }
+
+        if (contentType == null && path.getFileName() != null)
+        {
+            S3ContentTypeResolver resolver = path.getFileSystem().getContentTypeResolver();
+
+            contentType = resolver.resolve(path.getFileName().toString(),
+                                           buffer,
+                                           Math.min(count, resolver.getPrefixSize()));
+        }
+
+        if (contentType != null)
+        {
+            metadata.setContentType(contentType);
+        }
+
+        return metadata;
+    }
+
+    private void ensureOpen()
+            throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private AmazonS3 getClient()
+    {
+        return path.getFileSystem().getClient();
+    }
+
+}
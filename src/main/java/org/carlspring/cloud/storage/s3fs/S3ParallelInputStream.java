@@ -0,0 +1,288 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.io.ByteStreams;
+import static java.lang.String.format;
+
+/**
+ * InputStream that downloads an object as fixed-size ranges fetched concurrently, and hands them to
+ * the caller in order.
+ * <p>
+ * Chunks are requested ahead of the reader up to a maximum number of bytes in flight; completed
+ * chunks wait in a bounded, ordered queue until the reader reaches them. The concurrency itself is
+ * bounded by the executor, which is shared by all the parallel downloads of a file system.
+ * </p>
+ *
+ * @see S3RangeReader#readFully(ByteBuffer, long)
+ */
+public class S3ParallelInputStream
+        extends InputStream
+{
+
+    /**
+     * milliseconds between two checks that the executor still runs the chunk awaited.
+     */
+    private static final long AWAIT_INTERVAL = 1000;
+
+    private final S3RangeReader reader;
+
+    private final int chunkSize;
+
+    private final int maxChunksInFlight;
+
+    private final ExecutorService executor;
+
+    /**
+     * chunks requested but not yet handed to the reader, in object order.
+     */
+    private final Deque<Future<byte[]>> chunks = new ArrayDeque<>();
+
+    /**
+     * position in the object of the next chunk to request.
+     */
+    private long nextChunkPosition;
+
+    /**
+     * the response that holds the first chunk, read by firstChunkRead, or null.
+     */
+    private S3Object firstChunk;
+
+    private Future<byte[]> firstChunkRead;
+
+    private byte[] current;
+
+    private int currentPosition;
+
+    private boolean closed;
+
+
+    /**
+     * @param reader           the reader of the object to download
+     * @param chunkSize        the size of every range request
+     * @param maxInFlightBytes the maximum number of bytes requested ahead of the reader
+     * @param executor         the executor that runs the range requests
+     */
+    public S3ParallelInputStream(S3RangeReader reader,
+                                 int chunkSize,
+                                 long maxInFlightBytes,
+                                 ExecutorService executor)
+    {
+        this(reader, chunkSize, maxInFlightBytes, executor, null);
+    }
+
+    /**
+     * @param reader           the reader of the object to download
+     * @param chunkSize        the size of every range request
+     * @param maxInFlightBytes the maximum number of bytes requested ahead of the reader
+     * @param executor         the executor that runs the range requests
+     * @param firstChunk       the response to the range request of the first bytes of the object, already
+     *                         sent to learn its size; null to request them too
+     */
+    public S3ParallelInputStream(S3RangeReader reader,
+                                 int chunkSize,
+                                 long maxInFlightBytes,
+                                 ExecutorService executor,
+                                 S3Object firstChunk)
+    {
+        this.reader = reader;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = (int) Math.max(1, maxInFlightBytes / chunkSize);
+        this.executor = executor;
+
+        if (firstChunk != null)
+        {
+            this.firstChunk = firstChunk;
+            this.firstChunkRead = executor.submit(() -> read(firstChunk));
+
+            chunks.add(firstChunkRead);
+            nextChunkPosition = firstChunk.getObjectMetadata().getContentLength();
+        }
+
+        requestChunks();
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        byte[] single = new byte[1];
+
+        int read = read(single, 0, 1);
+
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed");
+        }
+
+        if (len == 0)
+        {
+            return 0;
+        }
+
+        if ((current == null || currentPosition >= current.length) && !nextChunk())
+        {
+            return -1;
+        }
+
+        int read = Math.min(len, current.length - currentPosition);
+
+        System.arraycopy(current, currentPosition, b, off, read);
+        currentPosition += read;
+
+        return read;
+    }
+
+    @Override
+    public int available()
+    {
+        return current != null ? current.length - currentPosition : 0;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+        current = null;
+
+        for (Future<byte[]> chunk : chunks)
+        {
+            chunk.cancel(true);
+        }
+
+        chunks.clear();
+
+        if (firstChunk != null && !firstChunkRead.isDone())
+        {
+            // the response would otherwise hold its connection
+            firstChunk.getObjectContent().abort();
+        }
+
+        reader.close();
+    }
+
+    private boolean nextChunk()
+            throws IOException
+    {
+        Future<byte[]> chunk = chunks.poll();
+        if (chunk == null)
+        {
+            return false;
+        }
+
+        current = await(chunk);
+        currentPosition = 0;
+
+        requestChunks();
+
+        return true;
+    }
+
+    private void requestChunks()
+    {
+        while (chunks.size() < maxChunksInFlight && nextChunkPosition < reader.size())
+        {
+            final long start = nextChunkPosition;
+            final long end = Math.min(reader.size(), start + chunkSize);
+
+            chunks.add(executor.submit(() -> fetch(start, end)));
+
+            nextChunkPosition = end;
+        }
+    }
+
+    private byte[] read(S3Object object)
+            throws IOException
+    {
+        try (S3ObjectInputStream content = object.getObjectContent())
+        {
+            byte[] chunk = new byte[(int) object.getObjectMetadata().getContentLength()];
+
+            ByteStreams.readFully(content, chunk);
+
+            return chunk;
+        }
+    }
+
+    private byte[] fetch(long start, long end)
+            throws IOException
+    {
+        byte[] chunk = new byte[(int) (end - start)];
+
+        reader.readFully(ByteBuffer.wrap(chunk), start);
+
+        return chunk;
+    }
+
+    private byte[] await(Future<byte[]> chunk)
+            throws IOException
+    {
+        try
+        {
+            // closing the file system cancels the chunks not started yet and interrupts the others; the
+            // wait is bounded anyway, so that a chunk lost by the executor can not block the reader for ever
+            while (true)
+            {
+                try
+                {
+                    return chunk.get(AWAIT_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e)
+                {
+                    if (executor.isTerminated() && !chunk.isDone())
+                    {
+                        throw new IOException(format("Cannot download file: %s, the file system is closed",
+                                                     reader.getPath()));
+                    }
+                }
+            }
+        }
+        catch (CancellationException e)
+        {
+            throw new IOException(format("Cannot download file: %s, the file system is closed", reader.getPath()),
+                                  e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException(format("Interrupted while downloading: %s", reader.getPath()));
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(format("Cannot download file: %s", reader.getPath()), e.getCause());
+        }
+    }
+
+}
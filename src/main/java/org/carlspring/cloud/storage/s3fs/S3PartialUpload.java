@@ -0,0 +1,412 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3DirtyRanges;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import static java.lang.String.format;
+
+/**
+ * Upload of a temp file that was downloaded from an existing object and then partially modified.
+ * <p>
+ * The object is rewritten with a multipart upload where the ranges not modified are copied by S3 from
+ * the current object (<code>UploadPartCopy</code>), and only the modified ranges are sent from the temp
+ * file. Every part but the last must be at least {@link #MIN_PART_SIZE} bytes, so a modified range is
+ * widened to that size with the bytes around it, and an unmodified range shorter than that is sent too.
+ * </p>
+ * <p>
+ * The copies are pinned to the ETag of the object that was downloaded. If the object has been replaced
+ * in the meantime, or nothing is worth copying, {@link #upload()} returns false and the caller uploads
+ * the whole file.
+ * </p>
+ */
+public class S3PartialUpload
+{
+
+    /**
+     * minimum size of every part but the last one, set by S3.
+     */
+    public static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * size of the parts copied from the object; S3 accepts up to 5 GiB.
+     */
+    public static final long COPY_PART_SIZE = 1024 * 1024 * 1024;
+
+    /**
+     * maximum number of parts of a multipart upload.
+     */
+    private static final int MAX_PARTS = 10000;
+
+    private final S3Path path;
+
+    private final Path tempFile;
+
+    private final String eTag;
+
+    private final long copyLimit;
+
+    private final S3DirtyRanges dirtyRanges;
+
+
+    /**
+     * @param path        the path of the object
+     * @param tempFile    the temp file with the new content of the object
+     * @param eTag        the ETag of the object downloaded to the temp file, null if unknown
+     * @param copyLimit   the number of leading bytes of the object that can be copied from it: its size,
+     *                    or less if the temp file has been truncated in the meantime
+     * @param dirtyRanges the ranges of the temp file modified since it was downloaded
+     */
+    public S3PartialUpload(S3Path path, Path tempFile, String eTag, long copyLimit, S3DirtyRanges dirtyRanges)
+    {
+        this.path = path;
+        this.tempFile = tempFile;
+        this.eTag = eTag;
+        this.copyLimit = copyLimit;
+        this.dirtyRanges = dirtyRanges;
+    }
+
+    /**
+     * @return true if the object has been uploaded, false if the whole file must be uploaded instead
+     * @throws IOException if the upload fails
+     */
+    public boolean upload()
+            throws IOException
+    {
+        long size = Files.size(tempFile);
+
+        List<Part> parts = plan(dirtyRanges,
+                                size,
+                                copyLimit,
+                                MIN_PART_SIZE,
+                                COPY_PART_SIZE,
+                                Math.max(2 * MIN_PART_SIZE, path.getFileSystem().getMultipartUploadPartSize()));
+
+        long copied = 0;
+        for (Part part : parts)
+        {
+            if (part.isCopy())
+            {
+                copied += part.getLength();
+            }
+        }
+
+        if (copied < MIN_PART_SIZE || parts.size() > MAX_PARTS)
+        {
+            return false;
+        }
+
+        String bucketName = path.getFileStore().name();
+        String key = path.getKey();
+
+        String uploadId = getClient().initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName,
+                                                                                                 key,
+                                                                                                 createMetadata()))
+                                     .getUploadId();
+
+        ExecutorService executor = path.getFileSystem().getUploadExecutor();
+
+        List<Future<PartETag>> futures = new ArrayList<>(parts.size());
+        try
+        {
+            for (int i = 0; i < parts.size(); i++)
+            {
+                Part part = parts.get(i);
+                int partNumber = i + 1;
+
+                futures.add(executor.submit(() -> part.isCopy() ?
+                                                  copyPart(bucketName, key, uploadId, partNumber, part) :
+                                                  uploadPart(bucketName, key, uploadId, partNumber, part)));
+            }
+
+            List<PartETag> partETags = new ArrayList<>(parts.size());
+            for (Future<PartETag> future : futures)
+            {
+                PartETag partETag = await(future);
+                if (partETag == null)
+                {
+                    // the ETag constraint was not met: the object has been replaced
+                    abort(bucketName, key, uploadId, futures);
+
+                    return false;
+                }
+
+                partETags.add(partETag);
+            }
+
+            getClient().completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName,
+                                                                                   key,
+                                                                                   uploadId,
+                                                                                   partETags));
+
+            return true;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            abort(bucketName, key, uploadId, futures);
+
+            throw e instanceof IOException ? (IOException) e :
+                  new IOException(format("Cannot upload file: %s", path), e);
+        }
+    }
+
+    /**
+     * Split a file in parts copied from the object or uploaded from the file.
+     *
+     * @param dirtyRanges       the ranges of the file modified
+     * @param size              the size of the file
+     * @param copyLimit         the number of leading bytes of the file that can be copied from the object
+     * @param minPartSize       the minimum size of every part but the last one
+     * @param maxCopyPartSize   the maximum size of a copied part
+     * @param maxUploadPartSize the maximum size of an uploaded part, at least twice the minimum
+     * @return the parts in order
+     */
+    static List<Part> plan(S3DirtyRanges dirtyRanges,
+                           long size,
+                           long copyLimit,
+                           long minPartSize,
+                           long maxCopyPartSize,
+                           long maxUploadPartSize)
+    {
+        // bytes that can't be copied
+        S3DirtyRanges uploaded = new S3DirtyRanges();
+        for (long[] range : dirtyRanges.getRanges())
+        {
+            uploaded.add(range[0], Math.min(range[1], size) - range[0]);
+        }
+
+        uploaded.add(copyLimit, size - copyLimit);
+
+        // an uploaded part is widened to the minimum size with the bytes around it
+        S3DirtyRanges widened = new S3DirtyRanges();
+        for (long[] range : uploaded.getRanges())
+        {
+            long start = range[0];
+            long end = Math.max(range[1], Math.min(size, start + minPartSize));
+
+            start = Math.min(start, Math.max(0, end - minPartSize));
+
+            widened.add(start, end - start);
+        }
+
+        // a copied part shorter than the minimum is uploaded, unless it's the last part
+        long position = 0;
+        for (long[] range : widened.getRanges())
+        {
+            if (range[0] - position < minPartSize)
+            {
+                uploaded.add(position, range[0] - position);
+            }
+
+            position = range[1];
+        }
+
+        for (long[] range : uploaded.getRanges())
+        {
+            widened.add(range[0], range[1] - range[0]);
+        }
+
+        List<Part> parts = new ArrayList<>();
+
+        position = 0;
+        for (long[] range : widened.getRanges())
+        {
+            split(parts, position, range[0], true, maxCopyPartSize);
+            split(parts, range[0], range[1], false, maxUploadPartSize);
+
+            position = range[1];
+        }
+
+        split(parts, position, size, true, maxCopyPartSize);
+
+        return parts;
+    }
+
+    /**
+     * Split a range in parts of the same size, no larger than the maximum: the parts are larger than
+     * half the maximum if the range is larger than the maximum.
+     */
+    private static void split(List<Part> parts, long start, long end, boolean copy, long maxPartSize)
+    {
+        long length = end - start;
+        if (length <= 0)
+        {
+            return;
+        }
+
+        long count = (length + maxPartSize - 1) / maxPartSize;
+        for (long i = 0; i < count; i++)
+        {
+            parts.add(new Part(start + length * i / count, start + length * (i + 1) / count, copy));
+        }
+    }
+
+    private PartETag copyPart(String bucketName, String key, String uploadId, int partNumber, Part part)
+    {
+        CopyPartRequest request = new CopyPartRequest().withSourceBucketName(bucketName)
+                                                       .withSourceKey(key)
+                                                       .withDestinationBucketName(bucketName)
+                                                       .withDestinationKey(key)
+                                                       .withUploadId(uploadId)
+                                                       .withPartNumber(partNumber)
+                                                       .withFirstByte(part.getStart())
+                                                       .withLastByte(part.getEnd() - 1);
+        if (eTag != null)
+        {
+            request.withMatchingETagConstraint(eTag);
+        }
+
+        CopyPartResult result = getClient().copyPart(request);
+
+        return result != null ? result.getPartETag() : null;
+    }
+
+    private PartETag uploadPart(String bucketName, String key, String uploadId, int partNumber, Part part)
+    {
+        UploadPartRequest request = new UploadPartRequest().withBucketName(bucketName)
+                                                           .withKey(key)
+                                                           .withUploadId(uploadId)
+                                                           .withPartNumber(partNumber)
+                                                           .withFile(tempFile.toFile())
+                                                           .withFileOffset(part.getStart())
+                                                           .withPartSize(part.getLength());
+
+        return getClient().uploadPart(request).getPartETag();
+    }
+
+    private void abort(String bucketName, String key, String uploadId, List<Future<PartETag>> futures)
+    {
+        for (Future<PartETag> future : futures)
+        {
+            future.cancel(true);
+        }
+
+        try
+        {
+            getClient().abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        }
+        catch (AmazonClientException e)
+        {
+            // the upload expires with the bucket lifecycle rules
+        }
+    }
+
+    private PartETag await(Future<PartETag> part)
+            throws IOException
+    {
+        try
+        {
+            return part.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException(format("Interrupted while uploading: %s", path));
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(format("Cannot upload file: %s", path), e.getCause());
+        }
+    }
+
+    private ObjectMetadata createMetadata()
+            throws IOException
+    {
+        ObjectMetadata metadata = new ObjectMetadata();
+
+        if (path.getFileName() != null)
+        {
+            S3ContentTypeResolver resolver = path.getFileSystem().getContentTypeResolver();
+            String fileName = path.getFileName().toString();
+
+            if (resolver.getPrefixSize() == 0)
+            {
+                metadata.setContentType(resolver.resolve(fileName, new byte[0], 0));
+            }
+            else
+            {
+                try (InputStream stream = new BufferedInputStream(Files.newInputStream(tempFile)))
+                {
+                    metadata.setContentType(resolver.resolve(fileName, stream));
+                }
+            }
+        }
+
+        return metadata;
+    }
+
+    private AmazonS3 getClient()
+    {
+        return path.getFileSystem().getClient();
+    }
+
+    /**
+     * Range of the file sent as a single part.
+     */
+    static final class Part
+    {
+
+        private final long start;
+
+        private final long end;
+
+        private final boolean copy;
+
+
+        Part(long start, long end, boolean copy)
+        {
+            this.start = start;
+            this.end = end;
+            this.copy = copy;
+        }
+
+        long getStart()
+        {
+            return start;
+        }
+
+        long getEnd()
+        {
+            return end;
+        }
+
+        long getLength()
+        {
+            return end - start;
+        }
+
+        boolean isCopy()
+        {
+            return copy;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (copy ? "copy[" : "upload[") + start + ", " + end + ")";
+        }
+
+    }
+
+}
@@ -40,11 +40,6 @@ public class S3Path
      */
     private S3FileSystem fileSystem;
 
-    /**
-     * S3BasicFileAttributes cache
-     */
-    private S3BasicFileAttributes fileAttributes;
-
 
     /**
      * Build an S3Path from path segments. '/' are stripped from each segment.
@@ -727,14 +722,29 @@ public class S3Path
         }
     }
 
+    /**
+     * @return the attributes of this path cached by its file system, null if there are none
+     * @see S3FileSystem#getAttributeCache()
+     */
     public S3BasicFileAttributes getFileAttributes()
     {
-        return fileAttributes;
+        return fileSystem.getAttributeCache().get(this, S3BasicFileAttributes.class);
     }
 
+    /**
+     * @param fileAttributes the attributes to cache for this path in its file system, null to forget them
+     * @see S3FileSystem#getAttributeCache()
+     */
     public void setFileAttributes(S3BasicFileAttributes fileAttributes)
     {
-        this.fileAttributes = fileAttributes;
+        if (fileAttributes != null)
+        {
+            fileSystem.getAttributeCache().put(this, fileAttributes);
+        }
+        else
+        {
+            fileSystem.getAttributeCache().invalidate(this);
+        }
     }
 
 }
@@ -0,0 +1,260 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static java.lang.String.format;
+
+/**
+ * Bounded set of uploads queued on an executor, shared by {@link S3CommitManager} and {@link S3BulkWriter}.
+ * <p>
+ * At most <code>maxPending</code> tasks are queued or running: submitting more blocks until one ends. The
+ * failures are kept until a {@link #flush()} reports them, so a task that fails before the flush starts
+ * is reported too. The tasks dropped by <code>shutdownNow()</code> must be given to
+ * {@link #abort(List)}, which fails their futures instead of leaving them pending for ever.
+ * </p>
+ */
+class S3PendingTasks
+{
+
+    /**
+     * An upload.
+     */
+    @FunctionalInterface
+    interface Task
+    {
+
+        void run()
+                throws IOException;
+
+    }
+
+    private final ExecutorService executor;
+
+    private final Semaphore slots;
+
+    /**
+     * what the tasks do, in the messages: "commit" or "write".
+     */
+    private final String action;
+
+    private final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * failures not reported by {@link #flush()} yet.
+     */
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+
+    /**
+     * @param executor   the executor that runs the tasks
+     * @param maxPending the maximum number of tasks queued or running
+     * @param action     what the tasks do, used in the messages
+     */
+    S3PendingTasks(ExecutorService executor, int maxPending, String action)
+    {
+        this.executor = executor;
+        this.slots = new Semaphore(Math.max(1, maxPending));
+        this.action = action;
+    }
+
+    /**
+     * Queue a task, waiting for a slot if too many tasks are pending.
+     *
+     * @param subject what the task uploads, used in the messages
+     * @param task    the upload
+     * @return a future completed when the task is done, exceptionally if it failed or was dropped
+     * @throws IOException if the task can not be queued
+     */
+    CompletableFuture<Void> submit(Object subject, Task task)
+            throws IOException
+    {
+        try
+        {
+            slots.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException(format("Interrupted while waiting to %s: %s", action, subject));
+        }
+
+        PendingTask pendingTask = new PendingTask(subject, task);
+        pending.add(pendingTask.future);
+
+        try
+        {
+            executor.execute(pendingTask);
+        }
+        catch (RejectedExecutionException e)
+        {
+            pending.remove(pendingTask.future);
+            slots.release();
+
+            throw new IOException(format("Cannot %s file: %s, the file system is closed", action, subject), e);
+        }
+
+        return pendingTask.future;
+    }
+
+    /**
+     * Wait for all the tasks pending when the method is called, without reporting their failures.
+     *
+     * @throws InterruptedIOException if the wait is interrupted
+     */
+    void await()
+            throws InterruptedIOException
+    {
+        for (CompletableFuture<Void> future : new ArrayList<>(pending))
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException(format("Interrupted while flushing the %ss", action));
+            }
+            catch (ExecutionException e)
+            {
+                // reported by flush
+            }
+        }
+    }
+
+    /**
+     * Wait for all the tasks pending when the method is called.
+     *
+     * @throws IOException if any of them, or any task that ended since the previous flush, failed, or the
+     *                     wait is interrupted
+     */
+    void flush()
+            throws IOException
+    {
+        await();
+
+        IOException failure = null;
+
+        Throwable cause;
+        while ((cause = failures.poll()) != null)
+        {
+            if (failure == null)
+            {
+                failure = new IOException(format("Cannot %s all the files", action), cause);
+            }
+            else
+            {
+                failure.addSuppressed(cause);
+            }
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the number of tasks queued or running
+     */
+    int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Fail the tasks an executor dropped when it was shut down, and release their slots.
+     *
+     * @param dropped the runnables returned by <code>shutdownNow()</code>, of any {@link S3PendingTasks}
+     */
+    static void abort(List<Runnable> dropped)
+    {
+        for (Runnable runnable : dropped)
+        {
+            if (runnable instanceof PendingTask)
+            {
+                PendingTask pendingTask = (PendingTask) runnable;
+
+                pendingTask.owner().end(pendingTask.future,
+                                        new IOException(format("Cannot %s file: %s, the file system is closed",
+                                                               pendingTask.owner().action,
+                                                               pendingTask.subject)));
+            }
+        }
+    }
+
+    private void end(CompletableFuture<Void> future, Throwable failure)
+    {
+        if (failure != null)
+        {
+            failures.add(failure);
+        }
+
+        pending.remove(future);
+        slots.release();
+
+        if (failure == null)
+        {
+            future.complete(null);
+        }
+        else
+        {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    private class PendingTask
+            implements Runnable
+    {
+
+        private final Object subject;
+
+        private final Task task;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+
+        PendingTask(Object subject, Task task)
+        {
+            this.subject = subject;
+            this.task = task;
+        }
+
+        S3PendingTasks owner()
+        {
+            return S3PendingTasks.this;
+        }
+
+        @Override
+        public void run()
+        {
+            Throwable failure = null;
+            try
+            {
+                task.run();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                failure = e;
+            }
+
+            end(future, failure);
+        }
+
+    }
+
+}
@@ -0,0 +1,890 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.ByteBufferPool;
+import org.carlspring.cloud.storage.s3fs.util.S3BlockCache;
+import org.carlspring.cloud.storage.s3fs.util.S3DiskCache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import static java.lang.String.format;
+
+/**
+ * Reads byte ranges of a single S3 object on demand, using HTTP range GETs.
+ * <p>
+ * The length and the ETag of the object are resolved once, when the reader is created. Every GET
+ * is pinned to that ETag, so an object replaced while the reader is open fails with an
+ * {@link IOException} instead of returning a mix of both versions.
+ * </p>
+ * <p>
+ * When the file system has a {@link S3BlockCache} or a {@link S3DiskCache}, reads are served block by
+ * block from the caches and only missing blocks are fetched. Otherwise sequential reads are served
+ * from the same open range, and a read at any other position closes it and issues a new GET starting
+ * at that position.
+ * </p>
+ * <p>
+ * The size of the uncached ranges adapts to the access pattern: while reads are sequential every new
+ * GET requests twice as much as the previous one, up to a maximum readahead; after a random read the
+ * reader requests exactly the bytes asked for, so columnar formats do not over-fetch.
+ * </p>
+ * <p>
+ * A reader may also be opened with the last bytes of the object prefetched, see {@link S3TailPrefetch}.
+ * </p>
+ */
+public class S3RangeReader
+        implements Closeable
+{
+
+    /**
+     * smallest range requested with a single GET, in bytes.
+     */
+    public static final int MIN_RANGE_SIZE = 64 * 1024;
+
+    /**
+     * direct buffers used to copy responses to channels, shared by all the readers.
+     */
+    private static final ByteBufferPool TRANSFER_BUFFERS = new ByteBufferPool(MIN_RANGE_SIZE, 16, true);
+
+    private final S3Path path;
+
+    private final String bucketName;
+
+    private final String key;
+
+    private final long size;
+
+    private final String eTag;
+
+    /**
+     * identifies the version of the object in the block cache.
+     */
+    private final String version;
+
+    private final S3BlockCache blockCache;
+
+    private final S3DiskCache diskCache;
+
+    /**
+     * size of the cached blocks, or 0 if there is no cache.
+     */
+    private final int blockSize;
+
+    private S3ObjectInputStream stream;
+
+    /**
+     * position in the object of the next byte returned by the open stream.
+     */
+    private long streamPosition;
+
+    /**
+     * position in the object just past the last byte of the open range.
+     */
+    private long streamEnd;
+
+    /**
+     * largest range requested for sequential reads, in bytes.
+     */
+    private final long maxReadahead;
+
+    /**
+     * size of the last range requested for sequential reads, 0 after a random read.
+     */
+    private long readahead;
+
+    /**
+     * position in the object just past the last byte returned by {@link #read(ByteBuffer, long)}, or -1
+     * before the first read.
+     */
+    private long lastReadEnd = -1;
+
+    /**
+     * the last bytes of the object when they were prefetched, starting at tailStart.
+     */
+    private byte[] tail;
+
+    private final long tailStart;
+
+    private volatile boolean open = true;
+
+
+    /**
+     * Resolve the length and ETag of the object with a single HEAD request.
+     *
+     * @param path the path of the object to read
+     * @throws NoSuchFileException if the object does not exist
+     * @throws IOException         if the object metadata can not be read
+     */
+    public S3RangeReader(S3Path path)
+            throws IOException
+    {
+        this(path, 0);
+    }
+
+    /**
+     * Resolve the length and ETag of the object and fetch its last bytes with a single suffix range
+     * request. The tail is kept for the life of the reader and serves every read that falls in it.
+     *
+     * @param path     the path of the object to read
+     * @param tailSize the number of bytes to fetch from the end of the object, 0 to only send a HEAD request
+     * @throws NoSuchFileException if the object does not exist
+     * @throws IOException         if the object can not be read
+     */
+    public S3RangeReader(S3Path path, int tailSize)
+            throws IOException
+    {
+        this(path, tailSize, null);
+    }
+
+    /**
+     * Take the length and ETag of the object from the response to a request already made, without sending
+     * any request.
+     *
+     * @param path     the path of the object to read
+     * @param metadata the metadata of a HEAD or GET response for the object; for a range GET, its
+     *                 <code>Content-Range</code> header gives the length of the object
+     * @throws IOException if the disk cache can not be opened
+     */
+    public S3RangeReader(S3Path path, ObjectMetadata metadata)
+            throws IOException
+    {
+        this(path, 0, metadata);
+    }
+
+    private S3RangeReader(S3Path path, int tailSize, ObjectMetadata metadata)
+            throws IOException
+    {
+        this.path = path;
+        this.bucketName = path.getFileStore().name();
+        this.key = path.getKey();
+        this.blockCache = path.getFileSystem().getBlockCache();
+        this.diskCache = path.getFileSystem().getDiskCache();
+        this.blockSize = blockCache != null || diskCache != null ? path.getFileSystem().getCacheBlockSize() : 0;
+        this.maxReadahead = Math.max(MIN_RANGE_SIZE, path.getFileSystem().getReadaheadMaxSize());
+
+        if (metadata == null && tailSize > 0)
+        {
+            metadata = fetchTail(tailSize);
+        }
+
+        if (metadata == null)
+        {
+            metadata = getObjectMetadata();
+        }
+
+        this.size = metadata.getInstanceLength();
+        this.eTag = metadata.getETag();
+        this.version = eTag != null ? eTag : size + ":" + (metadata.getLastModified() != null ?
+                                                            metadata.getLastModified().getTime() : 0);
+        this.tailStart = tail != null ? size - tail.length : size;
+    }
+
+    public S3Path getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return the length of the object in bytes
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the ETag the reader is pinned to, can be null
+     */
+    public String getETag()
+    {
+        return eTag;
+    }
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * Read bytes of the object starting at the given position into the buffer.
+     *
+     * @param dst      the buffer into which bytes are transferred
+     * @param position the position in the object at which the transfer begins, must be non-negative
+     * @return the number of bytes read, possibly zero, or -1 if the position is at or past the end of the object
+     * @throws IOException if the object can not be read
+     */
+    public synchronized int read(ByteBuffer dst, long position)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (position < 0)
+        {
+            throw new IllegalArgumentException("position must be non-negative: " + position);
+        }
+
+        if (position >= size)
+        {
+            return -1;
+        }
+
+        if (!dst.hasRemaining())
+        {
+            return 0;
+        }
+
+        if (position >= tailStart)
+        {
+            int length = readTail(dst, position);
+            lastReadEnd = position + length;
+
+            return length;
+        }
+
+        if (blockSize > 0)
+        {
+            return readBlock(dst, position);
+        }
+
+        boolean sequential = lastReadEnd < 0 || position == lastReadEnd;
+
+        if (stream != null && position > streamPosition && position < streamEnd &&
+            position - streamPosition <= MIN_RANGE_SIZE)
+        {
+            // a short forward seek is cheaper to read through than a new request
+            skipStream(position - streamPosition);
+        }
+        else if (stream == null || position != streamPosition || streamPosition >= streamEnd)
+        {
+            openStream(position, nextRangeSize(sequential, dst.remaining()));
+        }
+
+        int length = (int) Math.min(dst.remaining(), streamEnd - streamPosition);
+
+        try
+        {
+            copy(stream, dst, length);
+        }
+        catch (IOException e)
+        {
+            closeStream();
+
+            throw e;
+        }
+
+        streamPosition += length;
+        lastReadEnd = streamPosition;
+
+        return length;
+    }
+
+    /**
+     * @return the number of bytes requested by the next GET issued for sequential reads
+     */
+    public synchronized long getReadahead()
+    {
+        return readahead;
+    }
+
+    /**
+     * Fill the buffer with bytes of the object starting at the given position. Unlike
+     * {@link #read(ByteBuffer, long)} this method can be called concurrently, and it never disturbs the
+     * range opened for sequential reads.
+     *
+     * @param dst      the buffer to fill, up to its limit
+     * @param position the position in the object of the first byte to read
+     * @throws EOFException if the object ends before the buffer is full
+     * @throws IOException  if the object can not be read
+     */
+    public void readFully(ByteBuffer dst, long position)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (position + dst.remaining() > size)
+        {
+            throw new EOFException(format("Cannot read %d bytes at position %d of %d bytes file: %s",
+                                          dst.remaining(),
+                                          position,
+                                          size,
+                                          path));
+        }
+
+        if (position >= tailStart)
+        {
+            readTail(dst, position);
+
+            return;
+        }
+
+        if (blockSize > 0)
+        {
+            while (dst.hasRemaining())
+            {
+                position += readBlock(dst, position);
+            }
+
+            return;
+        }
+
+        if (!dst.hasRemaining())
+        {
+            return;
+        }
+
+        int length = dst.remaining();
+
+        try (S3ObjectInputStream content = getObjectContent(position, position + length))
+        {
+            copy(content, dst, length);
+        }
+    }
+
+    /**
+     * Transfer bytes of the object to a channel, streaming the response of a single range GET through
+     * a pooled direct buffer, without staging the object in memory or in a temp file.
+     *
+     * @param position the position in the object of the first byte to transfer
+     * @param count    the maximum number of bytes to transfer
+     * @param target   the channel to write to
+     * @return the number of bytes transferred, 0 if the position is at or past the end of the object
+     * @throws IOException if the object can not be read or the target can not be written
+     */
+    public long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException
+    {
+        ensureOpen();
+
+        long length = Math.min(count, size - position);
+        if (length <= 0)
+        {
+            return 0;
+        }
+
+        ByteBuffer buffer = TRANSFER_BUFFERS.acquire();
+        try
+        {
+            if (blockSize > 0 || position >= tailStart)
+            {
+                // the caches or the tail already hold the bytes, or will keep them
+                return transferCached(position, length, target, buffer);
+            }
+
+            S3ObjectInputStream content = getObjectContent(position, position + length);
+            ReadableByteChannel source = Channels.newChannel(content);
+
+            long transferred = 0;
+            try
+            {
+                while (transferred < length)
+                {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), length - transferred));
+
+                    while (buffer.hasRemaining())
+                    {
+                        if (source.read(buffer) < 0)
+                        {
+                            throw new EOFException(format("Premature end of the object: %s", path));
+                        }
+                    }
+
+                    buffer.flip();
+                    write(buffer, target);
+
+                    transferred += buffer.limit();
+                }
+            }
+            finally
+            {
+                if (transferred < length)
+                {
+                    content.abort();
+                }
+                else
+                {
+                    content.close();
+                }
+            }
+
+            return transferred;
+        }
+        finally
+        {
+            TRANSFER_BUFFERS.release(buffer);
+        }
+    }
+
+    /**
+     * Read many ranges of the object concurrently. Ranges separated by at most maxGap bytes are
+     * coalesced into a single GET, as long as the merged range does not exceed maxMergedSize bytes.
+     * Every range completes its {@link S3FileRange#getData()} future as soon as its GET does.
+     *
+     * @param ranges        the ranges to read, they must not overlap
+     * @param maxGap        the largest number of unused bytes fetched to merge two ranges
+     * @param maxMergedSize the largest merged range, in bytes
+     * @param executor      the executor that runs the GETs
+     * @throws IOException if the reader is closed or a range is past the end of the object
+     */
+    public void readVectored(List<S3FileRange> ranges, int maxGap, int maxMergedSize, ExecutorService executor)
+            throws IOException
+    {
+        ensureOpen();
+
+        List<S3FileRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(S3FileRange::getOffset));
+
+        for (int i = 0; i < sorted.size(); i++)
+        {
+            S3FileRange range = sorted.get(i);
+            if (range.getOffset() + range.getLength() > size)
+            {
+                throw new EOFException(format("Range %s is past the end of %d bytes file: %s", range, size, path));
+            }
+
+            if (i > 0 && range.getOffset() < end(sorted.get(i - 1)))
+            {
+                throw new IllegalArgumentException(format("Range %s overlaps range %s", range, sorted.get(i - 1)));
+            }
+        }
+
+        List<S3FileRange> group = new ArrayList<>();
+        for (S3FileRange range : sorted)
+        {
+            if (!group.isEmpty() &&
+                (range.getOffset() - end(group.get(group.size() - 1)) > maxGap ||
+                 end(range) - group.get(0).getOffset() > maxMergedSize))
+            {
+                submit(group, executor);
+                group = new ArrayList<>();
+            }
+
+            group.add(range);
+        }
+
+        if (!group.isEmpty())
+        {
+            submit(group, executor);
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        synchronized (this)
+        {
+            if (!open)
+            {
+                return;
+            }
+
+            open = false;
+
+            closeStream();
+        }
+    }
+
+    private long transferCached(long position, long length, WritableByteChannel target, ByteBuffer buffer)
+            throws IOException
+    {
+        long transferred = 0;
+        while (transferred < length)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - transferred));
+
+            readFully(buffer, position + transferred);
+
+            buffer.flip();
+            write(buffer, target);
+
+            transferred += buffer.limit();
+        }
+
+        return transferred;
+    }
+
+    private static void write(ByteBuffer buffer, WritableByteChannel target)
+            throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            target.write(buffer);
+        }
+    }
+
+    private ObjectMetadata getObjectMetadata()
+            throws IOException
+    {
+        try
+        {
+            return getClient().getObjectMetadata(bucketName, key);
+        }
+        catch (AmazonS3Exception e)
+        {
+            if (e.getStatusCode() == 404)
+            {
+                throw new NoSuchFileException(path.toString());
+            }
+
+            throw new IOException(format("Cannot access file: %s", path), e);
+        }
+    }
+
+    /**
+     * Fetch the last bytes of the object with a suffix range request.
+     *
+     * @return the metadata of the response, or null if the object is empty
+     */
+    private ObjectMetadata fetchTail(int tailSize)
+            throws IOException
+    {
+        // the client only skips the MD5 validation of the content, which a partial content would fail,
+        // when the request has a range; the suffix range header then takes the place of this one
+        GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(0, tailSize - 1);
+        request.putCustomRequestHeader(Headers.RANGE, "bytes=-" + tailSize);
+
+        S3Object object;
+        try
+        {
+            object = getClient().getObject(request);
+        }
+        catch (AmazonS3Exception e)
+        {
+            if (e.getStatusCode() == 404)
+            {
+                throw new NoSuchFileException(path.toString());
+            }
+
+            if (e.getStatusCode() == 416)
+            {
+                // an empty object has no range to return
+                return null;
+            }
+
+            throw new IOException(format("Cannot read the last %d bytes of file: %s", tailSize, path), e);
+        }
+
+        ObjectMetadata metadata = object.getObjectMetadata();
+
+        try (S3ObjectInputStream content = object.getObjectContent())
+        {
+            ByteBuffer buffer = ByteBuffer.allocate((int) metadata.getContentLength());
+            copy(content, buffer, buffer.remaining());
+
+            tail = buffer.array();
+        }
+
+        return metadata;
+    }
+
+    private int readTail(ByteBuffer dst, long position)
+    {
+        int offset = (int) (position - tailStart);
+        int length = Math.min(dst.remaining(), tail.length - offset);
+
+        dst.put(tail, offset, length);
+
+        return length;
+    }
+
+    private void submit(List<S3FileRange> group, ExecutorService executor)
+    {
+        try
+        {
+            // a Future, so that closing the file system can cancel it if it has not started yet
+            executor.execute(new FutureTask<Void>(() -> readGroup(group), null)
+            {
+                @Override
+                protected void done()
+                {
+                    if (isCancelled())
+                    {
+                        fail(group, new IOException(format("Cannot read file: %s, the file system is closed", path)));
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            fail(group, e);
+        }
+    }
+
+    /**
+     * Fetch the ranges of the group with a single GET and split its content between their buffers.
+     */
+    private void readGroup(List<S3FileRange> group)
+    {
+        try
+        {
+            if (group.size() == 1)
+            {
+                S3FileRange range = group.get(0);
+                readFully(range.getBuffer(), range.getOffset());
+                range.getData().complete(range.getBuffer());
+
+                return;
+            }
+
+            long start = group.get(0).getOffset();
+            ByteBuffer merged = ByteBuffer.allocate((int) (end(group.get(group.size() - 1)) - start));
+            readFully(merged, start);
+
+            for (S3FileRange range : group)
+            {
+                ByteBuffer slice = merged.duplicate();
+                slice.position((int) (range.getOffset() - start));
+                slice.limit(slice.position() + range.getLength());
+
+                range.getBuffer().put(slice);
+                range.getData().complete(range.getBuffer());
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            fail(group, e);
+        }
+    }
+
+    private static void fail(List<S3FileRange> group, Throwable failure)
+    {
+        for (S3FileRange range : group)
+        {
+            range.getData().completeExceptionally(failure);
+        }
+    }
+
+    private static long end(S3FileRange range)
+    {
+        return range.getOffset() + range.getLength();
+    }
+
+    /**
+     * Copy the bytes of the block that contains the position, looking it up in the block cache, then in
+     * the disk cache, and fetching the whole block if it's in neither.
+     */
+    private int readBlock(ByteBuffer dst, long position)
+            throws IOException
+    {
+        long index = position / blockSize;
+        int offset = (int) (position % blockSize);
+
+        S3BlockCache.Key blockKey = new S3BlockCache.Key(bucketName, key, version, index);
+
+        if (blockCache != null)
+        {
+            int read = blockCache.read(blockKey, offset, dst);
+            if (read >= 0)
+            {
+                return read;
+            }
+        }
+
+        long blockStart = index * blockSize;
+        long blockEnd = Math.min(size, blockStart + blockSize);
+
+        ByteBuffer block = diskCache != null ? diskCache.get(blockKey) : null;
+        if (block == null || block.remaining() != blockEnd - blockStart)
+        {
+            block = ByteBuffer.allocate((int) (blockEnd - blockStart));
+            try (S3ObjectInputStream content = getObjectContent(blockStart, blockEnd))
+            {
+                copy(content, block, block.remaining());
+            }
+
+            block.flip();
+
+            if (diskCache != null)
+            {
+                diskCache.put(blockKey, block);
+            }
+        }
+
+        if (blockCache != null)
+        {
+            blockCache.put(blockKey, block);
+        }
+
+        block.position(offset);
+        block.limit(Math.min(block.limit(), offset + dst.remaining()));
+
+        int read = block.remaining();
+        dst.put(block);
+
+        return read;
+    }
+
+    /**
+     * Grow the readahead window while reads are sequential, doubling it with every new request up to
+     * the maximum, and request exactly what was asked for when the access is random.
+     */
+    private long nextRangeSize(boolean sequential, int requested)
+    {
+        if (!sequential)
+        {
+            readahead = 0;
+
+            return requested;
+        }
+
+        readahead = readahead == 0 ? MIN_RANGE_SIZE : Math.min(maxReadahead, readahead * 2);
+
+        return Math.max(requested, readahead);
+    }
+
+    private void skipStream(long count)
+            throws IOException
+    {
+        byte[] buffer = new byte[(int) Math.min(count, 8192)];
+
+        long remaining = count;
+        while (remaining > 0)
+        {
+            int read = stream.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (read < 0)
+            {
+                closeStream();
+
+                throw new EOFException(format("Premature end of the object: %s", path));
+            }
+
+            remaining -= read;
+        }
+
+        streamPosition += count;
+    }
+
+    private void openStream(long position, long length)
+            throws IOException
+    {
+        closeStream();
+
+        long end = Math.min(size, position + length);
+
+        stream = getObjectContent(position, end);
+        streamPosition = position;
+        streamEnd = end;
+    }
+
+    /**
+     * Issue a GET for the range [start, end) of the object, pinned to the ETag.
+     */
+    private S3ObjectInputStream getObjectContent(long start, long end)
+            throws IOException
+    {
+        GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(start, end - 1);
+        if (eTag != null)
+        {
+            request.withMatchingETagConstraint(eTag);
+        }
+
+        S3Object object;
+        try
+        {
+            object = getClient().getObject(request);
+        }
+        catch (AmazonS3Exception e)
+        {
+            if (e.getStatusCode() == 404)
+            {
+                throw new NoSuchFileException(path.toString());
+            }
+
+            throw new IOException(format("Cannot read range [%d, %d) of file: %s", start, end, path), e);
+        }
+
+        if (object == null)
+        {
+            // the ETag constraint was not met
+            throw new IOException(format("The object has been modified since it was opened: %s", path));
+        }
+
+        return object.getObjectContent();
+    }
+
+    /**
+     * Copy exactly length bytes from the stream into the buffer.
+     */
+    private void copy(InputStream in, ByteBuffer dst, int length)
+            throws IOException
+    {
+        byte[] buffer = dst.hasArray() ? dst.array() : new byte[length];
+        int offset = dst.hasArray() ? dst.arrayOffset() + dst.position() : 0;
+
+        int total = 0;
+        while (total < length)
+        {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0)
+            {
+                throw new EOFException(format("Premature end of the object: %s", path));
+            }
+
+            total += read;
+        }
+
+        if (dst.hasArray())
+        {
+            dst.position(dst.position() + total);
+        }
+        else
+        {
+            dst.put(buffer, 0, total);
+        }
+    }
+
+    private void closeStream()
+            throws IOException
+    {
+        if (stream == null)
+        {
+            return;
+        }
+
+        try
+        {
+            path.getFileSystem().getStreamClosePolicy().close(stream, streamEnd - streamPosition);
+        }
+        finally
+        {
+            stream = null;
+        }
+    }
+
+    private void ensureOpen()
+            throws ClosedChannelException
+    {
+        if (!open)
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private AmazonS3 getClient()
+    {
+        return path.getFileSystem().getClient();
+    }
+
+}
@@ -0,0 +1,321 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Read-only file channel that fetches only the ranges of the object that are actually read.
+ * <p>
+ * Memory mapping and locking need a real file, so the first call to {@link #map(MapMode, long, long)},
+ * {@link #lock(long, long, boolean)} or {@link #tryLock(long, long, boolean)} downloads the object to
+ * a temp file of the write buffer pool of the file system, which is deleted when the channel is closed.
+ * </p>
+ *
+ * @see S3RangeReader
+ * @see S3VectoredReadChannel
+ */
+public class S3ReadOnlyFileChannel
+        extends FileChannel
+        implements S3VectoredReadChannel
+{
+
+    private final S3RangeReader reader;
+
+    private long position;
+
+    /**
+     * the downloaded copy of the object, always spilled to a temp file.
+     */
+    private S3WriteBuffer copy;
+
+
+    /**
+     * Open an existing object for reading.
+     *
+     * @param path the path of the object to read
+     * @throws IOException if the object does not exist or can not be accessed
+     */
+    public S3ReadOnlyFileChannel(S3Path path)
+            throws IOException
+    {
+        this(path, 0);
+    }
+
+    /**
+     * Open an existing object for reading, and fetch its last bytes right away.
+     *
+     * @param path     the path of the object to read
+     * @param tailSize the number of bytes to prefetch from the end of the object, 0 for none
+     * @throws IOException if the object does not exist or can not be accessed
+     * @see S3TailPrefetch
+     */
+    public S3ReadOnlyFileChannel(S3Path path, int tailSize)
+            throws IOException
+    {
+        this.reader = new S3RangeReader(path, tailSize);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst)
+            throws IOException
+    {
+        int read = reader.read(dst, position);
+        if (read > 0)
+        {
+            position += read;
+        }
+
+        return read;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length)
+            throws IOException
+    {
+        long total = 0;
+
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (!dsts[i].hasRemaining())
+            {
+                continue;
+            }
+
+            int read = read(dsts[i]);
+            if (read < 0)
+            {
+                return total == 0 ? -1 : total;
+            }
+
+            total += read;
+
+            if (dsts[i].hasRemaining())
+            {
+                break;
+            }
+        }
+
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position()
+            throws IOException
+    {
+        ensureOpen();
+
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (newPosition < 0)
+        {
+            throw new IllegalArgumentException("position must be non-negative: " + newPosition);
+        }
+
+        this.position = newPosition;
+
+        return this;
+    }
+
+    @Override
+    public long size()
+            throws IOException
+    {
+        ensureOpen();
+
+        return reader.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public void force(boolean metaData)
+            throws IOException
+    {
+        ensureOpen();
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (position < 0 || count < 0)
+        {
+            throw new IllegalArgumentException("position and count must be non-negative");
+        }
+
+        return reader.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position)
+            throws IOException
+    {
+        return reader.read(dst, position);
+    }
+
+    @Override
+    public void readVectored(List<S3FileRange> ranges)
+            throws IOException
+    {
+        S3FileSystem fileSystem = reader.getPath().getFileSystem();
+
+        reader.readVectored(ranges,
+                            fileSystem.getVectoredReadMaxGap(),
+                            fileSystem.getVectoredReadMaxMergedSize(),
+                            fileSystem.getDownloadExecutor());
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size)
+            throws IOException
+    {
+        // the temp file is writable, the channel is not
+        if (mode != MapMode.READ_ONLY)
+        {
+            throw new NonWritableChannelException();
+        }
+
+        return getFileChannel().map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared)
+            throws IOException
+    {
+        if (!shared)
+        {
+            throw new NonWritableChannelException();
+        }
+
+        return getFileChannel().lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared)
+            throws IOException
+    {
+        if (!shared)
+        {
+            throw new NonWritableChannelException();
+        }
+
+        return getFileChannel().tryLock(position, size, shared);
+    }
+
+    @Override
+    protected synchronized void implCloseChannel()
+            throws IOException
+    {
+        try
+        {
+            reader.close();
+        }
+        finally
+        {
+            if (copy != null)
+            {
+                copy.release();
+            }
+        }
+    }
+
+    /**
+     * Download the whole object to a temp file, the first time it is needed.
+     *
+     * @return FileChannel over the downloaded copy of the object
+     * @throws IOException if the object can not be downloaded
+     */
+    private synchronized FileChannel getFileChannel()
+            throws IOException
+    {
+        ensureOpen();
+
+        if (copy == null)
+        {
+            S3Path path = reader.getPath();
+
+            S3WriteBuffer buffer = path.getFileSystem()
+                                       .getWriteBufferPool()
+                                       .newBuffer(path.getKey().replaceAll("/", "_"),
+                                                  EnumSet.of(StandardOpenOption.WRITE),
+                                                  null,
+                                                  -1);
+            try
+            {
+                // straight to the temp file, without going through memory
+                buffer.spill();
+
+                transferTo(0, reader.size(), buffer);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                buffer.release();
+
+                throw e;
+            }
+
+            copy = buffer;
+        }
+
+        return copy.getFileChannel();
+    }
+
+    private void ensureOpen()
+            throws ClosedChannelException
+    {
+        if (!isOpen())
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.List;
+
+/**
+ * Read-only seekable byte channel that fetches only the ranges of the object that are actually read,
+ * instead of downloading the whole object to a temp file when it is opened.
+ *
+ * @see S3VectoredReadChannel
+ * @see S3RangeReader
+ */
+public class S3ReadOnlySeekableByteChannel
+        implements SeekableByteChannel, S3VectoredReadChannel
+{
+
+    private final S3RangeReader reader;
+
+    private long position;
+
+
+    /**
+     * Open an existing object for reading.
+     *
+     * @param path the path of the object to read
+     * @throws IOException if the object does not exist or can not be accessed
+     */
+    public S3ReadOnlySeekableByteChannel(S3Path path)
+            throws IOException
+    {
+        this(path, 0);
+    }
+
+    /**
+     * Open an existing object for reading, and fetch its last bytes right away.
+     *
+     * @param path     the path of the object to read
+     * @param tailSize the number of bytes to prefetch from the end of the object, 0 for none
+     * @throws IOException if the object does not exist or can not be accessed
+     * @see S3TailPrefetch
+     */
+    public S3ReadOnlySeekableByteChannel(S3Path path, int tailSize)
+            throws IOException
+    {
+        this.reader = new S3RangeReader(path, tailSize);
+    }
+
+    @Override
+    public int read(ByteBuffer dst)
+            throws IOException
+    {
+        int read = reader.read(dst, position);
+        if (read > 0)
+        {
+            position += read;
+        }
+
+        return read;
+    }
+
+    @Override
+    public void readVectored(List<S3FileRange> ranges)
+            throws IOException
+    {
+        S3FileSystem fileSystem = reader.getPath().getFileSystem();
+
+        reader.readVectored(ranges,
+                            fileSystem.getVectoredReadMaxGap(),
+                            fileSystem.getVectoredReadMaxMergedSize(),
+                            fileSystem.getDownloadExecutor());
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position()
+            throws IOException
+    {
+        ensureOpen();
+
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (newPosition < 0)
+        {
+            throw new IllegalArgumentException("position must be non-negative: " + newPosition);
+        }
+
+        this.position = newPosition;
+
+        return this;
+    }
+
+    @Override
+    public long size()
+            throws IOException
+    {
+        ensureOpen();
+
+        return reader.size();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size)
+    {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return reader.isOpen();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        reader.close();
+    }
+
+    private void ensureOpen()
+            throws ClosedChannelException
+    {
+        if (!reader.isOpen())
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3StreamClosePolicy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import static java.lang.String.format;
+
+/**
+ * InputStream over the content of an S3 object that survives connection failures.
+ * <p>
+ * The stream keeps track of the position of the next byte. When reading the content fails, or the
+ * content ends before the length of the object, the connection is aborted and the rest of the object
+ * is requested again with a range GET starting at that position. The request is pinned to the ETag of
+ * the original response with <code>If-Match</code>, so the bytes never come from two versions of the
+ * object. The number of resumes is bounded by a retry budget for the whole stream.
+ * </p>
+ * <p>
+ * Closing the stream before the end drains or aborts the connection, see {@link S3StreamClosePolicy}.
+ * </p>
+ */
+public class S3ResumableInputStream
+        extends InputStream
+{
+
+    private final S3Path path;
+
+    private final String bucketName;
+
+    private final String key;
+
+    private final long length;
+
+    private final String eTag;
+
+    private final int maxRetries;
+
+    private S3ObjectInputStream content;
+
+    /**
+     * position in the object of the next byte returned by the stream.
+     */
+    private long position;
+
+    private int retries;
+
+    private boolean closed;
+
+
+    /**
+     * @param path       the path of the object
+     * @param object     the response of the GET request of the whole object
+     * @param maxRetries the maximum number of times the stream resumes after a failure, 0 to never resume
+     */
+    public S3ResumableInputStream(S3Path path, S3Object object, int maxRetries)
+    {
+        this.path = path;
+        this.bucketName = path.getFileStore().name();
+        this.key = path.getKey();
+        this.length = object.getObjectMetadata().getContentLength();
+        this.eTag = object.getObjectMetadata().getETag();
+        this.maxRetries = maxRetries;
+        this.content = object.getObjectContent();
+    }
+
+    /**
+     * @return the number of times the stream resumed after a failure
+     */
+    public int getRetries()
+    {
+        return retries;
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        byte[] single = new byte[1];
+
+        int read = read(single, 0, 1);
+
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (len == 0)
+        {
+            return 0;
+        }
+
+        while (true)
+        {
+            int read;
+            try
+            {
+                read = content.read(b, off, len);
+            }
+            catch (IOException e)
+            {
+                resume(e);
+
+                continue;
+            }
+            catch (SdkClientException e)
+            {
+                // the SDK reports some connection failures while reading the content unchecked
+                resume(new IOException(e.getMessage(), e));
+
+                continue;
+            }
+
+            if (read < 0 && position < length)
+            {
+                resume(new EOFException(format("Premature end of the object at position %d of %d: %s",
+                                               position,
+                                               length,
+                                               path)));
+
+                continue;
+            }
+
+            if (read > 0)
+            {
+                position += read;
+            }
+
+            return read;
+        }
+    }
+
+    @Override
+    public int available()
+            throws IOException
+    {
+        ensureOpen();
+
+        return content.available();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+
+        path.getFileSystem().getStreamClosePolicy().close(content, length - position);
+    }
+
+    /**
+     * Abort the failed connection and request the rest of the object, or rethrow the failure when the
+     * retry budget is exhausted.
+     */
+    private void resume(IOException failure)
+            throws IOException
+    {
+        if (retries >= maxRetries || Thread.currentThread().isInterrupted())
+        {
+            throw failure;
+        }
+
+        retries++;
+
+        content.abort();
+
+        GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(position, length - 1);
+        if (eTag != null)
+        {
+            request.withMatchingETagConstraint(eTag);
+        }
+
+        S3Object object;
+        try
+        {
+            object = getClient().getObject(request);
+        }
+        catch (AmazonClientException e)
+        {
+            if (e instanceof AmazonS3Exception && ((AmazonS3Exception) e).getStatusCode() == 404)
+            {
+                throw new NoSuchFileException(path.toString());
+            }
+
+            failure.addSuppressed(e);
+
+            throw failure;
+        }
+
+        if (object == null)
+        {
+            // the ETag constraint was not met
+            throw new IOException(format("The object has been modified since it was opened: %s", path), failure);
+        }
+
+        content = object.getObjectContent();
+    }
+
+    private void ensureOpen()
+            throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private AmazonS3 getClient()
+    {
+        return path.getFileSystem().getClient();
+    }
+
+}
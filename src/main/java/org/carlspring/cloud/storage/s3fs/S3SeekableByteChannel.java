@@ -1,5 +1,8 @@
 package org.carlspring.cloud.storage.s3fs;
 
+import org.carlspring.cloud.storage.s3fs.util.S3ContentDigest;
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBuffer;
+
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -9,10 +12,12 @@ import java.nio.file.*;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
-import org.apache.tika.Tika;
+import com.google.common.io.CountingInputStream;
 import static java.lang.String.format;
 
 public class S3SeekableByteChannel
@@ -23,9 +28,24 @@ public class S3SeekableByteChannel
 
     private Set<? extends OpenOption> options;
 
-    private SeekableByteChannel seekable;
+    private S3WriteBuffer buffer;
+
+    private CompletableFuture<Void> commit;
+
+    /**
+     * size of the object when the channel was opened, -1 if it did not exist.
+     */
+    private long objectSize = -1;
+
+    /**
+     * true once the buffer no longer matches the object.
+     */
+    private boolean modified;
 
-    private Path tempFile;
+    /**
+     * MD5 of the buffer while it is written sequentially.
+     */
+    private final S3ContentDigest digest = new S3ContentDigest();
 
 
     /**
@@ -55,57 +75,91 @@ public class S3SeekableByteChannel
             throw new NoSuchFileException(format("target not exists: %s", path));
         }
 
-        tempFile = Files.createTempFile("temp-s3-", key.replaceAll("/", "_"));
+        Set<? extends OpenOption> bufferOptions = new HashSet<>(this.options);
+        bufferOptions.remove(StandardOpenOption.CREATE_NEW);
 
-        boolean removeTempFile = true;
-
-        try
+        if (exists)
         {
-            if (exists)
+            try (S3Object object = path.getFileSystem().getClient().getObject(path.getFileStore()
+                                                                                  .getBucket()
+                                                                                  .getName(),
+                                                                              key))
             {
-                try (S3Object object = path.getFileSystem().getClient().getObject(path.getFileStore()
-                                                                                      .getBucket()
-                                                                                      .getName(),
-                                                                                  key))
-                {
-                    Files.copy(object.getObjectContent(), tempFile, StandardCopyOption.REPLACE_EXISTING);
-                }
-            }
+                CountingInputStream content = new CountingInputStream(object.getObjectContent());
 
-            Set<? extends OpenOption> seekOptions = new HashSet<>(this.options);
-            seekOptions.remove(StandardOpenOption.CREATE_NEW);
+                buffer = path.getFileSystem()
+                             .getWriteBufferPool()
+                             .newBuffer(key.replaceAll("/", "_"),
+                                        bufferOptions,
+                                        content,
+                                        object.getObjectMetadata().getContentLength());
+
+                objectSize = content.getCount();
+            }
+        }
+        else
+        {
+            buffer = path.getFileSystem()
+                         .getWriteBufferPool()
+                         .newBuffer(key.replaceAll("/", "_"), bufferOptions, null, -1);
+        }
 
-            seekable = Files.newByteChannel(tempFile, seekOptions);
+        // TRUNCATE_EXISTING already modified the content
+        modified = exists && buffer.size() < objectSize;
 
-            removeTempFile = false;
+        if (buffer.size() > 0)
+        {
+            // the digest only follows the content written from the start
+            digest.invalidate();
         }
-        finally
+    }
+
+    /**
+     * Channel over the content of an object not uploaded yet, taking over the buffer holding it.
+     *
+     * @param path    the path of the object
+     * @param options the options the channel is opened with
+     * @param buffer  the content of the object, uploaded on close
+     */
+    S3SeekableByteChannel(S3Path path, Set<? extends OpenOption> options, S3WriteBuffer buffer)
+    {
+        this.path = path;
+        this.options = Collections.unmodifiableSet(new HashSet<>(options));
+        this.buffer = buffer;
+
+        if (buffer.getContentSize() > 0)
         {
-            if (removeTempFile)
-            {
-                Files.deleteIfExists(tempFile);
-            }
+            // the digest only follows the content written from the start
+            digest.invalidate();
         }
     }
 
     @Override
     public boolean isOpen()
     {
-        return seekable.isOpen();
+        return buffer.isOpen();
     }
 
+    /**
+     * Upload the buffer, in the background if the file system is configured with
+     * {@link S3FileSystemProvider#ASYNC_COMMIT}: see {@link #getCommit()}.
+     */
     @Override
     public void close()
             throws IOException
     {
-        try
+        if (!buffer.isOpen())
         {
-            if (!seekable.isOpen())
-            {
-                return;
-            }
+            return;
+        }
 
-            seekable.close();
+        boolean releaseBuffer = true;
+
+        // published when the upload is done or queued, so that a failed upload is not reported as a success
+        CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+        try
+        {
+            buffer.close();
 
             if (options.contains(StandardOpenOption.DELETE_ON_CLOSE))
             {
@@ -119,79 +173,164 @@ public class S3SeekableByteChannel
                 return;
             }
 
+            // the object already has the content of the buffer
+            if (objectSize >= 0 && !modified)
+            {
+                return;
+            }
+
+            if (path.getFileSystem().isAsyncCommit())
+            {
+                result = path.getFileSystem().getCommitManager().submit(path, () -> {
+                    try
+                    {
+                        sync();
+                    }
+                    finally
+                    {
+                        buffer.release();
+                    }
+                });
+
+                releaseBuffer = false;
+
+                return;
+            }
+
             sync();
         }
+        catch (IOException | RuntimeException e)
+        {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+
+            throw e;
+        }
         finally
         {
-            Files.deleteIfExists(tempFile);
+            if (releaseBuffer)
+            {
+                buffer.release();
+            }
+
+            commit = result;
         }
     }
 
     /**
-     * try to sync the temp file with the remote s3 path.
+     * @return true if bytes were written or truncated since the object was downloaded
+     */
+    boolean isModified()
+    {
+        return modified;
+    }
+
+    /**
+     * @return a future completed when the content written is uploaded, null if the channel is open
+     */
+    public CompletableFuture<Void> getCommit()
+    {
+        return commit;
+    }
+
+    /**
+     * try to sync the buffer with the remote s3 path.
      *
-     * @throws IOException if the tempFile fails to open a newInputStream
+     * @throws IOException if the buffer has spilled and its temp file can not be read
      */
     protected void sync()
             throws IOException
     {
-        try (InputStream stream = new BufferedInputStream(Files.newInputStream(tempFile)))
+        try (InputStream stream = new BufferedInputStream(buffer.newInputStream()))
         {
+            long size = buffer.getContentSize();
+
             ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(Files.size(tempFile));
+            metadata.setContentLength(size);
+            metadata.setContentMD5(digest.getMD5(size));
 
             if (path.getFileName() != null)
             {
-                metadata.setContentType(new Tika().detect(stream, path.getFileName().toString()));
+                metadata.setContentType(path.getFileSystem()
+                                            .getContentTypeResolver()
+                                            .resolve(path.getFileName().toString(), stream));
             }
 
             String bucket = path.getFileStore().name();
             String key = path.getKey();
 
-            path.getFileSystem().getClient().putObject(bucket, key, stream, metadata);
+            PutObjectResult result = path.getFileSystem().getClient().putObject(bucket, key, stream, metadata);
+            if (result != null)
+            {
+                S3ContentDigest.verify(metadata.getContentMD5(),
+                                       result.getETag(),
+                                       result.getSSEAlgorithm(),
+                                       path.toString());
+            }
         }
+
+        path.getFileSystem().getAttributeCache().invalidate(path);
     }
 
     @Override
     public int write(ByteBuffer src)
             throws IOException
     {
-        return seekable.write(src);
+        ByteBuffer bytes = src.duplicate();
+
+        int written = buffer.write(src);
+        if (written > 0)
+        {
+            modified = true;
+
+            // the position is the end of the bytes written, even when appending
+            bytes.limit(bytes.position() + written);
+            digest.update(buffer.position() - written, bytes);
+        }
+
+        return written;
     }
 
     @Override
     public SeekableByteChannel truncate(long size)
             throws IOException
     {
-        return seekable.truncate(size);
+        if (size < buffer.size())
+        {
+            modified = true;
+        }
+
+        digest.truncate(size);
+
+        return buffer.truncate(size);
     }
 
     @Override
     public long size()
             throws IOException
     {
-        return seekable.size();
+        return buffer.size();
     }
 
     @Override
     public int read(ByteBuffer dst)
             throws IOException
     {
-        return seekable.read(dst);
+        return buffer.read(dst);
     }
 
     @Override
     public SeekableByteChannel position(long newPosition)
             throws IOException
     {
-        return seekable.position(newPosition);
+        return buffer.position(newPosition);
     }
 
     @Override
     public long position()
             throws IOException
     {
-        return seekable.position();
+        return buffer.position();
     }
 
 }
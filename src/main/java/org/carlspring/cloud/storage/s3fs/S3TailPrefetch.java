@@ -0,0 +1,74 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.nio.file.OpenOption;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Open option that fetches the last bytes of the object when a read-only channel is opened, and keeps
+ * them for the life of the channel.
+ * <p>
+ * Columnar formats such as Parquet and ORC ask for the size of the file and then read its footer
+ * before anything else. With this option both come from a single suffix range request
+ * (<code>bytes=-N</code>) instead of a HEAD request followed by a GET:
+ * </p>
+ * <pre>
+ * Files.newByteChannel(path, StandardOpenOption.READ, S3TailPrefetch.of(64 * 1024));
+ * </pre>
+ * <p>
+ * The option is ignored by channels opened for writing.
+ * </p>
+ */
+public final class S3TailPrefetch
+        implements OpenOption
+{
+
+    private final int size;
+
+
+    private S3TailPrefetch(int size)
+    {
+        this.size = size;
+    }
+
+    /**
+     * @param size the number of bytes to fetch from the end of the object
+     * @return S3TailPrefetch
+     */
+    public static S3TailPrefetch of(int size)
+    {
+        Preconditions.checkArgument(size > 0, "size must be positive: %s", size);
+
+        return new S3TailPrefetch(size);
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @param options the options used to open a channel
+     * @return the number of bytes to prefetch from the end of the object, 0 if the option is not present
+     */
+    public static int getSize(Set<? extends OpenOption> options)
+    {
+        for (OpenOption option : options)
+        {
+            if (option instanceof S3TailPrefetch)
+            {
+                return ((S3TailPrefetch) option).getSize();
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "S3TailPrefetch[" + size + "]";
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.util.List;
+
+/**
+ * Channel able to read many ranges of an object at once, as columnar formats do for the column chunks
+ * of a row group.
+ * <p>
+ * Ranges separated by less than a gap are coalesced into a single GET, and the resulting requests
+ * run concurrently on the download executor of the file system. Every range completes on its own as
+ * soon as its data arrives.
+ * </p>
+ *
+ * @see S3FileRange
+ */
+public interface S3VectoredReadChannel
+        extends Channel
+{
+
+    /**
+     * Start reading the ranges. The method returns without waiting for the data, use
+     * {@link S3FileRange#getData()} to wait for every range.
+     *
+     * @param ranges the ranges to read, they must not overlap
+     * @throws IOException if the channel is closed or a range is past the end of the object
+     */
+    void readVectored(List<S3FileRange> ranges)
+            throws IOException;
+
+}
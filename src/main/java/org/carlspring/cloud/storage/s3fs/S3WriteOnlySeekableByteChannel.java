@@ -0,0 +1,330 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.base.Preconditions;
+
+/**
+ * Write-only channel over a new or truncated S3 object that streams the bytes straight into the parts
+ * of a multipart upload (see {@link S3OutputStream}), without a temp file.
+ * <p>
+ * Writes are expected to be sequential. Moving the position forward is fine: the gap is filled with
+ * zeros by the next write. Moving it backward, or truncating bytes already written, switches to a
+ * {@link S3SeekableByteChannel}. As long as no part has been sent, it starts with the bytes held in
+ * memory by the stream and nothing is written to the object before the channel is closed. Parts already
+ * sent can't be read back: the bytes written so far are uploaded, and downloaded again.
+ * </p>
+ * <p>
+ * Opened with APPEND, the channel starts with the content of the existing object, copied by S3 (see
+ * {@link S3OutputStream#append(ObjectMetadata)}), and every write goes to the end whatever the position.
+ * Only truncating the object switches to a temp file.
+ * </p>
+ */
+public class S3WriteOnlySeekableByteChannel
+        implements SeekableByteChannel
+{
+
+    private static final int ZEROS_SIZE = 8192;
+
+    private final S3Path path;
+
+    private final boolean append;
+
+    private S3OutputStream stream;
+
+    /**
+     * channel over a temp file used once the writes are no longer sequential.
+     */
+    private S3SeekableByteChannel fallback;
+
+    /**
+     * number of bytes written to the stream.
+     */
+    private long size;
+
+    private long position;
+
+    private boolean open = true;
+
+
+    /**
+     * @param path           the path of the object to write
+     * @param expectedLength the number of bytes expected to be written, -1 if unknown
+     */
+    public S3WriteOnlySeekableByteChannel(S3Path path, long expectedLength)
+    {
+        this.path = path;
+        this.append = false;
+        this.stream = new S3OutputStream(path, expectedLength);
+    }
+
+    /**
+     * Channel opened with APPEND.
+     *
+     * @param path           the path of the object to append to
+     * @param expectedLength the number of bytes expected to be appended, -1 if unknown
+     * @param existing       the metadata of the object, null if it does not exist yet
+     * @throws IOException if the object can not be read
+     */
+    public S3WriteOnlySeekableByteChannel(S3Path path, long expectedLength, ObjectMetadata existing)
+            throws IOException
+    {
+        this.path = path;
+        this.append = true;
+        this.stream = new S3OutputStream(path, expectedLength);
+
+        if (existing != null)
+        {
+            stream.append(existing);
+
+            size = existing.getContentLength();
+            position = size;
+        }
+    }
+
+    /**
+     * @return true if the writes were not sequential and the channel uses a temp file
+     */
+    public boolean isFallback()
+    {
+        return fallback != null;
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (fallback != null)
+        {
+            if (append)
+            {
+                fallback.position(fallback.size());
+            }
+
+            return fallback.write(src);
+        }
+
+        if (append)
+        {
+            position = size;
+        }
+
+        fill(position - size);
+
+        int written = src.remaining();
+        if (src.hasArray())
+        {
+            stream.write(src.array(), src.arrayOffset() + src.position(), written);
+            src.position(src.limit());
+        }
+        else
+        {
+            byte[] bytes = new byte[written];
+            src.get(bytes);
+            stream.write(bytes);
+        }
+
+        size += written;
+        position = size;
+
+        return written;
+    }
+
+    @Override
+    public int read(ByteBuffer dst)
+    {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public long position()
+            throws IOException
+    {
+        ensureOpen();
+
+        return fallback != null ? fallback.position() : position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition)
+            throws IOException
+    {
+        Preconditions.checkArgument(newPosition >= 0, "position must not be negative: %s", newPosition);
+
+        ensureOpen();
+
+        if (fallback == null && newPosition < size && !append)
+        {
+            switchToTempFile();
+        }
+
+        if (fallback != null)
+        {
+            fallback.position(newPosition);
+        }
+        else
+        {
+            position = newPosition;
+        }
+
+        return this;
+    }
+
+    @Override
+    public long size()
+            throws IOException
+    {
+        ensureOpen();
+
+        return fallback != null ? fallback.size() : size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize)
+            throws IOException
+    {
+        Preconditions.checkArgument(newSize >= 0, "size must not be negative: %s", newSize);
+
+        ensureOpen();
+
+        if (fallback == null && newSize < size)
+        {
+            switchToTempFile();
+        }
+
+        if (fallback != null)
+        {
+            fallback.truncate(newSize);
+        }
+        else if (position > newSize)
+        {
+            position = newSize;
+        }
+
+        return this;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (!open)
+        {
+            return;
+        }
+
+        open = false;
+
+        if (fallback != null)
+        {
+            fallback.close();
+        }
+        else
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * @return a future completed when the content written is uploaded, null if the channel is open
+     */
+    public CompletableFuture<Void> getCommit()
+    {
+        if (open)
+        {
+            return null;
+        }
+
+        return fallback != null ? fallback.getCommit() : stream.getCommit();
+    }
+
+    /**
+     * Continue on a temp file holding the bytes written so far.
+     */
+    private void switchToTempFile()
+            throws IOException
+    {
+        try
+        {
+            ByteBuffer content = stream.detach();
+            if (content != null)
+            {
+                S3WriteBuffer buffer = path.getFileSystem()
+                                           .getWriteBufferPool()
+                                           .newBuffer(path.getKey().replaceAll("/", "_"),
+                                                      EnumSet.of(StandardOpenOption.WRITE),
+                                                      new ByteArrayInputStream(content.array(),
+                                                                               content.position(),
+                                                                               content.remaining()),
+                                                      content.remaining());
+
+                fallback = new S3SeekableByteChannel(path, EnumSet.of(StandardOpenOption.WRITE), buffer);
+            }
+            else
+            {
+                // the temp file starts with the object, which must be complete
+                stream.close(false);
+
+                fallback = new S3SeekableByteChannel(path, EnumSet.of(StandardOpenOption.WRITE));
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            open = false;
+
+            throw e;
+        }
+
+        stream = null;
+        fallback.position(position);
+    }
+
+    private void fill(long length)
+            throws IOException
+    {
+        if (length <= 0)
+        {
+            return;
+        }
+
+        byte[] zeros = new byte[(int) Math.min(length, ZEROS_SIZE)];
+        while (length > 0)
+        {
+            int chunk = (int) Math.min(length, zeros.length);
+
+            stream.write(zeros, 0, chunk);
+
+            size += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void ensureOpen()
+            throws IOException
+    {
+        if (!open)
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of fixed-size byte buffers, to avoid allocating (and later collecting) a new buffer for
+ * every block of data. Direct buffers in particular are expensive to allocate and are only released
+ * by the garbage collector.
+ */
+public class ByteBufferPool
+{
+
+    private final int bufferSize;
+
+    private final int maxPooled;
+
+    private final boolean direct;
+
+    private final Deque<ByteBuffer> pool = new ArrayDeque<>();
+
+
+    /**
+     * @param bufferSize the capacity of every buffer
+     * @param maxPooled  the maximum number of released buffers kept for reuse
+     * @param direct     true to allocate direct buffers, false for heap buffers
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled, boolean direct)
+    {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer of {@link #getBufferSize()} bytes, either reused or newly allocated
+     */
+    public ByteBuffer acquire()
+    {
+        ByteBuffer buffer;
+
+        synchronized (pool)
+        {
+            buffer = pool.poll();
+        }
+
+        if (buffer == null)
+        {
+            buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+
+        buffer.clear();
+
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool. The caller must not use it afterwards.
+     *
+     * @param buffer ByteBuffer previously returned by {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct)
+        {
+            return;
+        }
+
+        synchronized (pool)
+        {
+            if (pool.size() < maxPooled)
+            {
+                pool.push(buffer);
+            }
+        }
+    }
+
+}
@@ -2,6 +2,11 @@ package org.carlspring.cloud.storage.s3fs.util;
 
 import org.carlspring.cloud.storage.s3fs.attribute.S3BasicFileAttributes;
 
+/**
+ * @deprecated the attributes are cached per file system, see
+ * {@link org.carlspring.cloud.storage.s3fs.S3FileSystem#getAttributeCache()}
+ */
+@Deprecated
 public class Cache
 {
 
@@ -0,0 +1,208 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import org.carlspring.cloud.storage.s3fs.S3Path;
+import org.carlspring.cloud.storage.s3fs.attribute.S3BasicFileAttributes;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Attributes of the objects of a file system, shared by all its paths: two paths with the same bucket
+ * and key see the same entry, whatever the instance and the trailing slash.
+ * <p>
+ * An entry holds the basic or the posix attributes last read, and serves the basic attributes in both
+ * cases. The entries expire after the time to live and the least recently used ones are evicted beyond
+ * the maximum size. The file system invalidates the entry of an object, and of its parent, when it
+ * writes, copies or deletes it; changes made by other clients are seen once the entry expires.
+ * </p>
+ * <p>
+ * The keys found missing can be cached too, with their own, usually shorter, time to live: a write made
+ * through the file system invalidates the missing entries of the object and of all its ancestors.
+ * </p>
+ */
+public class S3AttributeCache
+{
+
+    private final Cache<String, S3BasicFileAttributes> entries;
+
+    private final Cache<String, Boolean> missing;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong missingHits = new AtomicLong();
+
+
+    /**
+     * @param ttl     the milliseconds the attributes are kept, -1 for ever, 0 to disable the cache
+     * @param maxSize the maximum number of objects whose attributes are kept
+     */
+    public S3AttributeCache(long ttl, long maxSize)
+    {
+        this(ttl, maxSize, 0);
+    }
+
+    /**
+     * @param ttl        the milliseconds the attributes are kept, -1 for ever, 0 to disable the cache
+     * @param maxSize    the maximum number of objects whose attributes are kept, and of missing keys
+     * @param missingTtl the milliseconds a missing key is remembered, -1 for ever, 0 to never remember it
+     */
+    public S3AttributeCache(long ttl, long maxSize, long missingTtl)
+    {
+        entries = newCache(ttl, maxSize);
+        missing = newCache(missingTtl, maxSize);
+    }
+
+    /**
+     * @param path the path of the object
+     * @param type {@link S3BasicFileAttributes} or one of its subclasses
+     * @return the attributes cached for the object, null if there are none of the given type
+     */
+    public <A extends S3BasicFileAttributes> A get(S3Path path, Class<A> type)
+    {
+        String key = toKey(path);
+
+        S3BasicFileAttributes attributes = key != null ? entries.getIfPresent(key) : null;
+        if (type.isInstance(attributes))
+        {
+            hits.incrementAndGet();
+
+            return type.cast(attributes);
+        }
+
+        misses.incrementAndGet();
+
+        return null;
+    }
+
+    public void put(S3Path path, S3BasicFileAttributes attributes)
+    {
+        String key = toKey(path);
+        if (key != null)
+        {
+            entries.put(key, attributes);
+            missing.invalidate(key);
+        }
+    }
+
+    /**
+     * @param path the path of the object
+     * @return true if the object was found missing and is remembered as such
+     */
+    public boolean isMissing(S3Path path)
+    {
+        String key = toKey(path);
+        if (key != null && missing.getIfPresent(key) != null)
+        {
+            missingHits.incrementAndGet();
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param path the path of an object found missing, neither a file nor a directory
+     */
+    public void putMissing(S3Path path)
+    {
+        String key = toKey(path);
+        if (key != null)
+        {
+            entries.invalidate(key);
+            missing.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Forget the attributes of an object and of its parent, whose existence as a directory may depend on it,
+     * and that the object or any of its ancestors is missing.
+     *
+     * @param path the path of the object modified
+     */
+    public void invalidate(S3Path path)
+    {
+        String key = toKey(path);
+        if (key != null)
+        {
+            entries.invalidate(key);
+
+            S3Path parent = (S3Path) path.getParent();
+            if (parent != null && toKey(parent) != null)
+            {
+                entries.invalidate(toKey(parent));
+            }
+
+            for (int index = key.length(); index > 0; index = key.lastIndexOf(S3Path.PATH_SEPARATOR, index - 1))
+            {
+                missing.invalidate(key.substring(0, index));
+            }
+        }
+    }
+
+    public void invalidateAll()
+    {
+        entries.invalidateAll();
+        missing.invalidateAll();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of lookups answered by a missing key remembered
+     */
+    public long getMissingHitCount()
+    {
+        return missingHits.get();
+    }
+
+    /**
+     * @return the number of objects whose attributes are cached, including the expired ones not evicted yet
+     */
+    public long size()
+    {
+        return entries.size();
+    }
+
+    private static <V> Cache<String, V> newCache(long ttl, long maxSize)
+    {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                                                           .maximumSize(ttl == 0 ? 0 : Math.max(0, maxSize));
+        if (ttl > 0)
+        {
+            builder.expireAfterWrite(ttl, TimeUnit.MILLISECONDS);
+        }
+
+        return builder.build();
+    }
+
+    private static String toKey(S3Path path)
+    {
+        if (path.getFileStore() == null)
+        {
+            return null;
+        }
+
+        String key = path.getKey();
+        if (key.endsWith(S3Path.PATH_SEPARATOR))
+        {
+            key = key.substring(0, key.length() - 1);
+        }
+
+        return path.getFileStore().name() + S3Path.PATH_SEPARATOR + key;
+    }
+
+}
@@ -0,0 +1,256 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of fixed-size blocks of S3 objects, held off-heap in pooled direct buffers
+ * and bounded by a byte budget.
+ * <p>
+ * Blocks are keyed by bucket, key, object version (usually the ETag) and block index, so a block of
+ * an object that has been replaced is never returned for the new version; it just ages out.
+ * </p>
+ * <p>
+ * Blocks are copied in and out while holding the cache lock, so an evicted buffer can be reused
+ * immediately without any reference counting.
+ * </p>
+ */
+public class S3BlockCache
+{
+
+    private final int blockSize;
+
+    private final long capacity;
+
+    private final ByteBufferPool pool;
+
+    private final LinkedHashMap<Key, ByteBuffer> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * @param blockSize the size of every block in bytes
+     * @param capacity  the maximum number of bytes held by the cache
+     */
+    public S3BlockCache(int blockSize, long capacity)
+    {
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.pool = new ByteBufferPool(blockSize, 16, true);
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Copy bytes of a cached block into the buffer.
+     *
+     * @param key    the block to read
+     * @param offset the offset within the block of the first byte to copy
+     * @param dst    the buffer into which bytes are copied
+     * @return the number of bytes copied, or -1 if the block is not cached
+     */
+    public int read(Key key, int offset, ByteBuffer dst)
+    {
+        synchronized (blocks)
+        {
+            ByteBuffer block = blocks.get(key);
+            if (block == null || offset >= block.limit())
+            {
+                misses.incrementAndGet();
+
+                return -1;
+            }
+
+            hits.incrementAndGet();
+
+            ByteBuffer source = block.duplicate();
+            source.position(offset);
+            source.limit(Math.min(block.limit(), offset + dst.remaining()));
+
+            int length = source.remaining();
+            dst.put(source);
+
+            return length;
+        }
+    }
+
+    /**
+     * @param key the block to look for
+     * @return true if the block is cached
+     */
+    public boolean contains(Key key)
+    {
+        synchronized (blocks)
+        {
+            return blocks.containsKey(key);
+        }
+    }
+
+    /**
+     * Cache a copy of a block. The position of the source buffer is not modified.
+     *
+     * @param key  the block
+     * @param data the content of the block, from its position to its limit; the last block of an object
+     *             may be shorter than the block size
+     */
+    public void put(Key key, ByteBuffer data)
+    {
+        if (data.remaining() > blockSize || blockSize > capacity)
+        {
+            return;
+        }
+
+        synchronized (blocks)
+        {
+            if (blocks.containsKey(key))
+            {
+                return;
+            }
+
+            ByteBuffer block = pool.acquire();
+            block.put(data.duplicate());
+            block.flip();
+
+            blocks.put(key, block);
+            usedBytes += blockSize;
+
+            Iterator<Map.Entry<Key, ByteBuffer>> eldest = blocks.entrySet().iterator();
+            while (usedBytes > capacity && eldest.hasNext())
+            {
+                ByteBuffer evicted = eldest.next().getValue();
+                eldest.remove();
+
+                usedBytes -= blockSize;
+                pool.release(evicted);
+            }
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (blocks)
+        {
+            for (ByteBuffer block : blocks.values())
+            {
+                pool.release(block);
+            }
+
+            blocks.clear();
+            usedBytes = 0;
+        }
+    }
+
+    public long getUsedBytes()
+    {
+        synchronized (blocks)
+        {
+            return usedBytes;
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Identifies a block of a given version of an object.
+     */
+    public static final class Key
+    {
+
+        private final String bucketName;
+
+        private final String key;
+
+        private final String version;
+
+        private final long index;
+
+
+        public Key(String bucketName, String key, String version, long index)
+        {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.version = version;
+            this.index = index;
+        }
+
+        public String getBucketName()
+        {
+            return bucketName;
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+
+        public String getVersion()
+        {
+            return version;
+        }
+
+        public long getIndex()
+        {
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+
+            Key other = (Key) o;
+
+            return index == other.index &&
+                   bucketName.equals(other.bucketName) &&
+                   key.equals(other.key) &&
+                   Objects.equals(version, other.version);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(bucketName, key, version, index);
+        }
+
+        @Override
+        public String toString()
+        {
+            return bucketName + "/" + key + "@" + version + "#" + index;
+        }
+
+    }
+
+}
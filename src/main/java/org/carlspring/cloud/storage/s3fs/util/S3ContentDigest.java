@@ -0,0 +1,199 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.amazonaws.util.BinaryUtils;
+import static java.lang.String.format;
+
+/**
+ * MD5 of content computed as it is written, so it can be sent as <code>Content-MD5</code> with the upload
+ * and checked against the returned ETag without reading the content again.
+ * <p>
+ * The digest follows the writes as long as they are sequential from the start of the content. A write
+ * anywhere else, or a truncation of bytes already digested, invalidates it: {@link #getMD5(long)} then
+ * returns null and the upload goes without <code>Content-MD5</code>.
+ * </p>
+ */
+public class S3ContentDigest
+{
+
+    private MessageDigest digest = newDigest();
+
+    /**
+     * number of bytes digested.
+     */
+    private long length;
+
+
+    /**
+     * @param position the position in the content of the first byte written
+     * @param bytes    the bytes written
+     * @param offset   the offset in the array of the first byte written
+     * @param count    the number of bytes written
+     */
+    public synchronized void update(long position, byte[] bytes, int offset, int count)
+    {
+        if (accept(position, count))
+        {
+            digest.update(bytes, offset, count);
+            length += count;
+        }
+    }
+
+    /**
+     * @param position the position in the content of the first byte written
+     * @param written  the bytes written, between the position and the limit of the buffer, which are left
+     *                 unchanged
+     */
+    public synchronized void update(long position, ByteBuffer written)
+    {
+        ByteBuffer bytes = written.duplicate();
+
+        if (accept(position, bytes.remaining()))
+        {
+            length += bytes.remaining();
+            digest.update(bytes);
+        }
+    }
+
+    /**
+     * @param position the position in the content of the first byte written
+     * @param written  the buffers of a gathering write, as they were before the write
+     * @param count    the number of bytes written from them
+     */
+    public synchronized void update(long position, ByteBuffer[] written, long count)
+    {
+        for (ByteBuffer buffer : written)
+        {
+            if (count <= 0)
+            {
+                break;
+            }
+
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.limit(bytes.position() + (int) Math.min(bytes.remaining(), count));
+
+            update(position, bytes);
+
+            position += bytes.remaining();
+            count -= bytes.remaining();
+        }
+    }
+
+    /**
+     * Make the digest unusable, after a change of the content that can't be followed.
+     */
+    public synchronized void invalidate()
+    {
+        digest = null;
+    }
+
+    /**
+     * @param size the new size of the content
+     */
+    public synchronized void truncate(long size)
+    {
+        if (size < length)
+        {
+            digest = null;
+        }
+    }
+
+    /**
+     * @param size the size of the content
+     * @return the MD5 of the content, encoded in base64 as expected by <code>Content-MD5</code>, null if the
+     * digest does not cover exactly the content
+     */
+    public synchronized String getMD5(long size)
+    {
+        if (digest == null || size != length)
+        {
+            return null;
+        }
+
+        try
+        {
+            // the digest can still be updated after this
+            return BinaryUtils.toBase64(((MessageDigest) digest.clone()).digest());
+        }
+        catch (CloneNotSupportedException e)
+        {
+            return BinaryUtils.toBase64(newDigest().digest());
+        }
+    }
+
+    /**
+     * Forget the bytes digested, to compute the digest of new content.
+     */
+    public synchronized void reset()
+    {
+        digest = newDigest();
+        length = 0;
+    }
+
+    /**
+     * Check the ETag returned for an object or a part uploaded in a single request against its MD5. Only the
+     * ETag of an object not encrypted, or encrypted with SSE-S3, is its MD5: other ETags are not checked.
+     *
+     * @param md5          the MD5 sent with the upload, encoded in base64, or null
+     * @param eTag         the ETag returned by S3, or null
+     * @param sseAlgorithm the server-side encryption of the object, or null
+     * @param name         the name of the content, for the message of the exception
+     * @throws IOException if the ETag is not the MD5 of the content
+     */
+    public static void verify(String md5, String eTag, String sseAlgorithm, String name)
+            throws IOException
+    {
+        if (md5 == null || eTag == null ||
+            (sseAlgorithm != null && !SSEAlgorithm.AES256.getAlgorithm().equals(sseAlgorithm)))
+        {
+            return;
+        }
+
+        String expected = BinaryUtils.toHex(BinaryUtils.fromBase64(md5));
+        String actual = eTag.replace("\"", "");
+
+        if (!expected.equalsIgnoreCase(actual))
+        {
+            throw new IOException(format("Content of %s corrupted during the upload: expected ETag %s, got %s",
+                                         name,
+                                         expected,
+                                         actual));
+        }
+    }
+
+    private boolean accept(long position, int count)
+    {
+        if (digest == null || count <= 0)
+        {
+            return false;
+        }
+
+        if (position != length)
+        {
+            // rewriting or skipping bytes can't be followed
+            digest = null;
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Set of byte ranges of a file, merged as they are added. Used to remember the parts of a temp file
+ * modified since it was downloaded.
+ */
+public class S3DirtyRanges
+{
+
+    /**
+     * start of every range to its end (exclusive); ranges never overlap nor touch.
+     */
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+
+    /**
+     * @param position the first byte of the range
+     * @param length   the number of bytes of the range
+     */
+    public synchronized void add(long position, long length)
+    {
+        if (length <= 0)
+        {
+            return;
+        }
+
+        long start = position;
+        long end = position + length;
+
+        Map.Entry<Long, Long> previous = ranges.floorEntry(start);
+        if (previous != null && previous.getValue() >= start)
+        {
+            start = previous.getKey();
+            end = Math.max(end, previous.getValue());
+
+            ranges.remove(previous.getKey());
+        }
+
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end)
+        {
+            end = Math.max(end, next.getValue());
+
+            ranges.remove(next.getKey());
+        }
+
+        ranges.put(start, end);
+    }
+
+    /**
+     * Forget the bytes past the given size.
+     *
+     * @param size the new size of the file
+     */
+    public synchronized void truncate(long size)
+    {
+        ranges.tailMap(size, true).clear();
+
+        Map.Entry<Long, Long> last = ranges.lastEntry();
+        if (last != null && last.getValue() > size)
+        {
+            ranges.put(last.getKey(), size);
+        }
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @return the number of bytes of all the ranges
+     */
+    public synchronized long getBytes()
+    {
+        long bytes = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet())
+        {
+            bytes += range.getValue() - range.getKey();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @return the ranges in order, every one as an array of its start and its end (exclusive)
+     */
+    public synchronized List<long[]> getRanges()
+    {
+        List<long[]> result = new ArrayList<>(ranges.size());
+        for (Map.Entry<Long, Long> range : ranges.entrySet())
+        {
+            result.add(new long[]{ range.getKey(), range.getValue() });
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,343 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Cache of fixed-size blocks of S3 objects kept in a local directory, so they survive the JVM and can
+ * be shared by every process of the host that uses the same directory.
+ * <p>
+ * Every block is a file named after a hash of its bucket, key, object version (usually the ETag) and
+ * block size, plus the block index. A block of an object that has been replaced is therefore never
+ * returned for the new version, since the version is resolved with a HEAD request when the object is
+ * opened; and processes configured with different block sizes never read each other's blocks, whose
+ * indexes cover different bytes.
+ * </p>
+ * <p>
+ * Block files are written to a temporary file and atomically moved into place, so readers never see
+ * a partial block. Eviction removes the least recently used files until the directory fits the quota;
+ * it runs under an exclusive lock on a file of the directory, so processes do not evict concurrently, and
+ * only one thread of a process evicts a directory at a time.
+ * A block deleted while another process reads it is just a miss.
+ * </p>
+ * <p>
+ * The cache is best effort: any error reading or writing a block is reported as a miss.
+ * </p>
+ */
+public class S3DiskCache
+{
+
+    private static final String BLOCK_SUFFIX = ".block";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String LOCK_FILE = ".lock";
+
+    /**
+     * the directories evicted by a thread of this JVM: a file lock is held by the whole JVM, so a second
+     * thread asking for it would get an OverlappingFileLockException instead of waiting.
+     */
+    private static final Set<Path> EVICTING = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+
+    private final int blockSize;
+
+    private final long capacity;
+
+    /**
+     * bytes held by the directory as seen by this process; other processes may add more, which is
+     * accounted for on the next eviction.
+     */
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * @param directory the directory of the cache, created if it does not exist
+     * @param blockSize the size of every block in bytes
+     * @param capacity  the maximum number of bytes held by the directory
+     * @throws IOException if the directory can not be created or listed
+     */
+    public S3DiskCache(Path directory, int blockSize, long capacity)
+            throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.usedBytes.set(sizeOf(listBlocks()));
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @param key the block to read
+     * @return the content of the block, or null if it's not cached
+     */
+    public ByteBuffer get(S3BlockCache.Key key)
+    {
+        Path file = resolve(key);
+
+        try
+        {
+            ByteBuffer block = ByteBuffer.wrap(Files.readAllBytes(file));
+
+            // the modification time orders the eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+            hits.incrementAndGet();
+
+            return block;
+        }
+        catch (IOException e)
+        {
+            misses.incrementAndGet();
+
+            return null;
+        }
+    }
+
+    /**
+     * Store a copy of a block. The position of the source buffer is not modified.
+     *
+     * @param key  the block
+     * @param data the content of the block, from its position to its limit
+     */
+    public void put(S3BlockCache.Key key, ByteBuffer data)
+    {
+        if (data.remaining() > capacity)
+        {
+            return;
+        }
+
+        Path file = resolve(key);
+        if (Files.exists(file))
+        {
+            return;
+        }
+
+        Path temp = directory.resolve(file.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+
+        try
+        {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                ByteBuffer source = data.duplicate();
+                while (source.hasRemaining())
+                {
+                    channel.write(source);
+                }
+            }
+
+            try
+            {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if (usedBytes.addAndGet(data.remaining()) > capacity)
+            {
+                evict();
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // the block is simply not cached, the read that fetched it goes on
+        }
+        finally
+        {
+            try
+            {
+                Files.deleteIfExists(temp);
+            }
+            catch (IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * @param key the block to look for
+     * @return true if the block is cached
+     */
+    public boolean contains(S3BlockCache.Key key)
+    {
+        return Files.exists(resolve(key));
+    }
+
+    /**
+     * Delete the least recently used blocks until the directory fits the quota. Nothing is done if another
+     * thread of this JVM is evicting the directory already.
+     *
+     * @throws IOException if the directory can not be locked or listed
+     */
+    public void evict()
+            throws IOException
+    {
+        Path lockKey = directory.toAbsolutePath().normalize();
+        if (!EVICTING.add(lockKey))
+        {
+            return;
+        }
+
+        try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                                                        StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE);
+             FileLock ignored = lockChannel.lock())
+        {
+            List<Block> blocks = listBlocks();
+            blocks.sort(Comparator.comparing(block -> block.lastModified));
+
+            long used = sizeOf(blocks);
+            for (Block block : blocks)
+            {
+                if (used <= capacity)
+                {
+                    break;
+                }
+
+                try
+                {
+                    Files.delete(block.file);
+                }
+                catch (NoSuchFileException e)
+                {
+                    // removed by another process
+                }
+
+                used -= block.size;
+            }
+
+            usedBytes.set(used);
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // held by another cache of this JVM on the same directory through a different path: it evicts
+        }
+        finally
+        {
+            EVICTING.remove(lockKey);
+        }
+    }
+
+    public long getUsedBytes()
+    {
+        return usedBytes.get();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    private Path resolve(S3BlockCache.Key key)
+    {
+        String object = key.getBucketName() + "/" + key.getKey() + "@" + key.getVersion() + "#" + blockSize;
+
+        return directory.resolve(Hashing.sha256().hashString(object, StandardCharsets.UTF_8) + "-" +
+                                 key.getIndex() + BLOCK_SUFFIX);
+    }
+
+    private List<Block> listBlocks()
+            throws IOException
+    {
+        List<Block> blocks = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + BLOCK_SUFFIX))
+        {
+            for (Path file : stream)
+            {
+                try
+                {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+                    blocks.add(new Block(file, attributes.size(), attributes.lastModifiedTime()));
+                }
+                catch (NoSuchFileException e)
+                {
+                    // removed by another process
+                }
+            }
+        }
+
+        return blocks;
+    }
+
+    private static long sizeOf(List<Block> blocks)
+    {
+        long size = 0;
+        for (Block block : blocks)
+        {
+            size += block.size;
+        }
+
+        return size;
+    }
+
+    private static final class Block
+    {
+
+        private final Path file;
+
+        private final long size;
+
+        private final FileTime lastModified;
+
+
+        private Block(Path file, long size, FileTime lastModified)
+        {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import org.carlspring.cloud.storage.s3fs.S3ContentTypeResolver;
+
+import java.net.FileNameMap;
+import java.net.URLConnection;
+
+/**
+ * Content type looked up from the extension of the name, in the table of the JRE. Reads no content.
+ */
+public class S3ExtensionContentTypeResolver
+        implements S3ContentTypeResolver
+{
+
+    private final FileNameMap fileNameMap = URLConnection.getFileNameMap();
+
+
+    @Override
+    public int getPrefixSize()
+    {
+        return 0;
+    }
+
+    @Override
+    public String resolve(String fileName, byte[] prefix, int length)
+    {
+        return fileName != null ? fileNameMap.getContentTypeFor(fileName) : null;
+    }
+
+}
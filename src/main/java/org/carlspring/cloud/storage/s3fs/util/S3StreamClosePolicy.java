@@ -0,0 +1,119 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * Decides how to close the content of an object response that has not been read to the end.
+ * <p>
+ * Reading the rest of the response lets the client return the connection to its pool, which is
+ * cheaper than a new connection (and TLS handshake) as long as few bytes remain. Beyond the drain
+ * threshold the connection is aborted instead. Both outcomes are counted.
+ * </p>
+ */
+public class S3StreamClosePolicy
+{
+
+    private final long drainThreshold;
+
+    private final AtomicLong drainCount = new AtomicLong();
+
+    private final AtomicLong drainedBytes = new AtomicLong();
+
+    private final AtomicLong abortCount = new AtomicLong();
+
+
+    /**
+     * @param drainThreshold the maximum number of unread bytes drained to reuse the connection
+     */
+    public S3StreamClosePolicy(long drainThreshold)
+    {
+        this.drainThreshold = drainThreshold;
+    }
+
+    public long getDrainThreshold()
+    {
+        return drainThreshold;
+    }
+
+    /**
+     * Close the content of a response, draining or aborting it depending on the bytes left unread.
+     *
+     * @param stream    the content of the response
+     * @param remaining the number of bytes of the response not read yet
+     * @throws IOException if the stream can not be closed
+     */
+    public void close(S3ObjectInputStream stream, long remaining)
+            throws IOException
+    {
+        if (remaining <= 0)
+        {
+            stream.close();
+
+            return;
+        }
+
+        if (remaining <= drainThreshold && drain(stream))
+        {
+            stream.close();
+
+            return;
+        }
+
+        abortCount.incrementAndGet();
+
+        stream.abort();
+    }
+
+    /**
+     * @return the number of responses drained to reuse their connection
+     */
+    public long getDrainCount()
+    {
+        return drainCount.get();
+    }
+
+    /**
+     * @return the number of bytes read and discarded while draining responses
+     */
+    public long getDrainedBytes()
+    {
+        return drainedBytes.get();
+    }
+
+    /**
+     * @return the number of responses aborted, closing their connection
+     */
+    public long getAbortCount()
+    {
+        return abortCount.get();
+    }
+
+    private boolean drain(S3ObjectInputStream stream)
+    {
+        byte[] buffer = new byte[8192];
+
+        long drained = 0;
+        try
+        {
+            int read;
+            while ((read = stream.read(buffer)) >= 0)
+            {
+                drained += read;
+            }
+        }
+        catch (IOException e)
+        {
+            // the connection is broken anyway
+            return false;
+        }
+
+        drainCount.incrementAndGet();
+        drainedBytes.addAndGet(drained);
+
+        return true;
+    }
+
+}
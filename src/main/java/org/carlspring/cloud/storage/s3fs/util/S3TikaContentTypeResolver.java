@@ -0,0 +1,42 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import org.carlspring.cloud.storage.s3fs.S3ContentTypeResolver;
+
+import java.util.Arrays;
+
+import org.apache.tika.Tika;
+
+/**
+ * Content type detected by Apache Tika from the magic bytes of the first block and the name. Tika is an
+ * optional dependency: this class is only loaded when Tika is on the classpath.
+ */
+public class S3TikaContentTypeResolver
+        implements S3ContentTypeResolver
+{
+
+    /**
+     * number of leading bytes used to detect the content type.
+     */
+    public static final int PREFIX_SIZE = 64 * 1024;
+
+    /**
+     * loading the detectors is expensive, and a Tika instance is thread-safe.
+     */
+    private static final Tika TIKA = new Tika();
+
+
+    @Override
+    public int getPrefixSize()
+    {
+        return PREFIX_SIZE;
+    }
+
+    @Override
+    public String resolve(String fileName, byte[] prefix, int length)
+    {
+        byte[] bytes = length == prefix.length ? prefix : Arrays.copyOf(prefix, length);
+
+        return fileName != null ? TIKA.detect(bytes, fileName) : TIKA.detect(bytes);
+    }
+
+}
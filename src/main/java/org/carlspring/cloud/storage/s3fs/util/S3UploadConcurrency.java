@@ -0,0 +1,183 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Number of parts a multipart upload sends at the same time, adapted to the measured throughput and
+ * errors of the parts already uploaded.
+ * <p>
+ * The limit climbs one step at a time while the estimated aggregate throughput (the mean throughput
+ * of a part times the limit) keeps improving, and turns around when it drops: more parallel parts only
+ * help until the network or the bucket partition is saturated. A failed part halves the limit, since
+ * errors under load are usually throttling. The limit always stays within the configured bounds.
+ * </p>
+ * <p>
+ * One instance is shared by all the uploads of a file system, so every upload benefits from what the
+ * previous ones measured.
+ * </p>
+ */
+public class S3UploadConcurrency
+{
+
+    /**
+     * relative change of the aggregate throughput considered noise.
+     */
+    private static final double TOLERANCE = 0.1;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final IntConsumer listener;
+
+    private volatile int limit;
+
+    /**
+     * +1 while probing a higher limit, -1 while backing off.
+     */
+    private int direction = 1;
+
+    private int windowParts;
+
+    private double windowThroughput;
+
+    /**
+     * aggregate throughput, in bytes per second, measured with the previous limit; 0 if unknown.
+     */
+    private double previousThroughput;
+
+    private long uploadedParts;
+
+    private long failedParts;
+
+
+    /**
+     * @param initialLimit the number of parts in flight until the first measures are available
+     * @param minLimit     the lowest number of parts in flight
+     * @param maxLimit     the highest number of parts in flight
+     */
+    public S3UploadConcurrency(int initialLimit, int minLimit, int maxLimit)
+    {
+        this(initialLimit, minLimit, maxLimit, null);
+    }
+
+    /**
+     * @param initialLimit the number of parts in flight until the first measures are available
+     * @param minLimit     the lowest number of parts in flight
+     * @param maxLimit     the highest number of parts in flight
+     * @param listener     notified with the new limit every time it changes, may be null
+     */
+    public S3UploadConcurrency(int initialLimit, int minLimit, int maxLimit, IntConsumer listener)
+    {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.listener = listener;
+        this.limit = clamp(initialLimit);
+    }
+
+    /**
+     * @return the number of parts an upload may have in flight right now
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public int getMinLimit()
+    {
+        return minLimit;
+    }
+
+    public int getMaxLimit()
+    {
+        return maxLimit;
+    }
+
+    /**
+     * Record a part uploaded successfully. Once as many parts as the limit have been measured, the
+     * limit moves one step.
+     *
+     * @param bytes the size of the part
+     * @param nanos the time spent uploading it
+     */
+    public synchronized void onPartUploaded(long bytes, long nanos)
+    {
+        uploadedParts++;
+
+        windowParts++;
+        windowThroughput += bytes * 1e9 / Math.max(1, nanos);
+
+        if (windowParts < limit)
+        {
+            return;
+        }
+
+        double throughput = windowThroughput / windowParts * limit;
+
+        if (previousThroughput > 0 && throughput < previousThroughput * (1 - TOLERANCE))
+        {
+            direction = -direction;
+        }
+
+        previousThroughput = throughput;
+
+        update(limit + direction);
+    }
+
+    /**
+     * Record a part that could not be uploaded.
+     */
+    public synchronized void onPartFailed()
+    {
+        failedParts++;
+
+        direction = -1;
+        previousThroughput = 0;
+
+        update(limit / 2);
+    }
+
+    public synchronized long getUploadedParts()
+    {
+        return uploadedParts;
+    }
+
+    public synchronized long getFailedParts()
+    {
+        return failedParts;
+    }
+
+    private void update(int newLimit)
+    {
+        newLimit = clamp(newLimit);
+
+        // reaching a bound turns the probe around
+        if (newLimit == maxLimit)
+        {
+            direction = -1;
+        }
+        else if (newLimit == minLimit)
+        {
+            direction = 1;
+        }
+
+        windowParts = 0;
+        windowThroughput = 0;
+
+        if (newLimit != limit)
+        {
+            limit = newLimit;
+
+            if (listener != null)
+            {
+                listener.accept(newLimit);
+            }
+        }
+    }
+
+    private int clamp(int value)
+    {
+        return Math.min(maxLimit, Math.max(minLimit, value));
+    }
+
+}
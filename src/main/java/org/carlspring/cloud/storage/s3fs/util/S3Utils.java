@@ -24,11 +24,13 @@ public class S3Utils
 {
 
     /**
-     * Get the {@link S3ObjectSummary} that represent this Path or her first child if this path not exists
+     * Get the {@link S3ObjectSummary} that represent this Path or her first child if this path not exists.
+     * The owner of an object found with its own key is not set: it needs a request for the ACL, done only by
+     * the callers that use it ({@link #getS3PosixFileAttributes(S3Path)}, access checks).
      *
      * @param s3Path {@link S3Path}
      * @return {@link S3ObjectSummary}
-     * @throws NoSuchFileException if not found the path and any child
+     * @throws NoSuchFileException if not found the path and any child, or if the file system remembers it missing
      */
     public S3ObjectSummary getS3ObjectSummary(S3Path s3Path)
             throws NoSuchFileException
@@ -38,20 +40,23 @@ public class S3Utils
 
         AmazonS3 client = s3Path.getFileSystem().getClient();
 
+        S3AttributeCache attributeCache = s3Path.getFileSystem().getAttributeCache();
+        if (attributeCache.isMissing(s3Path))
+        {
+            throw new NoSuchFileException(bucketName + S3Path.PATH_SEPARATOR + key);
+        }
+
         // try to find the element with the current key (maybe with end slash or maybe not.)
         try
         {
             ObjectMetadata metadata = client.getObjectMetadata(bucketName, key);
 
-            AccessControlList objectAcl = client.getObjectAcl(bucketName, key);
-
             S3ObjectSummary result = new S3ObjectSummary();
             result.setBucketName(bucketName);
             result.setETag(metadata.getETag());
             result.setKey(key);
             result.setLastModified(metadata.getLastModified());
             result.setSize(metadata.getContentLength());
-            result.setOwner(objectAcl.getOwner());
 
             return result;
         }
@@ -84,6 +89,9 @@ public class S3Utils
             {
                 return current.getObjectSummaries().get(0);
             }
+
+            // neither a file nor a directory, as far as S3 answered
+            attributeCache.putMissing(s3Path);
         }
         catch (Exception e)
         {
@@ -0,0 +1,601 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import static org.carlspring.cloud.storage.s3fs.util.S3WriteBufferPool.BLOCK_SIZE;
+
+/**
+ * Content of an object being modified, kept in memory blocks of a {@link S3WriteBufferPool} while it is
+ * small, and in a temp file once it grows past the threshold of the pool or the pool runs out of memory.
+ * <p>
+ * The buffer is a channel honoring the READ, WRITE, APPEND and TRUNCATE_EXISTING options like a channel
+ * over a file. Its content can still be read with {@link #newInputStream()} once closed, until it is
+ * released with {@link #release()}.
+ * </p>
+ */
+public class S3WriteBuffer
+        implements SeekableByteChannel
+{
+
+    private final S3WriteBufferPool pool;
+
+    private final String name;
+
+    private final boolean readable;
+
+    private final boolean writable;
+
+    private final boolean append;
+
+    private final boolean truncateExisting;
+
+    /**
+     * the content while it is in memory; the bytes past the size are zeros.
+     */
+    private final List<ByteBuffer> blocks = new ArrayList<>();
+
+    private Path file;
+
+    private FileChannel fileChannel;
+
+    /**
+     * bytes of the temp file counted in the quota of the pool.
+     */
+    private long spillReserved;
+
+    private long size;
+
+    private long position;
+
+    private boolean open = true;
+
+
+    S3WriteBuffer(S3WriteBufferPool pool, String name, Set<? extends OpenOption> options)
+    {
+        Preconditions.checkArgument(!options.contains(StandardOpenOption.APPEND) ||
+                                    (!options.contains(StandardOpenOption.READ) &&
+                                     !options.contains(StandardOpenOption.TRUNCATE_EXISTING)),
+                                    "APPEND is not allowed with READ or TRUNCATE_EXISTING");
+
+        this.pool = pool;
+        this.name = name;
+        this.writable = options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
+        this.readable = options.contains(StandardOpenOption.READ) || !writable;
+        this.append = options.contains(StandardOpenOption.APPEND);
+        this.truncateExisting = options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Fill the buffer with the initial content, whatever the options.
+     */
+    synchronized void load(InputStream content, long length)
+            throws IOException
+    {
+        if (length > pool.getThreshold())
+        {
+            spill(length);
+        }
+
+        if (content != null)
+        {
+            byte[] bytes = new byte[8192];
+
+            int read;
+            while ((read = content.read(bytes)) >= 0)
+            {
+                put(ByteBuffer.wrap(bytes, 0, read), size);
+            }
+        }
+
+        if (writable && truncateExisting)
+        {
+            truncateContent(0);
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst)
+            throws IOException
+    {
+        ensureReadable();
+
+        int read = get(dst, position);
+        if (read > 0)
+        {
+            position += read;
+        }
+
+        return read;
+    }
+
+    /**
+     * @param dst      the buffer to fill
+     * @param position the position of the first byte read
+     * @return the number of bytes read, -1 if the position is past the end
+     * @throws IOException if the buffer has spilled and the temp file can not be read
+     */
+    public synchronized int read(ByteBuffer dst, long position)
+            throws IOException
+    {
+        Preconditions.checkArgument(position >= 0, "position must not be negative: %s", position);
+
+        ensureReadable();
+
+        return get(dst, position);
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src)
+            throws IOException
+    {
+        ensureWritable();
+
+        if (append)
+        {
+            position = size;
+        }
+
+        int written = put(src, position);
+
+        position += written;
+
+        return written;
+    }
+
+    /**
+     * @param src      the bytes to write
+     * @param position the position of the first byte written
+     * @return the number of bytes written
+     * @throws IOException if the temp file can not be written
+     */
+    public synchronized int write(ByteBuffer src, long position)
+            throws IOException
+    {
+        Preconditions.checkArgument(position >= 0, "position must not be negative: %s", position);
+
+        ensureWritable();
+
+        return put(src, position);
+    }
+
+    @Override
+    public synchronized long position()
+            throws IOException
+    {
+        ensureOpen();
+
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition)
+            throws IOException
+    {
+        Preconditions.checkArgument(newPosition >= 0, "position must not be negative: %s", newPosition);
+
+        ensureOpen();
+
+        position = newPosition;
+
+        return this;
+    }
+
+    @Override
+    public synchronized long size()
+            throws IOException
+    {
+        ensureOpen();
+
+        return size;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long newSize)
+            throws IOException
+    {
+        Preconditions.checkArgument(newSize >= 0, "size must not be negative: %s", newSize);
+
+        ensureWritable();
+
+        truncateContent(newSize);
+
+        position = Math.min(position, newSize);
+
+        return this;
+    }
+
+    /**
+     * @param metaData true to also write the metadata of the temp file
+     * @throws IOException if the temp file can not be written
+     */
+    public synchronized void force(boolean metaData)
+            throws IOException
+    {
+        ensureOpen();
+
+        if (fileChannel != null)
+        {
+            fileChannel.force(metaData);
+        }
+    }
+
+    @Override
+    public synchronized boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * Close the channel. The content is kept until {@link #release()}.
+     */
+    @Override
+    public synchronized void close()
+    {
+        open = false;
+    }
+
+    /**
+     * @return the size of the content, also once the channel is closed
+     */
+    public synchronized long getContentSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return true if the content is in a temp file
+     */
+    public synchronized boolean isSpilled()
+    {
+        return fileChannel != null;
+    }
+
+    /**
+     * Move the content to a temp file, if it is not there already.
+     *
+     * @return the temp file
+     * @throws IOException if the temp file can not be written
+     */
+    public synchronized Path spill()
+            throws IOException
+    {
+        return spill(size);
+    }
+
+    /**
+     * @param capacity the number of bytes to reserve in the quota of the pool
+     */
+    private Path spill(long capacity)
+            throws IOException
+    {
+        if (fileChannel != null)
+        {
+            return file;
+        }
+
+        reserveSpill(Math.max(capacity, size));
+
+        Path spillFile = null;
+        FileChannel channel = null;
+        try
+        {
+            spillFile = pool.createSpillFile(name);
+            channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            for (int i = 0; i < blocks.size() && (long) i * BLOCK_SIZE < size; i++)
+            {
+                ByteBuffer block = blocks.get(i).duplicate();
+                block.clear();
+                block.limit((int) Math.min(BLOCK_SIZE, size - (long) i * BLOCK_SIZE));
+
+                while (block.hasRemaining())
+                {
+                    channel.write(block, (long) i * BLOCK_SIZE + block.position());
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            if (channel != null)
+            {
+                channel.close();
+            }
+
+            if (spillFile != null)
+            {
+                pool.deleteSpillFile(spillFile);
+            }
+
+            pool.releaseSpill(spillReserved);
+            spillReserved = 0;
+
+            throw e;
+        }
+
+        file = spillFile;
+        fileChannel = channel;
+
+        releaseBlocks(0);
+
+        return file;
+    }
+
+    /**
+     * The file channel over the temp file, for the operations that need one (mapping, locking).
+     *
+     * @return the file channel, after spilling the content
+     * @throws IOException if the temp file can not be written
+     */
+    public synchronized FileChannel getFileChannel()
+            throws IOException
+    {
+        ensureOpen();
+
+        spill();
+
+        return fileChannel;
+    }
+
+    /**
+     * @return the temp file, null if the content is in memory
+     */
+    public synchronized Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return a stream over the whole content, which must not be modified while it is read
+     * @throws IOException if the temp file can not be read
+     */
+    public synchronized InputStream newInputStream()
+            throws IOException
+    {
+        if (file != null)
+        {
+            return Files.newInputStream(file);
+        }
+
+        List<InputStream> streams = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size() && (long) i * BLOCK_SIZE < size; i++)
+        {
+            ByteBuffer block = blocks.get(i);
+
+            streams.add(new ByteArrayInputStream(block.array(),
+                                                 block.arrayOffset(),
+                                                 (int) Math.min(BLOCK_SIZE, size - (long) i * BLOCK_SIZE)));
+        }
+
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * Close the channel, give the memory back to the pool and delete the temp file.
+     *
+     * @throws IOException if the temp file can not be deleted
+     */
+    public synchronized void release()
+            throws IOException
+    {
+        open = false;
+
+        releaseBlocks(0);
+
+        pool.releaseSpill(spillReserved);
+        spillReserved = 0;
+
+        if (fileChannel != null)
+        {
+            fileChannel.close();
+        }
+
+        if (file != null)
+        {
+            pool.deleteSpillFile(file);
+        }
+    }
+
+    private int put(ByteBuffer src, long position)
+            throws IOException
+    {
+        int length = src.remaining();
+        long end = position + length;
+
+        if (fileChannel == null && !reserve(end))
+        {
+            spill(end);
+        }
+
+        if (fileChannel != null)
+        {
+            reserveSpill(end);
+
+            long offset = position;
+            while (src.hasRemaining())
+            {
+                offset += fileChannel.write(src, offset);
+            }
+        }
+        else
+        {
+            long offset = position;
+            while (src.hasRemaining())
+            {
+                ByteBuffer block = blocks.get((int) (offset / BLOCK_SIZE)).duplicate();
+                block.position((int) (offset % BLOCK_SIZE));
+
+                int count = Math.min(src.remaining(), block.remaining());
+
+                ByteBuffer bytes = src.duplicate();
+                bytes.limit(bytes.position() + count);
+
+                block.put(bytes);
+                src.position(src.position() + count);
+
+                offset += count;
+            }
+        }
+
+        size = Math.max(size, end);
+
+        return length;
+    }
+
+    private int get(ByteBuffer dst, long position)
+            throws IOException
+    {
+        if (position >= size)
+        {
+            return -1;
+        }
+
+        if (fileChannel != null)
+        {
+            return fileChannel.read(dst, position);
+        }
+
+        int length = (int) Math.min(dst.remaining(), size - position);
+
+        long offset = position;
+        while (offset < position + length)
+        {
+            ByteBuffer block = blocks.get((int) (offset / BLOCK_SIZE)).duplicate();
+            block.position((int) (offset % BLOCK_SIZE));
+            block.limit((int) Math.min(BLOCK_SIZE, block.position() + position + length - offset));
+
+            offset += block.remaining();
+
+            dst.put(block);
+        }
+
+        return length;
+    }
+
+    /**
+     * @return true if the memory blocks can hold the given number of bytes
+     */
+    private boolean reserve(long end)
+    {
+        if (end > pool.getThreshold())
+        {
+            return false;
+        }
+
+        while ((long) blocks.size() * BLOCK_SIZE < end)
+        {
+            ByteBuffer block = pool.acquire();
+            if (block == null)
+            {
+                return false;
+            }
+
+            blocks.add(block);
+        }
+
+        return true;
+    }
+
+    /**
+     * Grow the bytes of the temp file counted in the quota of the pool up to the given size.
+     */
+    private void reserveSpill(long end)
+            throws IOException
+    {
+        if (end > spillReserved)
+        {
+            pool.reserveSpill(end - spillReserved);
+
+            spillReserved = end;
+        }
+    }
+
+    private void truncateContent(long newSize)
+            throws IOException
+    {
+        if (newSize >= size)
+        {
+            return;
+        }
+
+        if (fileChannel != null)
+        {
+            fileChannel.truncate(newSize);
+        }
+        else
+        {
+            int keptBlocks = (int) ((newSize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+            releaseBlocks(keptBlocks);
+
+            if (newSize % BLOCK_SIZE != 0)
+            {
+                // keep the bytes past the size zeroed
+                ByteBuffer last = blocks.get(keptBlocks - 1);
+                int from = last.arrayOffset() + (int) (newSize % BLOCK_SIZE);
+
+                Arrays.fill(last.array(), from, last.arrayOffset() + BLOCK_SIZE, (byte) 0);
+            }
+        }
+
+        size = newSize;
+    }
+
+    private void releaseBlocks(int from)
+    {
+        while (blocks.size() > from)
+        {
+            pool.release(blocks.remove(blocks.size() - 1));
+        }
+    }
+
+    private void ensureReadable()
+            throws IOException
+    {
+        ensureOpen();
+
+        if (!readable)
+        {
+            throw new NonReadableChannelException();
+        }
+    }
+
+    private void ensureWritable()
+            throws IOException
+    {
+        ensureOpen();
+
+        if (!writable)
+        {
+            throw new NonWritableChannelException();
+        }
+    }
+
+    private void ensureOpen()
+            throws IOException
+    {
+        if (!open)
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
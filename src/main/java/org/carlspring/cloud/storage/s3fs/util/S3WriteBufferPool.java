@@ -0,0 +1,501 @@
+package org.carlspring.cloud.storage.s3fs.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Memory shared by the {@link S3WriteBuffer}s of a file system.
+ * <p>
+ * A buffer keeps its content in blocks of {@link #BLOCK_SIZE} bytes taken from this pool as long as it is
+ * no larger than the threshold and the blocks of all the buffers fit in the budget. Beyond that it spills
+ * to a temp file in the spill directory.
+ * </p>
+ * <p>
+ * The temp files of a pool are kept in a work directory of its own, locked as long as the pool is open:
+ * the work directories left unlocked by a process that died are deleted by {@link #deleteOrphans()}. The
+ * bytes of all the temp files are bounded by a quota: a buffer that needs more waits until others are
+ * released, up to a timeout, then fails.
+ * </p>
+ * <p>
+ * Closing the pool deletes its work directory once the temp files of the buffers still open are released.
+ * </p>
+ */
+public class S3WriteBufferPool
+{
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * released blocks kept for reuse, outside of the budget.
+     */
+    private static final int MAX_POOLED_BLOCKS = 64;
+
+    private static final String WORK_DIRECTORY_PREFIX = "s3fs-nio-";
+
+    private static final String LOCK_FILE = ".lock";
+
+    /**
+     * written to the lock file once it is locked.
+     */
+    private static final byte[] LOCKED_MARKER = { 1 };
+
+    /**
+     * the milliseconds after which a work directory without a locked lock file is an orphan: the process
+     * creating it died before locking it.
+     */
+    private static final long LOCK_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * the work directories locked or being locked by this JVM: on some systems, opening and closing their
+     * lock file again would release the lock. Guards the creation of the work directories against
+     * {@link #deleteOrphans()}.
+     */
+    private static final Set<Path> lockedDirectories = ConcurrentHashMap.newKeySet();
+
+    private final Path spillDirectory;
+
+    private final long threshold;
+
+    private final long budget;
+
+    private final long spillQuota;
+
+    private final long spillTimeout;
+
+    /**
+     * guarded by this.
+     */
+    private long spilledBytes;
+
+    private Path workDirectory;
+
+    private FileChannel lockChannel;
+
+    /**
+     * the temp files of the buffers not released yet, guarded by this.
+     */
+    private final Set<Path> spillFiles = new HashSet<>();
+
+    /**
+     * guarded by this.
+     */
+    private boolean closed;
+
+    private final AtomicLong reserved = new AtomicLong();
+
+    private final ByteBufferPool blocks = new ByteBufferPool(BLOCK_SIZE, MAX_POOLED_BLOCKS, false);
+
+
+    /**
+     * @param spillDirectory the directory of the temp files, null for the default temp directory
+     * @param threshold      the largest content kept in memory by a buffer
+     * @param budget         the maximum number of bytes held in memory by all the buffers
+     */
+    public S3WriteBufferPool(Path spillDirectory, long threshold, long budget)
+    {
+        this(spillDirectory, threshold, budget, 0, 0);
+    }
+
+    /**
+     * @param spillDirectory the directory of the temp files, null for the default temp directory
+     * @param threshold      the largest content kept in memory by a buffer
+     * @param budget         the maximum number of bytes held in memory by all the buffers
+     * @param spillQuota     the maximum number of bytes of all the temp files, 0 for no limit
+     * @param spillTimeout   the milliseconds a buffer waits for the quota before failing, 0 to fail at once
+     */
+    public S3WriteBufferPool(Path spillDirectory, long threshold, long budget, long spillQuota, long spillTimeout)
+    {
+        this.spillDirectory = spillDirectory;
+        this.threshold = threshold;
+        this.budget = budget;
+        this.spillQuota = spillQuota > 0 ? spillQuota : Long.MAX_VALUE;
+        this.spillTimeout = spillTimeout;
+    }
+
+    /**
+     * @param name           the suffix of the name of the temp file, if any
+     * @param options        the options the channel is opened with: READ, WRITE, APPEND and TRUNCATE_EXISTING
+     *                       are honored
+     * @param initialContent the content to start with, null if none
+     * @param length         the length of the initial content, -1 if unknown: a content larger than the
+     *                       threshold goes straight to a temp file, whose quota is reserved at once
+     * @return a new buffer
+     * @throws IOException if the initial content can not be read, or the quota is exhausted
+     */
+    public S3WriteBuffer newBuffer(String name,
+                                   Set<? extends OpenOption> options,
+                                   InputStream initialContent,
+                                   long length)
+            throws IOException
+    {
+        S3WriteBuffer buffer = new S3WriteBuffer(this, name, options);
+
+        try
+        {
+            buffer.load(initialContent, length);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            buffer.release();
+
+            throw e;
+        }
+
+        return buffer;
+    }
+
+    public Path getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+    public long getThreshold()
+    {
+        return threshold;
+    }
+
+    public long getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * @return the maximum number of bytes of the temp files, {@link Long#MAX_VALUE} if unlimited
+     */
+    public long getSpillQuota()
+    {
+        return spillQuota;
+    }
+
+    /**
+     * @return the number of bytes of the temp files reserved by the buffers
+     */
+    public synchronized long getSpilledBytes()
+    {
+        return spilledBytes;
+    }
+
+    /**
+     * @return the directory of the temp files of this pool, null until the first one is created
+     */
+    public synchronized Path getWorkDirectory()
+    {
+        return workDirectory;
+    }
+
+    /**
+     * @return the number of bytes held in memory by the buffers
+     */
+    public long getReservedBytes()
+    {
+        return reserved.get();
+    }
+
+    /**
+     * @return a zeroed block, or null if the budget is exhausted
+     */
+    ByteBuffer acquire()
+    {
+        if (reserved.addAndGet(BLOCK_SIZE) > budget)
+        {
+            reserved.addAndGet(-BLOCK_SIZE);
+
+            return null;
+        }
+
+        ByteBuffer block = blocks.acquire();
+
+        // a reused block still holds the bytes of its previous buffer
+        Arrays.fill(block.array(), (byte) 0);
+
+        return block;
+    }
+
+    void release(ByteBuffer block)
+    {
+        reserved.addAndGet(-BLOCK_SIZE);
+
+        blocks.release(block);
+    }
+
+    /**
+     * Reserve room for temp files, waiting for other buffers to release theirs up to the timeout.
+     *
+     * @throws IOException if the quota is still exhausted after the timeout
+     */
+    synchronized void reserveSpill(long bytes)
+            throws IOException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(spillTimeout);
+
+        while (bytes > spillQuota - spilledBytes)
+        {
+            long remaining = deadline - System.nanoTime();
+            if (bytes > spillQuota || remaining <= 0)
+            {
+                throw new IOException("The temp files quota of " + spillQuota + " bytes is exhausted: " +
+                                      spilledBytes + " bytes are used, " + bytes + " more are needed");
+            }
+
+            try
+            {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for the temp files quota");
+            }
+        }
+
+        spilledBytes += bytes;
+    }
+
+    synchronized void releaseSpill(long bytes)
+    {
+        spilledBytes -= bytes;
+
+        notifyAll();
+    }
+
+    synchronized Path createSpillFile(String name)
+            throws IOException
+    {
+        if (workDirectory == null)
+        {
+            Path directory = getBaseDirectory();
+            Files.createDirectories(directory);
+
+            // deleteOrphans() looks at the work directories under the same guard
+            synchronized (lockedDirectories)
+            {
+                Path work = Files.createTempDirectory(directory, WORK_DIRECTORY_PREFIX);
+
+                lockedDirectories.add(work);
+                try
+                {
+                    lockChannel = lock(work);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    lockedDirectories.remove(work);
+                    deleteRecursively(work);
+
+                    throw e;
+                }
+
+                workDirectory = work;
+            }
+        }
+
+        Path file = Files.createTempFile(workDirectory, "temp-s3-", name);
+        spillFiles.add(file);
+
+        return file;
+    }
+
+    /**
+     * Delete a temp file created by {@link #createSpillFile(String)}, and the work directory with it if
+     * the pool is closed and it was the last one.
+     */
+    synchronized void deleteSpillFile(Path file)
+            throws IOException
+    {
+        spillFiles.remove(file);
+
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        finally
+        {
+            if (closed)
+            {
+                deleteWorkDirectory();
+            }
+        }
+    }
+
+    /**
+     * Create the lock file of a work directory and lock it. The lock file is marked once locked: another
+     * process finding it empty is looking at a directory being created, not at an orphan.
+     */
+    private static FileChannel lock(Path work)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(work.resolve(LOCK_FILE),
+                                               StandardOpenOption.CREATE_NEW,
+                                               StandardOpenOption.WRITE);
+        try
+        {
+            channel.lock();
+            channel.write(ByteBuffer.wrap(LOCKED_MARKER));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Delete the work directories of the pools of the processes that died before closing them. Best
+     * effort: the directories that can not be read or deleted are left.
+     */
+    public void deleteOrphans()
+    {
+        Path directory = getBaseDirectory();
+        if (!Files.isDirectory(directory))
+        {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, WORK_DIRECTORY_PREFIX + "*"))
+        {
+            for (Path work : stream)
+            {
+                if (isOrphan(work))
+                {
+                    deleteRecursively(work);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // the next file system will try again
+        }
+    }
+
+    /**
+     * Delete the work directory and unlock it, at once if no buffer holds a temp file, or else when the
+     * last one is released: the buffers still open keep working until then.
+     */
+    public synchronized void close()
+    {
+        closed = true;
+
+        deleteWorkDirectory();
+    }
+
+    private void deleteWorkDirectory()
+    {
+        if (workDirectory == null || !spillFiles.isEmpty())
+        {
+            return;
+        }
+
+        deleteRecursively(workDirectory);
+
+        try
+        {
+            lockChannel.close();
+        }
+        catch (IOException e)
+        {
+            // the lock is released with the process anyway
+        }
+
+        lockedDirectories.remove(workDirectory);
+
+        lockChannel = null;
+        workDirectory = null;
+    }
+
+    private Path getBaseDirectory()
+    {
+        return spillDirectory != null ? spillDirectory : Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    private static boolean isOrphan(Path work)
+    {
+        Path lockFile = work.resolve(LOCK_FILE);
+
+        synchronized (lockedDirectories)
+        {
+            if (lockedDirectories.contains(work))
+            {
+                return false;
+            }
+
+            // without a lock file, the directory is being created, unless its creator died
+            if (!Files.isRegularFile(lockFile))
+            {
+                return isStale(work);
+            }
+
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE))
+            {
+                // an empty lock file is not locked yet, unless its creator died
+                return (channel.size() > 0 || isStale(lockFile)) && channel.tryLock() != null;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                return false;
+            }
+        }
+    }
+
+    private static boolean isStale(Path path)
+    {
+        try
+        {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+
+            return System.currentTimeMillis() - modified > LOCK_GRACE_PERIOD;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    private static void deleteRecursively(Path directory)
+    {
+        List<Path> paths;
+        try (Stream<Path> files = Files.walk(directory))
+        {
+            paths = files.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        catch (IOException e)
+        {
+            return;
+        }
+
+        for (Path path : paths)
+        {
+            try
+            {
+                Files.deleteIfExists(path);
+            }
+            catch (IOException e)
+            {
+                // left for the next cleanup
+            }
+        }
+    }
+
+}
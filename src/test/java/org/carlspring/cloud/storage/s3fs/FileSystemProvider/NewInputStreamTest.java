@@ -2,6 +2,7 @@ package org.carlspring.cloud.storage.s3fs.FileSystemProvider;
 
 import org.carlspring.cloud.storage.s3fs.S3FileSystem;
 import org.carlspring.cloud.storage.s3fs.S3FileSystemProvider;
+import org.carlspring.cloud.storage.s3fs.S3ParallelInputStream;
 import org.carlspring.cloud.storage.s3fs.S3UnitTestBase;
 import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
 import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
@@ -11,18 +12,30 @@ import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileSystem;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.google.common.collect.ImmutableMap;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
 import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.PARALLEL_DOWNLOAD;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.PARALLEL_DOWNLOAD_CHUNK_SIZE;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.PARALLEL_DOWNLOAD_CONCURRENCY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.PARALLEL_DOWNLOAD_MAX_IN_FLIGHT;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
 
 public class NewInputStreamTest
         extends S3UnitTestBase
@@ -118,6 +131,102 @@ public class NewInputStreamTest
         assertNotNull(exception);
     }
 
+    @Test
+    public void parallelInputStreamFile()
+            throws IOException
+    {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1", "content split in several ranges".getBytes());
+
+        Map<String, Object> env = new HashMap<>(buildFakeEnv());
+        env.put(PARALLEL_DOWNLOAD, "true");
+        env.put(PARALLEL_DOWNLOAD_CHUNK_SIZE, "4");
+        env.put(PARALLEL_DOWNLOAD_MAX_IN_FLIGHT, "8");
+
+        Path file = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), env).getPath("/bucketA/file1");
+
+        try (InputStream inputStream = s3fsProvider.newInputStream(file))
+        {
+            assertTrue(inputStream instanceof S3ParallelInputStream);
+
+            byte[] buffer = IOUtils.toByteArray(inputStream);
+
+            // check
+            assertArrayEquals("content split in several ranges".getBytes(), buffer);
+        }
+    }
+
+    @Test
+    public void parallelInputStreamSendsNoHead()
+            throws IOException
+    {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA")
+              .file("file1", "content split in several ranges".getBytes())
+              .file("file2", "s".getBytes());
+
+        Map<String, Object> env = new HashMap<>(buildFakeEnv());
+        env.put(PARALLEL_DOWNLOAD, "true");
+        env.put(PARALLEL_DOWNLOAD_CHUNK_SIZE, "4");
+
+        FileSystem fileSystem = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), env);
+
+        reset(client);
+
+        try (InputStream inputStream = s3fsProvider.newInputStream(fileSystem.getPath("/bucketA/file1")))
+        {
+            assertArrayEquals("content split in several ranges".getBytes(), IOUtils.toByteArray(inputStream));
+        }
+
+        // the size of a small object is known from the first range, which holds all of it
+        try (InputStream inputStream = s3fsProvider.newInputStream(fileSystem.getPath("/bucketA/file2")))
+        {
+            assertFalse(inputStream instanceof S3ParallelInputStream);
+            assertArrayEquals("s".getBytes(), IOUtils.toByteArray(inputStream));
+        }
+
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        verify(client, times(1)).getObject(argThat((GetObjectRequest request) -> "file2".equals(request.getKey())));
+    }
+
+    @Test
+    public void parallelInputStreamFailsWhenTheFileSystemIsClosed()
+            throws IOException
+    {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1", "content split in several ranges".getBytes());
+
+        Map<String, Object> env = new HashMap<>(buildFakeEnv());
+        env.put(PARALLEL_DOWNLOAD, "true");
+        env.put(PARALLEL_DOWNLOAD_CHUNK_SIZE, "4");
+        env.put(PARALLEL_DOWNLOAD_CONCURRENCY, "1");
+
+        S3FileSystem fileSystem = (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), env);
+
+        // the only download thread is busy: the chunks stay queued
+        CountDownLatch busy = new CountDownLatch(1);
+        fileSystem.getDownloadExecutor().execute(() -> {
+            try
+            {
+                busy.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        InputStream inputStream = s3fsProvider.newInputStream(fileSystem.getPath("/bucketA/file1"));
+
+        fileSystem.close();
+
+        assertThrows(IOException.class, inputStream::read);
+        assertThrows(ClosedFileSystemException.class, fileSystem::getDownloadExecutor);
+    }
+
     private Map<String, ?> buildFakeEnv()
     {
         return ImmutableMap.<String, Object>builder().put(ACCESS_KEY, "accesskey").put(SECRET_KEY, "secretkey").build();
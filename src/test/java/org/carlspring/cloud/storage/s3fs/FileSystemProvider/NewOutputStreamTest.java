@@ -1,7 +1,10 @@
 package org.carlspring.cloud.storage.s3fs.FileSystemProvider;
 
+import org.carlspring.cloud.storage.s3fs.S3ExpectedSize;
 import org.carlspring.cloud.storage.s3fs.S3FileSystem;
 import org.carlspring.cloud.storage.s3fs.S3FileSystemProvider;
+import org.carlspring.cloud.storage.s3fs.S3OutputStream;
+import org.carlspring.cloud.storage.s3fs.S3PartialUpload;
 import org.carlspring.cloud.storage.s3fs.S3UnitTestBase;
 import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
 import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
@@ -11,14 +14,21 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.*;
+import java.util.Random;
 
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.google.common.collect.ImmutableMap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
 import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class NewOutputStreamTest
         extends S3UnitTestBase
@@ -171,6 +181,99 @@ public class NewOutputStreamTest
         assertArrayEquals(content.getBytes(), buffer);
     }
 
+    @Test
+    public void outputStreamUploadsInParts()
+            throws IOException
+    {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir");
+
+        reset(client);
+
+        S3FileSystem s3FileSystem =
+                (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                          ImmutableMap.<String, Object>builder()
+                                                                      .put(ACCESS_KEY, "access_key")
+                                                                      .put(SECRET_KEY, "secret_key")
+                                                                      .put(MULTIPART_UPLOAD_PART_SIZE, "4")
+                                                                      .build());
+
+        // S3 rejects smaller parts
+        assertEquals(S3PartialUpload.MIN_PART_SIZE, s3FileSystem.getMultipartUploadPartSize());
+
+        Path file = s3FileSystem.getPath("/bucketA/dir/file1");
+
+        byte[] content = new byte[(int) S3PartialUpload.MIN_PART_SIZE + 14];
+        new Random(0).nextBytes(content);
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file))
+        {
+            assertTrue(stream instanceof S3OutputStream);
+
+            stream.write(content);
+        }
+
+        // get the input
+        byte[] buffer = Files.readAllBytes(file);
+
+        // check
+        assertArrayEquals(content, buffer);
+        verify(client, times(2)).uploadPart(any(UploadPartRequest.class));
+    }
+
+    @Test
+    public void outputStreamWithExpectedSize()
+            throws IOException
+    {
+        Path file = getS3Directory().resolve("file1");
+
+        final String content = "sample content";
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file, S3ExpectedSize.of(content.length())))
+        {
+            assertTrue(stream instanceof S3OutputStream);
+
+            stream.write(content.getBytes());
+        }
+
+        assertArrayEquals(content.getBytes(), Files.readAllBytes(file));
+    }
+
+    @Test
+    public void outputStreamWithAppend()
+            throws IOException
+    {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1", "Content line 1\n".getBytes());
+
+        Path file = createNewS3FileSystem().getPath("/bucketA/file1");
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file, StandardOpenOption.APPEND))
+        {
+            assertTrue(stream instanceof S3OutputStream);
+
+            stream.write("Content line 2".getBytes());
+        }
+
+        assertArrayEquals("Content line 1\nContent line 2".getBytes(), Files.readAllBytes(file));
+    }
+
+    @Test
+    public void outputStreamWithAppendAndFileNotExists()
+            throws IOException
+    {
+        Path file = getS3Directory().resolve("file1");
+
+        assertThrows(NoSuchFileException.class, () -> s3fsProvider.newOutputStream(file, StandardOpenOption.APPEND));
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file, StandardOpenOption.APPEND, StandardOpenOption.CREATE))
+        {
+            stream.write("sample content".getBytes());
+        }
+
+        assertArrayEquals("sample content".getBytes(), Files.readAllBytes(file));
+    }
+
     private Path getS3Directory()
             throws IOException
     {
@@ -23,6 +23,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.carlspring.cloud.storage.s3fs.util.FileAttributeBuilder.build;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
 
 public class ReadAttributesTest
         extends S3UnitTestBase
@@ -182,21 +184,31 @@ public class ReadAttributesTest
     }
 
     @Test
-    public void readAttributesRegenerateCacheWhenNotExists()
+    public void readAttributesAreCachedByTheFileSystem()
             throws IOException
     {
         // fixtures
         AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
         client.bucket("bucketA").dir("dir").file("dir/file1", "".getBytes());
 
-        S3Path file1 = createNewS3FileSystem().getPath("/bucketA/dir/file1");
+        S3FileSystem fileSystem = createNewS3FileSystem();
+        S3Path file1 = fileSystem.getPath("/bucketA/dir/file1");
+
+        reset(client);
 
         // create the cache
-        s3fsProvider.readAttributes(file1, BasicFileAttributes.class);
+        BasicFileAttributes attributes = s3fsProvider.readAttributes(file1, BasicFileAttributes.class);
 
         assertNotNull(file1.getFileAttributes());
 
-        s3fsProvider.readAttributes(file1, BasicFileAttributes.class);
+        // another instance of the same path
+        assertSame(attributes, s3fsProvider.readAttributes(fileSystem.getPath("/bucketA", "dir", "file1"),
+                                                           BasicFileAttributes.class));
+        assertSame(attributes, s3fsProvider.readAttributes(file1, BasicFileAttributes.class));
+
+        verify(client, times(1)).getObjectMetadata(anyString(), anyString());
+
+        file1.setFileAttributes(null);
 
         assertNull(file1.getFileAttributes());
 
@@ -206,27 +218,30 @@ public class ReadAttributesTest
     }
 
     @Test
-    public void readAttributesPosixRegenerateCacheWhenNotExists()
+    public void readAttributesPosixAreCachedByTheFileSystem()
             throws IOException
     {
         // fixtures
         AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
         client.bucket("bucketA").dir("dir").file("dir/file1", "".getBytes());
 
-        S3Path file1 = createNewS3FileSystem().getPath("/bucketA/dir/file1");
+        S3FileSystem fileSystem = createNewS3FileSystem();
+        S3Path file1 = fileSystem.getPath("/bucketA/dir/file1");
+
+        reset(client);
 
         // create the cache
-        s3fsProvider.readAttributes(file1, PosixFileAttributes.class);
+        PosixFileAttributes attributes = s3fsProvider.readAttributes(file1, PosixFileAttributes.class);
 
         assertNotNull(file1.getFileAttributes());
 
-        s3fsProvider.readAttributes(file1, PosixFileAttributes.class);
-
-        assertNull(file1.getFileAttributes());
+        // the posix attributes serve the basic ones too
+        assertSame(attributes, s3fsProvider.readAttributes(file1, BasicFileAttributes.class));
+        assertSame(attributes, s3fsProvider.readAttributes(fileSystem.getPath("/bucketA/dir/file1"),
+                                                           PosixFileAttributes.class));
 
-        s3fsProvider.readAttributes(file1, PosixFileAttributes.class);
-
-        assertNotNull(file1.getFileAttributes());
+        verify(client, times(1)).getObjectMetadata(anyString(), anyString());
+        verify(client, times(1)).getObjectAcl(anyString(), anyString());
     }
 
     @Test
@@ -0,0 +1,179 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.attribute.S3BasicFileAttributes;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3AttributeCache;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.ATTRIBUTE_CACHE_MISSING_TTL;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.ATTRIBUTE_CACHE_TTL;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class S3AttributeCacheTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        client.bucket("bucketA").dir("dir").file("dir/file1", "content".getBytes());
+    }
+
+    @Test
+    public void attributesAreSharedByThePaths()
+            throws IOException
+    {
+        S3FileSystem s3FileSystem = (S3FileSystem) FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST,
+                                                                             null);
+        fileSystem = s3FileSystem;
+
+        reset(client);
+
+        assertTrue(Files.exists(s3FileSystem.getPath("/bucketA/dir/file1")));
+        assertEquals(7, Files.size(s3FileSystem.getPath("/bucketA", "dir", "file1")));
+        assertFalse(Files.isDirectory(s3FileSystem.getPath("/bucketA/dir").resolve("file1")));
+
+        verify(client, times(1)).getObjectMetadata(anyString(), anyString());
+
+        S3AttributeCache attributeCache = s3FileSystem.getAttributeCache();
+
+        assertEquals(1, attributeCache.getMissCount());
+        assertEquals(2, attributeCache.getHitCount());
+        assertEquals(1, attributeCache.size());
+    }
+
+    @Test
+    public void writesAndDeletesInvalidateTheAttributes()
+            throws IOException
+    {
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        Path file1 = fileSystem.getPath("/bucketA/dir/file1");
+
+        assertEquals(7, Files.size(file1));
+
+        Files.write(fileSystem.getPath("/bucketA/dir/file1"), "new content".getBytes());
+
+        assertEquals(11, Files.size(file1));
+
+        Files.delete(fileSystem.getPath("/bucketA/dir/file1"));
+
+        assertFalse(Files.exists(file1));
+    }
+
+    @Test
+    public void disabledCache()
+            throws IOException
+    {
+        fileSystem = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                ImmutableMap.<String, Object>builder()
+                                                            .put(ACCESS_KEY, "access_key")
+                                                            .put(SECRET_KEY, "secret_key")
+                                                            .put(ATTRIBUTE_CACHE_TTL, "0")
+                                                            .build());
+
+        Path file1 = fileSystem.getPath("/bucketA/dir/file1");
+
+        reset(client);
+
+        Files.size(file1);
+        Files.size(file1);
+
+        verify(client, times(2)).getObjectMetadata(anyString(), anyString());
+        assertEquals(0, ((S3FileSystem) fileSystem).getAttributeCache().size());
+    }
+
+    @Test
+    public void missingKeysAreRememberedUntilWritten()
+            throws IOException
+    {
+        fileSystem = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                ImmutableMap.<String, Object>builder()
+                                                            .put(ACCESS_KEY, "access_key")
+                                                            .put(SECRET_KEY, "secret_key")
+                                                            .put(ATTRIBUTE_CACHE_MISSING_TTL, "60000")
+                                                            .build());
+
+        Path sub = fileSystem.getPath("/bucketA/dir/sub");
+        Path file2 = fileSystem.getPath("/bucketA/dir/sub/file2");
+
+        reset(client);
+
+        assertFalse(Files.exists(sub));
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir/sub/")));
+        assertThrows(NoSuchFileException.class, () -> Files.size(sub));
+
+        verify(client, times(1)).getObjectMetadata(anyString(), anyString());
+        verify(client, times(1)).listObjects(any(ListObjectsRequest.class));
+        assertEquals(2, ((S3FileSystem) fileSystem).getAttributeCache().getMissingHitCount());
+
+        assertFalse(Files.exists(file2));
+
+        // a write forgets the object and its ancestors are missing
+        Files.write(file2, "content".getBytes());
+
+        assertTrue(Files.exists(file2));
+        assertTrue(Files.isDirectory(sub));
+    }
+
+    @Test
+    public void entriesExpireAndAreEvicted()
+            throws Exception
+    {
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/bucketA/dir/file1");
+        S3Path file2 = (S3Path) fileSystem.getPath("/bucketA/dir/file2");
+
+        S3BasicFileAttributes attributes = new S3BasicFileAttributes("dir/file1",
+                                                                     FileTime.fromMillis(0),
+                                                                     7,
+                                                                     false,
+                                                                     true);
+
+        S3AttributeCache expiring = new S3AttributeCache(50, 10);
+        expiring.put(file1, attributes);
+
+        assertSame(attributes, expiring.get(file1, S3BasicFileAttributes.class));
+
+        Thread.sleep(100);
+
+        assertNull(expiring.get(file1, S3BasicFileAttributes.class));
+
+        S3AttributeCache bounded = new S3AttributeCache(-1, 1);
+        bounded.put(file1, attributes);
+        bounded.put(file2, attributes);
+
+        assertEquals(1, bounded.size());
+        assertSame(attributes, bounded.get(file2, S3BasicFileAttributes.class));
+
+        // the parent of a modified object is invalidated with it
+        bounded.put((S3Path) file1.getParent(), attributes);
+        bounded.invalidate(file2);
+
+        assertEquals(0, bounded.size());
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3BlockCache;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3BlockCacheTest
+{
+
+    @Test
+    public void readMiss()
+    {
+        S3BlockCache cache = new S3BlockCache(4, 16);
+
+        assertEquals(-1, cache.read(key(0), 0, ByteBuffer.allocate(4)));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void readFromOffset()
+    {
+        S3BlockCache cache = new S3BlockCache(4, 16);
+        cache.put(key(0), ByteBuffer.wrap("abcd".getBytes()));
+
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+
+        assertEquals(3, cache.read(key(0), 1, buffer));
+        assertEquals("bcd", new String(buffer.array(), 0, buffer.position()));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void readLastBlockPastItsEnd()
+    {
+        S3BlockCache cache = new S3BlockCache(4, 16);
+        cache.put(key(0), ByteBuffer.wrap("ab".getBytes()));
+
+        assertEquals(-1, cache.read(key(0), 2, ByteBuffer.allocate(4)));
+    }
+
+    @Test
+    public void putDoesNotModifySource()
+    {
+        S3BlockCache cache = new S3BlockCache(4, 16);
+
+        ByteBuffer data = ByteBuffer.wrap("abcd".getBytes());
+        cache.put(key(0), data);
+
+        assertEquals(0, data.position());
+        assertEquals(4, cache.getUsedBytes());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed()
+    {
+        S3BlockCache cache = new S3BlockCache(4, 8);
+        cache.put(key(0), ByteBuffer.wrap("0000".getBytes()));
+        cache.put(key(1), ByteBuffer.wrap("1111".getBytes()));
+
+        // block 0 becomes the most recently used
+        cache.read(key(0), 0, ByteBuffer.allocate(4));
+
+        cache.put(key(2), ByteBuffer.wrap("2222".getBytes()));
+
+        assertTrue(cache.contains(key(0)));
+        assertFalse(cache.contains(key(1)));
+        assertTrue(cache.contains(key(2)));
+        assertEquals(8, cache.getUsedBytes());
+    }
+
+    @Test
+    public void versionsAreDistinct()
+    {
+        S3BlockCache cache = new S3BlockCache(4, 16);
+        cache.put(key(0), ByteBuffer.wrap("abcd".getBytes()));
+
+        assertFalse(cache.contains(new S3BlockCache.Key("buck", "file1", "etag2", 0)));
+    }
+
+    @Test
+    public void clear()
+    {
+        S3BlockCache cache = new S3BlockCache(4, 16);
+        cache.put(key(0), ByteBuffer.wrap("abcd".getBytes()));
+
+        cache.clear();
+
+        assertFalse(cache.contains(key(0)));
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    private S3BlockCache.Key key(long index)
+    {
+        return new S3BlockCache.Key("buck", "file1", "etag1", index);
+    }
+
+}
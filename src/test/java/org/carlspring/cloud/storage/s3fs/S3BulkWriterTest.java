@@ -0,0 +1,185 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3BulkWriterTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        client.bucket("bucketA").dir("dir");
+
+        reset(client);
+    }
+
+    @Test
+    public void writeAll()
+            throws IOException
+    {
+        S3FileSystem s3FileSystem = (S3FileSystem) fileSystem;
+
+        Map<Path, ByteBuffer> contents = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++)
+        {
+            contents.put(s3FileSystem.getPath("/bucketA/dir/file" + i + ".txt"),
+                         ByteBuffer.wrap(("content" + i).getBytes()));
+        }
+
+        Map<Path, Throwable> failures = s3FileSystem.writeAll(contents);
+
+        assertTrue(failures.isEmpty());
+
+        // neither existence checks nor downloads
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        verify(client, never()).getObjectAcl(anyString(), anyString());
+        verify(client, times(10)).putObject(eq("bucketA"),
+                                            anyString(),
+                                            any(InputStream.class),
+                                            any(ObjectMetadata.class));
+
+        for (Map.Entry<Path, ByteBuffer> content : contents.entrySet())
+        {
+            assertFalse(content.getValue().hasRemaining());
+            assertEquals("content" + content.getKey().getFileName().toString().charAt(4),
+                         new String(Files.readAllBytes(content.getKey())));
+        }
+    }
+
+    @Test
+    public void failuresAreReportedPerFile()
+            throws IOException
+    {
+        S3FileSystem s3FileSystem = (S3FileSystem) fileSystem;
+
+        doThrow(new AmazonS3Exception("Internal error")).when(client)
+                                                        .putObject(eq("bucketA"),
+                                                                   eq("dir/file2"),
+                                                                   any(InputStream.class),
+                                                                   any(ObjectMetadata.class));
+
+        Path file1 = s3FileSystem.getPath("/bucketA/dir/file1");
+        Path file2 = s3FileSystem.getPath("/bucketA/dir/file2");
+
+        Map<Path, ByteBuffer> contents = new LinkedHashMap<>();
+        contents.put(file1, ByteBuffer.wrap("content1".getBytes()));
+        contents.put(file2, ByteBuffer.wrap("content2".getBytes()));
+
+        Map<Path, Throwable> failures = s3FileSystem.writeAll(contents);
+
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(file2) instanceof IOException);
+        assertTrue(Files.exists(file1));
+
+        S3BulkWriter writer = s3FileSystem.newBulkWriter();
+
+        CompletableFuture<Void> write = writer.write(file2, ByteBuffer.wrap("content2".getBytes()));
+
+        assertThrows(CompletionException.class, write::join);
+        assertThrows(IOException.class, writer::flush);
+
+        // reported once
+        writer.flush();
+    }
+
+    @Test
+    public void closeWaitsForTheWrites()
+            throws IOException
+    {
+        S3FileSystem s3FileSystem = (S3FileSystem) fileSystem;
+
+        Path file1 = s3FileSystem.getPath("/bucketA/dir/file1");
+
+        S3BulkWriter writer = s3FileSystem.newBulkWriter();
+
+        CompletableFuture<Void> write = writer.write(file1, ByteBuffer.wrap("content1".getBytes()));
+
+        s3FileSystem.close();
+
+        assertTrue(write.isDone());
+        assertFalse(write.isCompletedExceptionally());
+        assertEquals(0, writer.getPendingCount());
+        assertThrows(ClosedFileSystemException.class, s3FileSystem::newBulkWriter);
+    }
+
+    @Test
+    public void droppedWritesFail()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            try
+            {
+                blocked.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        S3BulkWriter writer = new S3BulkWriter((S3FileSystem) fileSystem, executor, 1);
+
+        CompletableFuture<Void> write = writer.write(fileSystem.getPath("/bucketA/dir/file1"),
+                                                     ByteBuffer.wrap("content1".getBytes()));
+
+        S3PendingTasks.abort(executor.shutdownNow());
+
+        assertThrows(CompletionException.class, write::join);
+        assertEquals(0, writer.getPendingCount());
+        assertThrows(IOException.class, writer::flush);
+
+        // the slot is released
+        assertThrows(IOException.class,
+                     () -> writer.write(fileSystem.getPath("/bucketA/dir/file2"), ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    public void directoriesAreRejected()
+    {
+        S3BulkWriter writer = ((S3FileSystem) fileSystem).newBulkWriter();
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> writer.write(fileSystem.getPath("/bucketA/dir/"), ByteBuffer.allocate(0)));
+        assertThrows(IllegalArgumentException.class,
+                     () -> writer.write(fileSystem.getPath("/bucketA"), ByteBuffer.allocate(0)));
+    }
+
+}
@@ -0,0 +1,228 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.ASYNC_COMMIT;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+
+public class S3CommitManagerTest
+        extends S3UnitTestBase
+{
+
+    @Test
+    public void commitAndNotify()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            S3CommitManager manager = new S3CommitManager(executor, 4);
+
+            List<Throwable> outcomes = new ArrayList<>();
+            manager.addListener((path, failure) -> outcomes.add(failure));
+
+            Path file1 = Paths.get("file1");
+
+            manager.submit(file1, () -> {}).get();
+
+            IOException failure = new IOException("Connection reset");
+            CompletableFuture<Void> failed = manager.submit(file1, () -> {
+                throw failure;
+            });
+
+            CompletionException e = assertThrows(CompletionException.class, failed::join);
+            assertSame(failure, e.getCause());
+
+            assertEquals(1, manager.getCommittedCount());
+            assertEquals(1, manager.getFailedCount());
+            assertEquals(0, manager.getPendingCount());
+            assertEquals(2, outcomes.size());
+            assertNull(outcomes.get(0));
+            assertSame(failure, outcomes.get(1));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void flushWaitsForPendingCommits()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            S3CommitManager manager = new S3CommitManager(executor, 4);
+
+            CountDownLatch started = new CountDownLatch(1);
+            CompletableFuture<Void> commit = manager.submit(Paths.get("file1"), () -> {
+                started.countDown();
+
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException(e);
+                }
+            });
+
+            started.await();
+            manager.flush();
+
+            assertTrue(commit.isDone());
+            assertEquals(0, manager.getPendingCount());
+
+            manager.submit(Paths.get("file2"), () -> {
+                throw new IOException("Connection reset");
+            });
+
+            assertThrows(IOException.class, manager::flush);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void channelCommitsInBackground()
+            throws IOException
+    {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir");
+
+        S3FileSystem asyncFileSystem = createAsyncFileSystem();
+        fileSystem = asyncFileSystem;
+
+        Path file = asyncFileSystem.getPath("/bucketA/dir/file1");
+
+        S3SeekableByteChannel channel =
+                (S3SeekableByteChannel) s3fsProvider.newByteChannel(file, EnumSet.of(StandardOpenOption.WRITE,
+                                                                                     StandardOpenOption.CREATE));
+        assertNull(channel.getCommit());
+
+        channel.write(ByteBuffer.wrap("content".getBytes()));
+        channel.close();
+
+        channel.getCommit().join();
+
+        assertArrayEquals("content".getBytes(), Files.readAllBytes(file));
+        assertEquals(1, asyncFileSystem.getCommitManager().getCommittedCount());
+    }
+
+    @Test
+    public void closeFileSystemFlushesCommits()
+            throws IOException
+    {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir");
+
+        S3FileSystem asyncFileSystem = createAsyncFileSystem();
+
+        S3Path file = asyncFileSystem.getPath("/bucketA/dir/file1");
+
+        S3OutputStream stream;
+        try (OutputStream output = s3fsProvider.newOutputStream(file))
+        {
+            stream = (S3OutputStream) output;
+
+            output.write("content".getBytes());
+        }
+
+        S3CommitManager manager = asyncFileSystem.getCommitManager();
+
+        asyncFileSystem.close();
+
+        assertEquals(0, manager.getPendingCount());
+        assertTrue(stream.getCommit().isDone());
+        assertArrayEquals("content".getBytes(),
+                          IOUtils.toByteArray(client.getObject("bucketA", "dir/file1").getObjectContent()));
+    }
+
+    @Test
+    public void failedUploadIsNotReportedAsCommitted()
+            throws IOException
+    {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir");
+
+        fileSystem = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                ImmutableMap.<String, Object>builder()
+                                                            .put(ACCESS_KEY, "access_key")
+                                                            .put(SECRET_KEY, "secret_key")
+                                                            .build());
+
+        Path file = fileSystem.getPath("/bucketA/dir/failed");
+        Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+        AmazonServiceException failure = new AmazonServiceException("Service unavailable");
+        doThrow(failure).when(client)
+                        .putObject(eq("bucketA"), eq("dir/failed"), any(InputStream.class), any(ObjectMetadata.class));
+
+        S3SeekableByteChannel channel = (S3SeekableByteChannel) s3fsProvider.newByteChannel(file, options);
+        channel.write(ByteBuffer.wrap("content".getBytes()));
+
+        assertThrows(AmazonServiceException.class, channel::close);
+
+        CompletionException e = assertThrows(CompletionException.class, channel.getCommit()::join);
+        assertSame(failure, e.getCause());
+
+        // closing again does not hide the failure
+        channel.close();
+
+        assertTrue(channel.getCommit().isCompletedExceptionally());
+
+        S3FileChannel fileChannel = (S3FileChannel) s3fsProvider.newFileChannel(file, options);
+        fileChannel.write(ByteBuffer.wrap("content".getBytes()));
+
+        assertThrows(AmazonServiceException.class, fileChannel::close);
+
+        e = assertThrows(CompletionException.class, fileChannel.getCommit()::join);
+        assertSame(failure, e.getCause());
+    }
+
+    private S3FileSystem createAsyncFileSystem()
+            throws IOException
+    {
+        return (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                         ImmutableMap.<String, Object>builder()
+                                                                     .put(ACCESS_KEY, "access_key")
+                                                                     .put(SECRET_KEY, "secret_key")
+                                                                     .put(ASYNC_COMMIT, "true")
+                                                                     .build());
+    }
+
+}
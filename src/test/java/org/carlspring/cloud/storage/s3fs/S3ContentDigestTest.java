@@ -0,0 +1,170 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3ContentDigest;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3ContentDigestTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        reset(client);
+    }
+
+    @Test
+    public void sequentialWrites()
+    {
+        S3ContentDigest digest = new S3ContentDigest();
+        digest.update(0, "0123".getBytes(), 0, 4);
+        digest.update(4, ByteBuffer.wrap("456789".getBytes()));
+        digest.update(10, new ByteBuffer[]{ ByteBuffer.wrap("ab".getBytes()), ByteBuffer.wrap("cd".getBytes()) }, 3);
+
+        assertEquals(Md5Utils.md5AsBase64("0123456789abc".getBytes()), digest.getMD5(13));
+
+        // the digest can be continued
+        digest.update(13, "d".getBytes(), 0, 1);
+
+        assertEquals(Md5Utils.md5AsBase64("0123456789abcd".getBytes()), digest.getMD5(14));
+        assertNull(digest.getMD5(20));
+    }
+
+    @Test
+    public void nonSequentialWritesInvalidate()
+    {
+        S3ContentDigest digest = new S3ContentDigest();
+        digest.update(0, "0123".getBytes(), 0, 4);
+        digest.truncate(10);
+
+        assertNotNull(digest.getMD5(4));
+
+        digest.update(2, "x".getBytes(), 0, 1);
+
+        assertNull(digest.getMD5(4));
+
+        digest.reset();
+        digest.update(0, "0123".getBytes(), 0, 4);
+        digest.truncate(2);
+
+        assertNull(digest.getMD5(2));
+    }
+
+    @Test
+    public void verifyETag()
+            throws IOException
+    {
+        String md5 = Md5Utils.md5AsBase64("content".getBytes());
+        String eTag = BinaryUtils.toHex(Md5Utils.computeMD5Hash("content".getBytes()));
+
+        S3ContentDigest.verify(md5, "\"" + eTag + "\"", null, "file1");
+        S3ContentDigest.verify(md5, eTag, SSEAlgorithm.AES256.getAlgorithm(), "file1");
+        S3ContentDigest.verify(md5, "not-an-md5", SSEAlgorithm.KMS.getAlgorithm(), "file1");
+        S3ContentDigest.verify(null, "not-an-md5", null, "file1");
+
+        assertThrows(IOException.class, () -> S3ContentDigest.verify(md5, "not-an-md5", null, "file1"));
+    }
+
+    @Test
+    public void outputStreamSendsTheMD5OfTheParts()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (OutputStream stream = new S3OutputStream(file1, 4, 1, ((S3FileSystem) fileSystem).getUploadExecutor()))
+        {
+            stream.write("0123456789".getBytes());
+        }
+
+        ArgumentCaptor<UploadPartRequest> requests = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(client, times(3)).uploadPart(requests.capture());
+
+        assertEquals(Md5Utils.md5AsBase64("0123".getBytes()), requests.getAllValues().get(0).getMd5Digest());
+        assertEquals(Md5Utils.md5AsBase64("89".getBytes()), requests.getAllValues().get(2).getMd5Digest());
+        assertArrayEquals("0123456789".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void outputStreamSendsTheMD5OfTheObject()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (OutputStream stream = Files.newOutputStream(file1))
+        {
+            stream.write("content".getBytes());
+        }
+
+        ArgumentCaptor<ObjectMetadata> metadata = ArgumentCaptor.forClass(ObjectMetadata.class);
+        verify(client).putObject(anyString(), anyString(), any(InputStream.class), metadata.capture());
+
+        assertEquals(Md5Utils.md5AsBase64("content".getBytes()), metadata.getValue().getContentMD5());
+    }
+
+    @Test
+    public void channelSendsTheMD5OfSequentialWrites()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+        S3Path file2 = (S3Path) fileSystem.getPath("/buck/file2");
+
+        try (S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE,
+                                                                          StandardOpenOption.CREATE_NEW)))
+        {
+            channel.write(ByteBuffer.wrap("01234".getBytes()));
+            channel.write(new ByteBuffer[]{ ByteBuffer.wrap("567".getBytes()), ByteBuffer.wrap("89".getBytes()) });
+        }
+
+        try (S3FileChannel channel = new S3FileChannel(file2, EnumSet.of(StandardOpenOption.WRITE,
+                                                                          StandardOpenOption.CREATE_NEW)))
+        {
+            channel.write(ByteBuffer.wrap("56789".getBytes()), 5);
+            channel.write(ByteBuffer.wrap("01234".getBytes()), 0);
+        }
+
+        ArgumentCaptor<ObjectMetadata> metadata = ArgumentCaptor.forClass(ObjectMetadata.class);
+        verify(client, times(2)).putObject(anyString(), anyString(), any(InputStream.class), metadata.capture());
+
+        assertEquals(Md5Utils.md5AsBase64("0123456789".getBytes()), metadata.getAllValues().get(0).getContentMD5());
+        assertNull(metadata.getAllValues().get(1).getContentMD5());
+        assertArrayEquals("0123456789".getBytes(), Files.readAllBytes(file2));
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3ExtensionContentTypeResolver;
+import org.carlspring.cloud.storage.s3fs.util.S3TikaContentTypeResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.CONTENT_TYPE_RESOLVER;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3ContentTypeResolverTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+    {
+        s3fsProvider = getS3fsProvider();
+
+        reset(client);
+    }
+
+    @Test
+    public void resolverIsChosenByName()
+    {
+        assertTrue(resolver(null) instanceof S3TikaContentTypeResolver);
+        assertTrue(resolver("tika") instanceof S3TikaContentTypeResolver);
+        assertTrue(resolver("extension") instanceof S3ExtensionContentTypeResolver);
+        assertSame(S3ContentTypeResolver.NONE, resolver("none"));
+        assertTrue(resolver(S3ExtensionContentTypeResolver.class.getName()) instanceof S3ExtensionContentTypeResolver);
+
+        assertThrows(S3FileSystemConfigurationException.class, () -> resolver("org.example.Missing"));
+        assertThrows(S3FileSystemConfigurationException.class, () -> resolver(String.class.getName()));
+    }
+
+    @Test
+    public void resolve()
+            throws IOException
+    {
+        byte[] pdf = "%PDF-1.4\n".getBytes();
+
+        assertEquals("text/plain", new S3ExtensionContentTypeResolver().resolve("file1.txt", pdf, pdf.length));
+        assertNull(new S3ExtensionContentTypeResolver().resolve("file1", pdf, pdf.length));
+        assertNull(S3ContentTypeResolver.NONE.resolve("file1.txt", pdf, pdf.length));
+
+        // the magic bytes win over the extension
+        assertEquals("application/pdf", new S3TikaContentTypeResolver().resolve("file1", pdf, pdf.length));
+
+        // the stream is left where it was
+        InputStream stream = new ByteArrayInputStream(pdf);
+        assertEquals("application/pdf", new S3TikaContentTypeResolver().resolve("file1", stream));
+        assertEquals('%', stream.read());
+    }
+
+    @Test
+    public void uploadsUseTheResolverOfTheFileSystem()
+            throws IOException
+    {
+        client.bucket("bucketA");
+
+        S3FileSystem fileSystem = (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                                            ImmutableMap.<String, Object>builder()
+                                                                                    .put(ACCESS_KEY, "access_key")
+                                                                                    .put(SECRET_KEY, "secret_key")
+                                                                                    .put(CONTENT_TYPE_RESOLVER, "extension")
+                                                                                    .build());
+        Path file = fileSystem.getPath("/bucketA/file1.txt");
+
+        try (OutputStream stream = Files.newOutputStream(file))
+        {
+            stream.write("%PDF-1.4\n".getBytes());
+        }
+
+        ArgumentCaptor<ObjectMetadata> metadata = ArgumentCaptor.forClass(ObjectMetadata.class);
+        verify(client).putObject(anyString(), anyString(), any(InputStream.class), metadata.capture());
+
+        assertEquals("text/plain", metadata.getValue().getContentType());
+    }
+
+    private S3ContentTypeResolver resolver(String name)
+    {
+        Properties properties = new Properties();
+        if (name != null)
+        {
+            properties.setProperty(CONTENT_TYPE_RESOLVER, name);
+        }
+
+        return new S3FileSystem(s3fsProvider, null, client, null, properties).getContentTypeResolver();
+    }
+
+}
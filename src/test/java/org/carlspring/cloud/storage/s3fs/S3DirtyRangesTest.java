@@ -0,0 +1,51 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3DirtyRanges;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3DirtyRangesTest
+{
+
+    @Test
+    public void mergeOverlappingAndAdjacentRanges()
+    {
+        S3DirtyRanges ranges = new S3DirtyRanges();
+        assertTrue(ranges.isEmpty());
+
+        ranges.add(10, 5);
+        ranges.add(30, 5);
+        ranges.add(15, 5);
+        ranges.add(0, 0);
+
+        assertEquals(2, ranges.getRanges().size());
+        assertArrayEquals(new long[]{ 10, 20 }, ranges.getRanges().get(0));
+
+        // spans both
+        ranges.add(12, 20);
+
+        assertEquals(1, ranges.getRanges().size());
+        assertArrayEquals(new long[]{ 10, 35 }, ranges.getRanges().get(0));
+        assertEquals(25, ranges.getBytes());
+    }
+
+    @Test
+    public void truncate()
+    {
+        S3DirtyRanges ranges = new S3DirtyRanges();
+        ranges.add(0, 10);
+        ranges.add(20, 10);
+        ranges.add(40, 10);
+
+        ranges.truncate(25);
+
+        assertEquals(2, ranges.getRanges().size());
+        assertArrayEquals(new long[]{ 20, 25 }, ranges.getRanges().get(1));
+
+        ranges.truncate(0);
+
+        assertTrue(ranges.isEmpty());
+    }
+
+}
@@ -0,0 +1,201 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3BlockCache;
+import org.carlspring.cloud.storage.s3fs.util.S3DiskCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3DiskCacheTest
+{
+
+    @TempDir
+    Path directory;
+
+
+    @Test
+    public void getMiss()
+            throws IOException
+    {
+        S3DiskCache cache = new S3DiskCache(directory, 4, 16);
+
+        assertNull(cache.get(key(0)));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void putAndGet()
+            throws IOException
+    {
+        S3DiskCache cache = new S3DiskCache(directory, 4, 16);
+
+        ByteBuffer data = ByteBuffer.wrap("abcd".getBytes());
+        cache.put(key(0), data);
+
+        assertEquals(0, data.position());
+        assertEquals(ByteBuffer.wrap("abcd".getBytes()), cache.get(key(0)));
+        assertEquals(4, cache.getUsedBytes());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void survivesNewInstance()
+            throws IOException
+    {
+        new S3DiskCache(directory, 4, 16).put(key(0), ByteBuffer.wrap("abcd".getBytes()));
+
+        S3DiskCache cache = new S3DiskCache(directory, 4, 16);
+
+        assertEquals(4, cache.getUsedBytes());
+        assertEquals(ByteBuffer.wrap("abcd".getBytes()), cache.get(key(0)));
+    }
+
+    @Test
+    public void versionsAreDistinct()
+            throws IOException
+    {
+        S3DiskCache cache = new S3DiskCache(directory, 4, 16);
+        cache.put(key(0), ByteBuffer.wrap("abcd".getBytes()));
+
+        assertFalse(cache.contains(new S3BlockCache.Key("buck", "file1", "etag2", 0)));
+    }
+
+    @Test
+    public void blockSizesAreDistinct()
+            throws IOException
+    {
+        S3DiskCache small = new S3DiskCache(directory, 4, 16);
+        S3DiskCache large = new S3DiskCache(directory, 8, 16);
+
+        // the block 1 of a 12 bytes object is 4 bytes long with either size, but not the same bytes
+        small.put(key(1), ByteBuffer.wrap("4567".getBytes()));
+        large.put(key(1), ByteBuffer.wrap("89ab".getBytes()));
+
+        assertEquals(ByteBuffer.wrap("4567".getBytes()), small.get(key(1)));
+        assertEquals(ByteBuffer.wrap("89ab".getBytes()), large.get(key(1)));
+        assertNull(new S3DiskCache(directory, 16, 16).get(key(1)));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed()
+            throws IOException
+    {
+        S3DiskCache cache = new S3DiskCache(directory, 4, 8);
+        cache.put(key(0), ByteBuffer.wrap("0000".getBytes()));
+        cache.put(key(1), ByteBuffer.wrap("1111".getBytes()));
+
+        // block 1 becomes the least recently used
+        age(key(1), 2000);
+        age(key(0), 1000);
+
+        cache.put(key(2), ByteBuffer.wrap("2222".getBytes()));
+
+        assertTrue(cache.contains(key(0)));
+        assertFalse(cache.contains(key(1)));
+        assertTrue(cache.contains(key(2)));
+        assertEquals(8, cache.getUsedBytes());
+    }
+
+    @Test
+    public void noTemporaryFilesLeft()
+            throws IOException
+    {
+        S3DiskCache cache = new S3DiskCache(directory, 4, 16);
+        cache.put(key(0), ByteBuffer.wrap("abcd".getBytes()));
+
+        try (Stream<Path> files = Files.list(directory))
+        {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    public void lockHeldInTheJvmSkipsEviction()
+            throws IOException
+    {
+        S3DiskCache cache = new S3DiskCache(directory, 4, 4);
+        cache.put(key(0), ByteBuffer.wrap("0000".getBytes()));
+
+        // the lock of another cache of this JVM on the directory
+        try (FileChannel lockChannel = FileChannel.open(directory.resolve(".lock"),
+                                                        StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE);
+             FileLock ignored = lockChannel.lock())
+        {
+            cache.put(key(1), ByteBuffer.wrap("1111".getBytes()));
+            cache.evict();
+        }
+
+        assertTrue(cache.contains(key(1)));
+
+        cache.evict();
+
+        assertEquals(4, cache.getUsedBytes());
+    }
+
+    @Test
+    public void concurrentEvictionsDoNotFail()
+            throws Exception
+    {
+        S3DiskCache cache = new S3DiskCache(directory, 4, 16);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<?>> puts = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+            {
+                int index = i;
+                puts.add(executor.submit(() -> cache.put(key(index), ByteBuffer.wrap("abcd".getBytes()))));
+            }
+
+            for (Future<?> put : puts)
+            {
+                put.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        cache.evict();
+
+        assertTrue(cache.getUsedBytes() <= 16);
+    }
+
+    private void age(S3BlockCache.Key key, long millis)
+            throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            Path file = files.filter(f -> f.getFileName().toString().endsWith("-" + key.getIndex() + ".block"))
+                             .findFirst()
+                             .orElseThrow(IllegalStateException::new);
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - millis));
+        }
+    }
+
+    private S3BlockCache.Key key(long index)
+    {
+        return new S3BlockCache.Key("buck", "file1", "etag1", index);
+    }
+
+}
@@ -17,6 +17,8 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Matchers.any;
@@ -149,6 +151,39 @@ public class S3FileChannelTest
         verify(client, times(1)).putObject(eq("buck"), eq("file1"), any(InputStream.class), any(ObjectMetadata.class));
     }
 
+    @Test
+    public void unmodifiedIsNotUploaded()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+
+        S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE));
+
+        channel.truncate(10);
+        channel.close();
+
+        assertFalse(channel.isModified());
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void readWriteIsUploaded()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+
+        S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE));
+
+        channel.write(ByteBuffer.wrap("C".getBytes()), 0);
+        channel.close();
+
+        assertArrayEquals("Content".getBytes(), Files.readAllBytes(file1));
+    }
+
     @Test
     public void alreadyExists()
     {
@@ -10,6 +10,7 @@ import java.nio.file.*;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import com.amazonaws.regions.Regions;
@@ -452,4 +453,26 @@ public class S3FileSystemTest
                                                      .build();
     }
 
+    @Test
+    public void propertiesHideTheCredentials()
+    {
+        Properties created = new Properties();
+        created.setProperty(ACCESS_KEY, "access_key");
+        created.setProperty(SECRET_KEY, "secret_key");
+        created.setProperty(S3FileSystemProvider.ASYNC_COMMIT, "true");
+
+        S3FileSystem s3fs = new S3FileSystem(null, null, AmazonS3MockFactory.getAmazonClientMock(), null, created);
+
+        Properties properties = s3fs.getProperties();
+
+        assertNull(properties.getProperty(ACCESS_KEY));
+        assertNull(properties.getProperty(SECRET_KEY));
+        assertEquals("true", properties.getProperty(S3FileSystemProvider.ASYNC_COMMIT));
+
+        // a copy
+        properties.setProperty(S3FileSystemProvider.ASYNC_COMMIT, "false");
+
+        assertTrue(s3fs.isAsyncCommit());
+    }
+
 }
@@ -0,0 +1,297 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.MULTIPART_UPLOAD_MAX_MEMORY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3OutputStreamTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+    private ExecutorService executor;
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+        executor = Executors.newFixedThreadPool(2);
+
+        reset(client);
+    }
+
+    @AfterEach
+    public void tearDown()
+            throws IOException
+    {
+        executor.shutdownNow();
+
+        super.tearDown();
+    }
+
+    @Test
+    public void smallObjectIsPutWithASingleRequest()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (OutputStream stream = new S3OutputStream(file1, 16, 2, executor))
+        {
+            stream.write("0123456789".getBytes());
+        }
+
+        assertArrayEquals("0123456789".getBytes(), Files.readAllBytes(file1));
+        verify(client).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+        verify(client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void largeObjectIsUploadedInParts()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3OutputStream stream = new S3OutputStream(file1, 4, 2, executor);
+        stream.write("0123456".getBytes());
+        stream.write('7');
+        stream.write("89".getBytes());
+        stream.close();
+
+        assertNotNull(stream.getUploadId());
+        assertArrayEquals("0123456789".getBytes(), Files.readAllBytes(file1));
+        verify(client, times(3)).uploadPart(any(UploadPartRequest.class));
+        verify(client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void partsInFlightFitInTheMemoryBound()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        fileSystem = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                ImmutableMap.<String, Object>builder()
+                                                            .put(ACCESS_KEY, "access_key")
+                                                            .put(SECRET_KEY, "secret_key")
+                                                            .put(MULTIPART_UPLOAD_MAX_MEMORY, "8")
+                                                            .build());
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try
+            {
+                Thread.sleep(20);
+
+                return invocation.callRealMethod();
+            }
+            finally
+            {
+                inFlight.decrementAndGet();
+            }
+        }).when(client).uploadPart(any(UploadPartRequest.class));
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        // 4 bytes parts: one in flight while the next one is written
+        try (OutputStream stream = new S3OutputStream(file1, 4, 2, executor))
+        {
+            stream.write("0123456789abcdef".getBytes());
+        }
+
+        assertArrayEquals("0123456789abcdef".getBytes(), Files.readAllBytes(file1));
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void failedPartAbortsTheUpload()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "old".getBytes());
+
+        doThrow(new AmazonClientException("Connection reset")).when(client).uploadPart(any(UploadPartRequest.class));
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3OutputStream stream = new S3OutputStream(file1, 4, 1, executor);
+
+        assertThrows(IOException.class, () -> {
+            stream.write("0123456789".getBytes());
+            stream.close();
+        });
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertTrue(client.listMultipartUploads(new ListMultipartUploadsRequest("buck")).getMultipartUploads().isEmpty());
+        assertArrayEquals("old".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void closeAfterFailedPartReportsTheFailure()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        doThrow(new AmazonClientException("Connection reset")).when(client).uploadPart(any(UploadPartRequest.class));
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3OutputStream stream = new S3OutputStream(file1, 4, 1, executor);
+
+        // the second part waits for the first one, which failed
+        assertThrows(IOException.class, () -> stream.write("012345678901".getBytes()));
+
+        IOException e = assertThrows(IOException.class, stream::close);
+        assertTrue(e.getCause() instanceof IOException);
+
+        assertTrue(stream.getCommit().isCompletedExceptionally());
+        assertFalse(Files.exists(file1));
+    }
+
+    @Test
+    public void appendCopiesTheExistingObject()
+            throws IOException
+    {
+        byte[] existing = new byte[(int) S3PartialUpload.MIN_PART_SIZE + 1];
+        existing[existing.length - 1] = 'x';
+
+        client.bucket("buck").file("file1", existing);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3OutputStream stream = new S3OutputStream(file1, 4, 2, executor))
+        {
+            stream.append(client.getObjectMetadata("buck", "file1"));
+            stream.write("tail".getBytes());
+        }
+
+        // the existing bytes never went through the client
+        verify(client).copyPart(any(CopyPartRequest.class));
+        verify(client).uploadPart(any(UploadPartRequest.class));
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+
+        byte[] content = Files.readAllBytes(file1);
+        assertEquals(existing.length + 4, content.length);
+        assertEquals('x', content[existing.length - 1]);
+        assertEquals("tail", new String(content, existing.length, 4));
+    }
+
+    @Test
+    public void appendDownloadsASmallObject()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3OutputStream stream = new S3OutputStream(file1, 16, 2, executor))
+        {
+            stream.append(client.getObjectMetadata("buck", "file1"));
+            stream.write("456789".getBytes());
+        }
+
+        assertArrayEquals("0123456789".getBytes(), Files.readAllBytes(file1));
+        verify(client, never()).copyPart(any(CopyPartRequest.class));
+        verify(client).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void partSize()
+    {
+        // small objects use the minimum
+        assertEquals(8, S3OutputStream.partSize(8, 10, 1));
+        assertEquals(8, S3OutputStream.partSize(8, -1, 1));
+
+        // a known length fits in the maximum number of parts
+        assertEquals(100, S3OutputStream.partSize(8, 100 * S3OutputStream.MAX_PARTS, 1));
+        assertEquals(101, S3OutputStream.partSize(8, 100 * S3OutputStream.MAX_PARTS + 1, 1));
+
+        // an unknown length grows the parts
+        assertEquals(8, S3OutputStream.partSize(8, -1, S3OutputStream.PARTS_PER_DOUBLING));
+        assertEquals(16, S3OutputStream.partSize(8, -1, S3OutputStream.PARTS_PER_DOUBLING + 1));
+        assertEquals(8 << 9, S3OutputStream.partSize(8, -1, S3OutputStream.MAX_PARTS));
+        assertEquals(S3OutputStream.MAX_PART_SIZE,
+                     S3OutputStream.partSize(S3OutputStream.MAX_PART_SIZE / 2, -1, S3OutputStream.MAX_PARTS));
+    }
+
+    @Test
+    public void expectedLengthChoosesThePartSize()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3FileSystem s3FileSystem = (S3FileSystem) fileSystem;
+        S3Path file1 = s3FileSystem.getPath("/buck/file1");
+
+        byte[] content = new byte[3 * S3OutputStream.MAX_PARTS];
+
+        S3OutputStream stream = new S3OutputStream(file1, 2, content.length, s3FileSystem.getUploadConcurrency(), executor);
+        stream.write(content);
+        stream.close();
+
+        assertEquals(3, stream.getPartSize());
+        assertArrayEquals(content, Files.readAllBytes(file1));
+        verify(client, times(S3OutputStream.MAX_PARTS)).uploadPart(any(UploadPartRequest.class));
+
+        // the chosen values are published in the properties of the file system
+        assertEquals("3", s3FileSystem.getProperties().getProperty(S3FileSystemProvider.MULTIPART_UPLOAD_CURRENT_PART_SIZE));
+        assertEquals(String.valueOf(s3FileSystem.getUploadConcurrency().getLimit()),
+                     s3FileSystem.getProperties().getProperty(S3FileSystemProvider.MULTIPART_UPLOAD_CURRENT_CONCURRENCY));
+    }
+
+    @Test
+    public void writeClosed()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3OutputStream stream = new S3OutputStream(file1, 4, 1, executor);
+        stream.close();
+
+        assertThrows(IOException.class, () -> stream.write(1));
+    }
+
+}
@@ -0,0 +1,118 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.IOUtils;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3ParallelInputStreamTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+    private ExecutorService executor;
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+        executor = Executors.newFixedThreadPool(3);
+
+        reset(client);
+    }
+
+    @AfterEach
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readInOrder()
+            throws IOException
+    {
+        byte[] content = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+        client.bucket("buck").file("file1", content);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (InputStream stream = new S3ParallelInputStream(new S3RangeReader(file1), 5, 15, executor))
+        {
+            assertArrayEquals(content, IOUtils.toByteArray(stream));
+        }
+
+        // 36 bytes in chunks of 5
+        verify(client, times(8)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void readSingleBytes()
+            throws IOException
+    {
+        byte[] content = "0123456789".getBytes();
+        client.bucket("buck").file("file1", content);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (InputStream stream = new S3ParallelInputStream(new S3RangeReader(file1), 3, 3, executor))
+        {
+            for (byte b : content)
+            {
+                assertEquals(b, stream.read());
+            }
+
+            assertEquals(-1, stream.read());
+        }
+    }
+
+    @Test
+    public void modifiedObject()
+            throws IOException
+    {
+        byte[] content = "0123456789".getBytes();
+        client.bucket("buck").file("file1", content);
+
+        doReturn(null).when(client).getObject(any(GetObjectRequest.class));
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (InputStream stream = new S3ParallelInputStream(new S3RangeReader(file1), 3, 6, executor))
+        {
+            assertThrows(IOException.class, () -> IOUtils.toByteArray(stream));
+        }
+    }
+
+    @Test
+    public void readClosed()
+            throws IOException
+    {
+        byte[] content = "0123456789".getBytes();
+        client.bucket("buck").file("file1", content);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        InputStream stream = new S3ParallelInputStream(new S3RangeReader(file1), 3, 6, executor);
+        stream.close();
+
+        assertThrows(IOException.class, stream::read);
+    }
+
+}
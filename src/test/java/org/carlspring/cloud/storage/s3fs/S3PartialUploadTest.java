@@ -0,0 +1,161 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3DirtyRanges;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3PartialUploadTest
+        extends S3UnitTestBase
+{
+
+    private static final int MB = 1024 * 1024;
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        reset(client);
+    }
+
+    @Test
+    public void planWidensModifiedRanges()
+    {
+        S3DirtyRanges dirty = new S3DirtyRanges();
+        dirty.add(500, 2);
+
+        List<S3PartialUpload.Part> parts = S3PartialUpload.plan(dirty, 1000, 1000, 10, 100, 20);
+
+        assertEquals("[copy[0, 100), copy[100, 200), copy[200, 300), copy[300, 400), copy[400, 500), " +
+                     "upload[500, 510), " +
+                     "copy[510, 608), copy[608, 706), copy[706, 804), copy[804, 902), copy[902, 1000)]",
+                     parts.toString());
+    }
+
+    @Test
+    public void planModifiedRangesAtTheEdges()
+    {
+        S3DirtyRanges dirty = new S3DirtyRanges();
+        dirty.add(0, 3);
+        dirty.add(998, 2);
+
+        List<S3PartialUpload.Part> parts = S3PartialUpload.plan(dirty, 1000, 1000, 10, 1000, 20);
+
+        assertEquals("[upload[0, 10), copy[10, 990), upload[990, 1000)]", parts.toString());
+    }
+
+    @Test
+    public void planUploadsShortUnmodifiedRanges()
+    {
+        S3DirtyRanges dirty = new S3DirtyRanges();
+        dirty.add(100, 1);
+        dirty.add(115, 1);
+
+        List<S3PartialUpload.Part> parts = S3PartialUpload.plan(dirty, 200, 200, 10, 1000, 20);
+
+        // the 5 bytes between the widened ranges are too short to be copied
+        assertEquals("[copy[0, 100), upload[100, 112), upload[112, 125), copy[125, 200)]", parts.toString());
+    }
+
+    @Test
+    public void planUploadsBytesPastTheCopyLimit()
+    {
+        List<S3PartialUpload.Part> parts = S3PartialUpload.plan(new S3DirtyRanges(), 150, 100, 10, 1000, 50);
+
+        assertEquals("[copy[0, 100), upload[100, 150)]", parts.toString());
+    }
+
+    @Test
+    public void patchLargeObject()
+            throws IOException
+    {
+        byte[] content = new byte[12 * MB];
+        client.bucket("buck").file("file1", content);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE)))
+        {
+            channel.write(ByteBuffer.wrap("head".getBytes()), 6 * MB);
+        }
+
+        System.arraycopy("head".getBytes(), 0, content, 6 * MB, 4);
+        assertArrayEquals(content, Files.readAllBytes(file1));
+
+        // [0, 6M) and [11M, 12M) are copied, only the widened [6M, 11M) is uploaded
+        ArgumentCaptor<UploadPartRequest> upload = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(client).uploadPart(upload.capture());
+        assertEquals(6 * MB, upload.getValue().getFileOffset());
+        assertEquals(5 * MB, upload.getValue().getPartSize());
+
+        verify(client, times(2)).copyPart(any(CopyPartRequest.class));
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void replacedObjectIsUploadedWhole()
+            throws IOException
+    {
+        byte[] content = new byte[12 * MB];
+        client.bucket("buck").file("file1", content);
+
+        // the ETag constraint of the copies is not met
+        doReturn(null).when(client).copyPart(any(CopyPartRequest.class));
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE)))
+        {
+            channel.write(ByteBuffer.wrap("head".getBytes()), 0);
+        }
+
+        System.arraycopy("head".getBytes(), 0, content, 0, 4);
+        assertArrayEquals(content, Files.readAllBytes(file1));
+
+        verify(client).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void smallObjectIsUploadedWhole()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE)))
+        {
+            channel.write(ByteBuffer.wrap("C".getBytes()), 0);
+        }
+
+        assertArrayEquals("Content".getBytes(), Files.readAllBytes(file1));
+        verify(client, never()).copyPart(any(CopyPartRequest.class));
+    }
+
+}
@@ -0,0 +1,204 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+
+public class S3ReadOnlyFileChannelTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        reset(client);
+    }
+
+    @Test
+    public void newFileChannelReadOnly()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (FileChannel channel = s3fsProvider.newFileChannel(file1, EnumSet.of(StandardOpenOption.READ)))
+        {
+            assertTrue(channel instanceof S3ReadOnlyFileChannel);
+            assertEquals(7, channel.size());
+        }
+    }
+
+    @Test
+    public void positionalRead()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlyFileChannel channel = new S3ReadOnlyFileChannel(file1))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+
+            assertEquals(4, channel.read(buffer, 6));
+            assertArrayEquals("6789".getBytes(), buffer.array());
+
+            // a positional read doesn't move the channel position
+            assertEquals(0, channel.position());
+        }
+    }
+
+    @Test
+    public void readVectored()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (FileChannel channel = s3fsProvider.newFileChannel(file1, EnumSet.of(StandardOpenOption.READ)))
+        {
+            S3FileRange first = new S3FileRange(1, ByteBuffer.allocate(2));
+            S3FileRange second = new S3FileRange(7, ByteBuffer.allocate(3));
+
+            ((S3VectoredReadChannel) channel).readVectored(Arrays.asList(first, second));
+
+            assertArrayEquals("12".getBytes(), first.getData().join().array());
+            assertArrayEquals("789".getBytes(), second.getData().join().array());
+        }
+    }
+
+    @Test
+    public void scatteringRead()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlyFileChannel channel = new S3ReadOnlyFileChannel(file1))
+        {
+            ByteBuffer first = ByteBuffer.allocate(3);
+            ByteBuffer second = ByteBuffer.allocate(3);
+
+            assertEquals(6, channel.read(new ByteBuffer[]{ first, second }));
+            assertArrayEquals("012".getBytes(), first.array());
+            assertArrayEquals("345".getBytes(), second.array());
+        }
+    }
+
+    @Test
+    public void transferTo()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (S3ReadOnlyFileChannel channel = new S3ReadOnlyFileChannel(file1))
+        {
+            assertEquals(5, channel.transferTo(2, 5, Channels.newChannel(out)));
+        }
+
+        assertArrayEquals("23456".getBytes(), out.toByteArray());
+    }
+
+    @Test
+    public void transferToStreamsASingleRange()
+            throws IOException
+    {
+        byte[] content = new byte[200 * 1024];
+        new Random(42).nextBytes(content);
+        client.bucket("buck").file("file1", content);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (S3ReadOnlyFileChannel channel = new S3ReadOnlyFileChannel(file1))
+        {
+            assertEquals(content.length - 10, channel.transferTo(10, Long.MAX_VALUE, Channels.newChannel(out)));
+            assertEquals(0, channel.transferTo(content.length, 10, Channels.newChannel(out)));
+        }
+
+        assertArrayEquals(Arrays.copyOfRange(content, 10, content.length), out.toByteArray());
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(client).getObject(request.capture());
+        assertArrayEquals(new long[]{ 10, content.length - 1 }, request.getValue().getRange());
+    }
+
+    @Test
+    public void map()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3WriteBufferPool pool = file1.getFileSystem().getWriteBufferPool();
+
+        try (S3ReadOnlyFileChannel channel = new S3ReadOnlyFileChannel(file1))
+        {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, 10);
+
+            assertEquals('0', mapped.get(0));
+            assertEquals('9', mapped.get(9));
+
+            assertThrows(NonWritableChannelException.class, () -> channel.map(FileChannel.MapMode.READ_WRITE, 0, 10));
+            assertThrows(NonWritableChannelException.class, () -> channel.lock(0, 10, false));
+
+            // the copy is a temp file of the write buffer pool
+            assertEquals(10, pool.getSpilledBytes());
+        }
+
+        assertEquals(0, pool.getSpilledBytes());
+    }
+
+    @Test
+    public void write()
+            throws IOException
+    {
+        client.bucket("buck").file("file1");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlyFileChannel channel = new S3ReadOnlyFileChannel(file1))
+        {
+            assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.wrap("hoi".getBytes())));
+        }
+    }
+
+}
@@ -0,0 +1,489 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.BLOCK_CACHE_BLOCK_SIZE;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.BLOCK_CACHE_SIZE;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.DISK_CACHE_DIR;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.VECTORED_READ_MAX_GAP;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3ReadOnlySeekableByteChannelTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        reset(client);
+    }
+
+    @Test
+    public void newByteChannelReadOnlyIsLazy()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (SeekableByteChannel channel = s3fsProvider.newByteChannel(file1, EnumSet.of(StandardOpenOption.READ)))
+        {
+            assertTrue(channel instanceof S3ReadOnlySeekableByteChannel);
+            assertEquals(7, channel.size());
+
+            // nothing is downloaded until the first read
+            verify(client, never()).getObject(any(GetObjectRequest.class));
+        }
+    }
+
+    @Test
+    public void readRange()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            channel.position(4);
+
+            ByteBuffer buffer = ByteBuffer.allocate(3);
+            assertEquals(3, channel.read(buffer));
+            assertArrayEquals("456".getBytes(), buffer.array());
+            assertEquals(7, channel.position());
+
+            ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+            verify(client).getObject(request.capture());
+            assertEquals(4, request.getValue().getRange()[0]);
+            assertEquals(9, request.getValue().getRange()[1]);
+        }
+    }
+
+    @Test
+    public void sequentialReadsReuseTheRange()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            ByteBuffer first = ByteBuffer.allocate(5);
+            ByteBuffer second = ByteBuffer.allocate(5);
+
+            channel.read(first);
+            channel.read(second);
+
+            assertArrayEquals("01234".getBytes(), first.array());
+            assertArrayEquals("56789".getBytes(), second.array());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+
+            verify(client, times(1)).getObject(any(GetObjectRequest.class));
+        }
+    }
+
+    @Test
+    public void sequentialReadsGrowTheReadahead()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", new byte[256 * 1024]);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+            while (channel.read(buffer) >= 0)
+            {
+                buffer.clear();
+            }
+        }
+
+        ArgumentCaptor<GetObjectRequest> requests = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(client, times(3)).getObject(requests.capture());
+
+        assertArrayEquals(new long[]{ 0, 64 * 1024 - 1 }, requests.getAllValues().get(0).getRange());
+        assertArrayEquals(new long[]{ 64 * 1024, 192 * 1024 - 1 }, requests.getAllValues().get(1).getRange());
+        assertArrayEquals(new long[]{ 192 * 1024, 256 * 1024 - 1 }, requests.getAllValues().get(2).getRange());
+    }
+
+    @Test
+    public void randomReadsRequestExactRanges()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", new byte[256 * 1024]);
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            channel.position(200 * 1024).read(ByteBuffer.allocate(10));
+            channel.position(100 * 1024).read(ByteBuffer.allocate(10));
+        }
+
+        ArgumentCaptor<GetObjectRequest> requests = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(client, times(2)).getObject(requests.capture());
+
+        assertArrayEquals(new long[]{ 100 * 1024, 100 * 1024 + 9 }, requests.getAllValues().get(1).getRange());
+    }
+
+    @Test
+    public void shortForwardSeekReusesTheRange()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789abcdefghij".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            channel.read(ByteBuffer.allocate(5));
+
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            channel.position(10).read(buffer);
+
+            assertArrayEquals("abcde".getBytes(), buffer.array());
+        }
+
+        verify(client, times(1)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void readVectoredCoalescesNearbyRanges()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789abcdefghij".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            S3FileRange first = new S3FileRange(15, ByteBuffer.allocate(3));
+            S3FileRange second = new S3FileRange(0, ByteBuffer.allocate(3));
+            S3FileRange third = new S3FileRange(5, ByteBuffer.allocate(2));
+
+            channel.readVectored(Arrays.asList(first, second, third));
+
+            assertArrayEquals("fgh".getBytes(), first.getData().join().array());
+            assertArrayEquals("012".getBytes(), second.getData().join().array());
+            assertArrayEquals("56".getBytes(), third.getData().join().array());
+            assertFalse(first.getBuffer().hasRemaining());
+
+            ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+            verify(client).getObject(request.capture());
+            assertArrayEquals(new long[]{ 0, 17 }, request.getValue().getRange());
+        }
+    }
+
+    @Test
+    public void readVectoredSplitsDistantRanges()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789abcdefghij".getBytes());
+
+        Map<String, Object> env = new HashMap<>();
+        env.put(ACCESS_KEY, "accesskey");
+        env.put(SECRET_KEY, "secretkey");
+        env.put(VECTORED_READ_MAX_GAP, "2");
+
+        S3FileSystem vectoredFileSystem = (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), env);
+        S3Path file1 = vectoredFileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            S3FileRange first = new S3FileRange(0, ByteBuffer.allocate(3));
+            S3FileRange second = new S3FileRange(5, ByteBuffer.allocate(2));
+            S3FileRange third = new S3FileRange(15, ByteBuffer.allocate(3));
+
+            channel.readVectored(Arrays.asList(first, second, third));
+
+            assertArrayEquals("012".getBytes(), first.getData().join().array());
+            assertArrayEquals("56".getBytes(), second.getData().join().array());
+            assertArrayEquals("fgh".getBytes(), third.getData().join().array());
+
+            verify(client, times(2)).getObject(any(GetObjectRequest.class));
+        }
+    }
+
+    @Test
+    public void readVectoredOverlappingRanges()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            List<S3FileRange> ranges = Arrays.asList(new S3FileRange(0, ByteBuffer.allocate(5)),
+                                                     new S3FileRange(4, ByteBuffer.allocate(2)));
+
+            assertThrows(IllegalArgumentException.class, () -> channel.readVectored(ranges));
+        }
+    }
+
+    @Test
+    public void readVectoredFailure()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            // the object is replaced after it was opened
+            doReturn(null).when(client).getObject(any(GetObjectRequest.class));
+
+            S3FileRange range = new S3FileRange(0, ByteBuffer.allocate(5));
+            channel.readVectored(Collections.singletonList(range));
+
+            CompletionException e = assertThrows(CompletionException.class, () -> range.getData().join());
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void tailPrefetch()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789FOOTER".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (SeekableByteChannel channel = s3fsProvider.newByteChannel(file1,
+                                                                        ImmutableSet.of(StandardOpenOption.READ,
+                                                                                        S3TailPrefetch.of(6))))
+        {
+            assertTrue(channel instanceof S3ReadOnlySeekableByteChannel);
+            assertEquals(16, channel.size());
+
+            ByteBuffer footer = ByteBuffer.allocate(6);
+            assertEquals(6, channel.position(10).read(footer));
+            assertArrayEquals("FOOTER".getBytes(), footer.array());
+
+            // the length and the footer come from a single request, without a HEAD
+            verify(client, never()).getObjectMetadata(anyString(), anyString());
+            verify(client, times(1)).getObject(any(GetObjectRequest.class));
+
+            ByteBuffer head = ByteBuffer.allocate(4);
+            channel.position(0).read(head);
+            assertArrayEquals("0123".getBytes(), head.array());
+        }
+    }
+
+    @Test
+    public void tailPrefetchLargerThanObject()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1, 100))
+        {
+            assertEquals(4, channel.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            assertEquals(4, channel.read(buffer));
+            assertArrayEquals("0123".getBytes(), buffer.array());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+
+            verify(client, times(1)).getObject(any(GetObjectRequest.class));
+        }
+    }
+
+    @Test
+    public void tailPrefetchIgnoredForWrite()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (SeekableByteChannel channel = s3fsProvider.newByteChannel(file1,
+                                                                        ImmutableSet.of(StandardOpenOption.WRITE,
+                                                                                        S3TailPrefetch.of(2))))
+        {
+            assertTrue(channel instanceof S3SeekableByteChannel);
+        }
+    }
+
+    @Test
+    public void readAllBytes()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        assertArrayEquals("content".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void readModifiedObject()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            // a GET that doesn't match the ETag constraint returns null
+            doReturn(null).when(client).getObject(any(GetObjectRequest.class));
+
+            assertThrows(IOException.class, () -> channel.read(ByteBuffer.allocate(3)));
+        }
+    }
+
+    @Test
+    public void notExists()
+    {
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        assertThrows(NoSuchFileException.class, () -> new S3ReadOnlySeekableByteChannel(file1));
+    }
+
+    @Test
+    public void write()
+            throws IOException
+    {
+        client.bucket("buck").file("file1");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.wrap("hoi".getBytes())));
+        }
+    }
+
+    @Test
+    public void readClosed()
+            throws IOException
+    {
+        client.bucket("buck").file("file1");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1);
+        channel.close();
+
+        assertFalse(channel.isOpen());
+        assertThrows(ClosedChannelException.class, () -> channel.read(ByteBuffer.allocate(3)));
+    }
+
+    @Test
+    public void readFromBlockCache()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        Map<String, Object> env = new HashMap<>();
+        env.put(ACCESS_KEY, "accesskey");
+        env.put(SECRET_KEY, "secretkey");
+        env.put(BLOCK_CACHE_SIZE, "16");
+        env.put(BLOCK_CACHE_BLOCK_SIZE, "4");
+
+        S3FileSystem cachedFileSystem = (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), env);
+        S3Path file1 = cachedFileSystem.getPath("/buck/file1");
+
+        for (int i = 0; i < 2; i++)
+        {
+            try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+            {
+                channel.position(3);
+
+                ByteBuffer buffer = ByteBuffer.allocate(6);
+                while (buffer.hasRemaining())
+                {
+                    channel.read(buffer);
+                }
+
+                assertArrayEquals("345678".getBytes(), buffer.array());
+            }
+        }
+
+        // blocks [0, 4), [4, 8) and [8, 10) are fetched once
+        verify(client, times(3)).getObject(any(GetObjectRequest.class));
+        assertEquals(12, cachedFileSystem.getBlockCache().getUsedBytes());
+    }
+
+    @Test
+    public void readFromDiskCache(@TempDir Path cacheDirectory)
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        Map<String, Object> env = new HashMap<>();
+        env.put(ACCESS_KEY, "accesskey");
+        env.put(SECRET_KEY, "secretkey");
+        env.put(BLOCK_CACHE_BLOCK_SIZE, "4");
+        env.put(DISK_CACHE_DIR, cacheDirectory.toString());
+
+        S3FileSystem cachedFileSystem = (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), env);
+        S3Path file1 = cachedFileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            channel.read(ByteBuffer.allocate(4));
+        }
+
+        cachedFileSystem.close();
+
+        // a new file system, as after a restart, reads the block from the same directory
+        cachedFileSystem = (S3FileSystem) s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), env);
+        file1 = cachedFileSystem.getPath("/buck/file1");
+
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(file1))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            assertEquals(4, channel.read(buffer));
+            assertArrayEquals("0123".getBytes(), buffer.array());
+        }
+
+        verify(client, times(1)).getObject(any(GetObjectRequest.class));
+    }
+
+}
@@ -0,0 +1,227 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.IOUtils;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.FileSystems;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3ResumableInputStreamTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        reset(client);
+    }
+
+    @Test
+    public void resumeAfterConnectionReset()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3ResumableInputStream stream = new S3ResumableInputStream(file1, brokenObject("01234", true), 3);
+
+        assertArrayEquals("0123456789".getBytes(), IOUtils.toByteArray(stream));
+        assertEquals(1, stream.getRetries());
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(client).getObject(request.capture());
+        assertArrayEquals(new long[]{ 5, 9 }, request.getValue().getRange());
+    }
+
+    @Test
+    public void resumeAfterPrematureEnd()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3ResumableInputStream stream = new S3ResumableInputStream(file1, brokenObject("0123", false), 3);
+
+        assertArrayEquals("0123456789".getBytes(), IOUtils.toByteArray(stream));
+        assertEquals(1, stream.getRetries());
+    }
+
+    @Test
+    public void resumeAfterClientException()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        InputStream failure = new InputStream()
+        {
+            @Override
+            public int read()
+            {
+                throw new SdkClientException("Data read has a different length than the expected");
+            }
+        };
+
+        S3ResumableInputStream stream = new S3ResumableInputStream(file1, brokenObject("012", failure), 3);
+
+        assertArrayEquals("0123456789".getBytes(), IOUtils.toByteArray(stream));
+        assertEquals(1, stream.getRetries());
+    }
+
+    @Test
+    public void clientExceptionWithRetryBudgetExhausted()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        InputStream failure = new InputStream()
+        {
+            @Override
+            public int read()
+            {
+                throw new SdkClientException("Data read has a different length than the expected");
+            }
+        };
+
+        S3ResumableInputStream stream = new S3ResumableInputStream(file1, brokenObject("012", failure), 0);
+
+        IOException e = assertThrows(IOException.class, () -> IOUtils.toByteArray(stream));
+        assertTrue(e.getCause() instanceof SdkClientException);
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void retryBudgetExhausted()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3ResumableInputStream stream = new S3ResumableInputStream(file1, brokenObject("01234", true), 0);
+
+        IOException e = assertThrows(IOException.class, () -> IOUtils.toByteArray(stream));
+        assertEquals("Connection reset", e.getMessage());
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void modifiedObject()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        doReturn(null).when(client).getObject(any(GetObjectRequest.class));
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3ResumableInputStream stream = new S3ResumableInputStream(file1, brokenObject("01234", true), 3);
+
+        IOException e = assertThrows(IOException.class, () -> IOUtils.toByteArray(stream));
+        assertTrue(e.getMessage().startsWith("The object has been modified"));
+    }
+
+    @Test
+    public void readClosed()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123456789".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3ResumableInputStream stream = new S3ResumableInputStream(file1, brokenObject("01234", true), 3);
+        stream.close();
+
+        assertThrows(IOException.class, stream::read);
+    }
+
+    @Test
+    public void closeBeforeTheEnd()
+            throws IOException
+    {
+        byte[] content = new byte[1024 * 1024];
+        client.bucket("buck").file("file1", content);
+
+        S3FileSystem s3FileSystem = (S3FileSystem) fileSystem;
+        S3Path file1 = s3FileSystem.getPath("/buck/file1");
+
+        try (InputStream stream = s3fsProvider.newInputStream(file1))
+        {
+            stream.read(new byte[1024 * 1024 - 10]);
+        }
+
+        try (InputStream stream = s3fsProvider.newInputStream(file1))
+        {
+            stream.read(new byte[10]);
+        }
+
+        // the few bytes left of the first response are drained, the second response is aborted
+        assertEquals(1, s3FileSystem.getStreamClosePolicy().getDrainCount());
+        assertEquals(1, s3FileSystem.getStreamClosePolicy().getAbortCount());
+    }
+
+    /**
+     * A response of the 10 bytes object that ends after the given bytes, either with a connection reset or silently.
+     */
+    private S3Object brokenObject(String content, boolean reset)
+    {
+        return brokenObject(content, new InputStream()
+        {
+            @Override
+            public int read()
+                    throws IOException
+            {
+                if (reset)
+                {
+                    throw new IOException("Connection reset");
+                }
+
+                return -1;
+            }
+        });
+    }
+
+    /**
+     * A response of the 10 bytes object that goes on with the given failing stream after the given bytes.
+     */
+    private S3Object brokenObject(String content, InputStream failure)
+    {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(10);
+
+        S3Object object = new S3Object();
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new SequenceInputStream(new ByteArrayInputStream(content.getBytes()), failure));
+
+        return object;
+    }
+
+}
@@ -12,6 +12,8 @@ import java.util.EnumSet;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
@@ -80,6 +82,48 @@ public class S3SeekableByteChannelTest
         verify(channel, times(1)).sync();
     }
 
+    @Test
+    public void unmodifiedDontNeedToSyncTempFile()
+            throws IOException
+    {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+
+        S3SeekableByteChannel channel = spy(new S3SeekableByteChannel(file1,
+                                                                      EnumSet.of(StandardOpenOption.WRITE,
+                                                                                 StandardOpenOption.READ)));
+
+        channel.read(ByteBuffer.allocate(4));
+        channel.write(ByteBuffer.allocate(0));
+        channel.truncate(10);
+        channel.close();
+
+        assertFalse(channel.isModified());
+        verify(channel, never()).sync();
+    }
+
+    @Test
+    public void truncateNeedToSyncTempFile()
+            throws IOException
+    {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+
+        S3SeekableByteChannel channel = spy(new S3SeekableByteChannel(file1,
+                                                                      EnumSet.of(StandardOpenOption.WRITE,
+                                                                                 StandardOpenOption.READ)));
+
+        channel.truncate(4);
+        channel.close();
+
+        verify(channel, times(1)).sync();
+        assertArrayEquals("cont".getBytes(), Files.readAllBytes(file1));
+    }
+
     @Test
     public void alreadyExists()
     {
@@ -0,0 +1,79 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3StreamClosePolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3StreamClosePolicyTest
+{
+
+    @Test
+    public void drainBelowThreshold()
+            throws IOException
+    {
+        S3StreamClosePolicy policy = new S3StreamClosePolicy(100);
+
+        ByteArrayInputStream content = new ByteArrayInputStream("0123456789".getBytes());
+        policy.close(new S3ObjectInputStream(content, null), 10);
+
+        assertEquals(0, content.available());
+        assertEquals(1, policy.getDrainCount());
+        assertEquals(10, policy.getDrainedBytes());
+        assertEquals(0, policy.getAbortCount());
+    }
+
+    @Test
+    public void abortAboveThreshold()
+            throws IOException
+    {
+        S3StreamClosePolicy policy = new S3StreamClosePolicy(4);
+
+        ByteArrayInputStream content = new ByteArrayInputStream("0123456789".getBytes());
+        policy.close(new S3ObjectInputStream(content, null), 10);
+
+        assertEquals(10, content.available());
+        assertEquals(0, policy.getDrainCount());
+        assertEquals(1, policy.getAbortCount());
+    }
+
+    @Test
+    public void closeFullyRead()
+            throws IOException
+    {
+        S3StreamClosePolicy policy = new S3StreamClosePolicy(4);
+
+        policy.close(new S3ObjectInputStream(new ByteArrayInputStream(new byte[0]), null), 0);
+
+        assertEquals(0, policy.getDrainCount());
+        assertEquals(0, policy.getAbortCount());
+    }
+
+    @Test
+    public void abortWhenDrainFails()
+            throws IOException
+    {
+        S3StreamClosePolicy policy = new S3StreamClosePolicy(100);
+
+        InputStream broken = new InputStream()
+        {
+            @Override
+            public int read()
+                    throws IOException
+            {
+                throw new IOException("Connection reset");
+            }
+        };
+
+        policy.close(new S3ObjectInputStream(broken, null), 10);
+
+        assertEquals(0, policy.getDrainCount());
+        assertEquals(1, policy.getAbortCount());
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3UploadConcurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3UploadConcurrencyTest
+{
+
+    private static final long MILLIS = 1000 * 1000;
+
+
+    @Test
+    public void increaseWhileThroughputImproves()
+    {
+        S3UploadConcurrency concurrency = new S3UploadConcurrency(2, 1, 4);
+
+        uploadParts(concurrency, 2, 1000, MILLIS);
+        assertEquals(3, concurrency.getLimit());
+
+        // same throughput per part, three parts at a time
+        uploadParts(concurrency, 3, 1000, MILLIS);
+        assertEquals(4, concurrency.getLimit());
+
+        // the maximum is never exceeded
+        uploadParts(concurrency, 4, 1000, MILLIS);
+        assertEquals(3, concurrency.getLimit());
+    }
+
+    @Test
+    public void decreaseWhenThroughputDrops()
+    {
+        S3UploadConcurrency concurrency = new S3UploadConcurrency(2, 1, 4);
+
+        uploadParts(concurrency, 2, 1000, MILLIS);
+        assertEquals(3, concurrency.getLimit());
+
+        // every part is three times slower: more parts in flight saturate the link
+        uploadParts(concurrency, 3, 1000, 3 * MILLIS);
+        assertEquals(2, concurrency.getLimit());
+    }
+
+    @Test
+    public void failureHalvesTheLimit()
+    {
+        List<Integer> limits = new ArrayList<>();
+
+        S3UploadConcurrency concurrency = new S3UploadConcurrency(8, 3, 16, limits::add);
+
+        concurrency.onPartFailed();
+        assertEquals(4, concurrency.getLimit());
+
+        concurrency.onPartFailed();
+        assertEquals(3, concurrency.getLimit());
+
+        concurrency.onPartFailed();
+        assertEquals(3, concurrency.getLimit());
+
+        assertEquals(3, concurrency.getFailedParts());
+        assertEquals(2, limits.size());
+        assertEquals(3, limits.get(1));
+    }
+
+    @Test
+    public void initialLimitWithinBounds()
+    {
+        assertEquals(4, new S3UploadConcurrency(10, 1, 4).getLimit());
+        assertEquals(2, new S3UploadConcurrency(0, 2, 4).getLimit());
+    }
+
+    private void uploadParts(S3UploadConcurrency concurrency, int parts, long bytes, long nanos)
+    {
+        for (int i = 0; i < parts; i++)
+        {
+            concurrency.onPartUploaded(bytes, nanos);
+        }
+    }
+
+}
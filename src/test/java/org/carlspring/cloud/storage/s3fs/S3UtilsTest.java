@@ -1,5 +1,6 @@
 package org.carlspring.cloud.storage.s3fs;
 
+import org.carlspring.cloud.storage.s3fs.attribute.S3PosixFileAttributes;
 import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
 import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
 import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
@@ -13,12 +14,15 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.StandardOpenOption;
 
 import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.Owner;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class S3UtilsTest
         extends S3UnitTestBase
@@ -49,19 +53,36 @@ public class S3UtilsTest
         outputStream.write(contentString.getBytes());
         outputStream.close();
 
+        reset(AmazonS3MockFactory.getAmazonClientMock());
+
         S3ObjectSummary file1ObjectSummary = getS3ObjectSummary(file1);
 
         assertEquals("bucket", file1ObjectSummary.getBucketName());
         assertNull(file1ObjectSummary.getETag());
         assertEquals("file1", file1ObjectSummary.getKey());
         assertNotNull(file1ObjectSummary.getLastModified());
+        assertEquals(19, file1ObjectSummary.getSize());
 
-        Owner owner = file1ObjectSummary.getOwner();
+        // the owner needs the ACL, which is only read by the posix attributes and the access checks
+        assertNull(file1ObjectSummary.getOwner());
+        verify(AmazonS3MockFactory.getAmazonClientMock(), never()).getObjectAcl("bucket", "file1");
+    }
 
-        assertNotNull(owner);
-        assertEquals("Mock", owner.getDisplayName());
-        assertEquals("1", owner.getId());
-        assertEquals(19, file1ObjectSummary.getSize());
+    @Test
+    public void posixAttributesReadTheAclOnce()
+            throws IOException
+    {
+        S3Path file1 = (S3Path) fileSystem.getPath("/bucket/file1");
+
+        Files.createFile(file1);
+
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        reset(client);
+
+        S3PosixFileAttributes attributes = new S3Utils().getS3PosixFileAttributes(file1);
+
+        assertEquals("1:Mock", attributes.owner().getName());
+        verify(client, times(1)).getObjectAcl("bucket", "file1");
     }
 
     @Test
@@ -87,13 +108,14 @@ public class S3UtilsTest
             AmazonS3Exception toBeThrown = new AmazonS3Exception("We messed up");
 
             toBeThrown.setStatusCode(500);
-            doThrow(toBeThrown).when(client).getObjectAcl("bucket", "file2");
 
             S3Path root = (S3Path) fileSystem.getPath("/bucket");
             S3Path file2 = (S3Path) root.resolve("file2");
 
             Files.createFile(file2);
 
+            doThrow(toBeThrown).when(client).getObjectMetadata("bucket", "file2");
+
             getS3ObjectSummary(file2);
         });
 
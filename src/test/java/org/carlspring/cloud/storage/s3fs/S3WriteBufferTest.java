@@ -0,0 +1,375 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBuffer;
+import org.carlspring.cloud.storage.s3fs.util.S3WriteBufferPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.carlspring.cloud.storage.s3fs.util.S3WriteBufferPool.BLOCK_SIZE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3WriteBufferTest
+{
+
+    @TempDir
+    Path spillDirectory;
+
+
+    @Test
+    public void smallContentStaysInMemory()
+            throws IOException
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 4 * BLOCK_SIZE, 16 * BLOCK_SIZE);
+
+        S3WriteBuffer buffer = pool.newBuffer("file1",
+                                              EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE),
+                                              new ByteArrayInputStream("hello".getBytes()),
+                                              -1);
+
+        buffer.position(5);
+        buffer.write(ByteBuffer.wrap(" world".getBytes()));
+
+        // across a block boundary
+        buffer.write(ByteBuffer.wrap("!".getBytes()), BLOCK_SIZE);
+
+        assertFalse(buffer.isSpilled());
+        assertNull(buffer.getFile());
+        assertEquals(BLOCK_SIZE + 1, buffer.size());
+        assertEquals(2L * BLOCK_SIZE, pool.getReservedBytes());
+
+        ByteBuffer bytes = ByteBuffer.allocate(11);
+        assertEquals(11, buffer.read(bytes, 0));
+        assertEquals("hello world", new String(bytes.array(), 0, 11));
+
+        byte[] content = content(buffer);
+        assertEquals(BLOCK_SIZE + 1, content.length);
+        assertEquals(0, content[11]);
+        assertEquals('!', content[BLOCK_SIZE]);
+
+        buffer.release();
+
+        assertEquals(0, pool.getReservedBytes());
+    }
+
+    @Test
+    public void contentPastTheThresholdSpills()
+            throws IOException
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, BLOCK_SIZE, 16 * BLOCK_SIZE);
+
+        S3WriteBuffer buffer = pool.newBuffer("file1", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+
+        buffer.write(ByteBuffer.wrap("hello".getBytes()));
+        assertFalse(buffer.isSpilled());
+
+        byte[] large = new byte[BLOCK_SIZE];
+        Arrays.fill(large, (byte) 'a');
+        buffer.write(ByteBuffer.wrap(large));
+
+        assertTrue(buffer.isSpilled());
+        assertEquals(pool.getWorkDirectory(), buffer.getFile().getParent());
+        assertEquals(spillDirectory, pool.getWorkDirectory().getParent());
+        assertEquals(BLOCK_SIZE + 5, Files.size(buffer.getFile()));
+        assertEquals(0, pool.getReservedBytes());
+
+        buffer.close();
+
+        byte[] content = content(buffer);
+        assertEquals("hello", new String(content, 0, 5));
+        assertEquals('a', content[BLOCK_SIZE + 4]);
+
+        Path file = buffer.getFile();
+        buffer.release();
+
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void exhaustedBudgetSpills()
+            throws IOException
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 2 * BLOCK_SIZE, 2 * BLOCK_SIZE);
+
+        S3WriteBuffer first = pool.newBuffer("file1", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+        first.write(ByteBuffer.wrap(new byte[BLOCK_SIZE + 1]));
+
+        S3WriteBuffer second = pool.newBuffer("file2", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+        second.write(ByteBuffer.wrap(new byte[1]));
+
+        assertFalse(first.isSpilled());
+        assertTrue(second.isSpilled());
+
+        first.release();
+
+        S3WriteBuffer third = pool.newBuffer("file3", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+        third.write(ByteBuffer.wrap(new byte[1]));
+
+        assertFalse(third.isSpilled());
+
+        second.release();
+        third.release();
+    }
+
+    @Test
+    public void knownLargeContentSpillsAtOnce()
+            throws IOException
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, BLOCK_SIZE, 16 * BLOCK_SIZE);
+
+        S3WriteBuffer buffer = pool.newBuffer("file1",
+                                              EnumSet.of(StandardOpenOption.READ),
+                                              new ByteArrayInputStream(new byte[BLOCK_SIZE + 1]),
+                                              BLOCK_SIZE + 1);
+
+        assertTrue(buffer.isSpilled());
+        assertEquals(BLOCK_SIZE + 1, pool.getSpilledBytes());
+
+        buffer.release();
+
+        assertEquals(0, pool.getSpilledBytes());
+    }
+
+    @Test
+    public void exhaustedQuotaFails()
+            throws IOException
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 0, 16 * BLOCK_SIZE, 10, 0);
+
+        S3WriteBuffer first = pool.newBuffer("file1", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+        first.write(ByteBuffer.wrap(new byte[8]));
+
+        S3WriteBuffer second = pool.newBuffer("file2", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+
+        assertThrows(IOException.class, () -> second.write(ByteBuffer.wrap(new byte[4])));
+        assertThrows(IOException.class,
+                     () -> pool.newBuffer("file3",
+                                          EnumSet.of(StandardOpenOption.READ),
+                                          new ByteArrayInputStream(new byte[11]),
+                                          11));
+
+        second.write(ByteBuffer.wrap(new byte[2]));
+
+        assertEquals(10, pool.getSpilledBytes());
+
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void exhaustedQuotaWaits()
+            throws Exception
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 0, 16 * BLOCK_SIZE, 10, 60000);
+
+        S3WriteBuffer first = pool.newBuffer("file1", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+        first.write(ByteBuffer.wrap(new byte[8]));
+
+        S3WriteBuffer second = pool.newBuffer("file2", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+
+        CompletableFuture<Integer> write = CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return second.write(ByteBuffer.wrap(new byte[4]));
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        Thread.sleep(100);
+        assertFalse(write.isDone());
+
+        first.release();
+
+        assertEquals(4, write.get(10, TimeUnit.SECONDS).intValue());
+
+        second.release();
+    }
+
+    @Test
+    public void orphansAreDeleted()
+            throws IOException
+    {
+        Path orphan = Files.createDirectories(spillDirectory.resolve("s3fs-nio-1"));
+        Files.write(orphan.resolve(".lock"), new byte[]{ 1 });
+        Files.createFile(orphan.resolve("temp-s3-file1"));
+
+        // the lock file is not locked yet
+        Path creating = Files.createDirectories(spillDirectory.resolve("s3fs-nio-2"));
+        Files.createFile(creating.resolve(".lock"));
+
+        // the lock file was never locked by a process that died
+        Path abandoned = Files.createDirectories(spillDirectory.resolve("s3fs-nio-3"));
+        Files.createFile(abandoned.resolve(".lock"));
+        FileTime longAgo = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        Files.setLastModifiedTime(abandoned.resolve(".lock"), longAgo);
+
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 0, 16 * BLOCK_SIZE);
+
+        S3WriteBuffer buffer = pool.newBuffer("file1", EnumSet.of(StandardOpenOption.WRITE), null, -1);
+        buffer.write(ByteBuffer.wrap(new byte[1]));
+
+        // the work directory of a pool in use is locked
+        new S3WriteBufferPool(spillDirectory, 0, 16 * BLOCK_SIZE).deleteOrphans();
+
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(creating));
+        assertFalse(Files.exists(abandoned));
+        assertTrue(Files.exists(buffer.getFile()));
+
+        pool.close();
+
+        // the temp file of an open buffer outlives the pool
+        assertTrue(Files.exists(buffer.getFile()));
+        buffer.write(ByteBuffer.wrap(new byte[1]));
+
+        buffer.release();
+
+        assertFalse(Files.exists(buffer.getFile().getParent()));
+    }
+
+    @Test
+    public void workDirectoriesBeingCreatedAreNotOrphans()
+            throws Exception
+    {
+        AtomicBoolean done = new AtomicBoolean();
+
+        CompletableFuture<Void> cleaner = CompletableFuture.runAsync(() -> {
+            S3WriteBufferPool other = new S3WriteBufferPool(spillDirectory, 0, 16 * BLOCK_SIZE);
+            while (!done.get())
+            {
+                other.deleteOrphans();
+            }
+        });
+
+        List<S3WriteBufferPool> pools = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 0, 16 * BLOCK_SIZE);
+                pools.add(pool);
+
+                S3WriteBuffer buffer = pool.newBuffer("file" + i, EnumSet.of(StandardOpenOption.WRITE), null, -1);
+                buffer.write(ByteBuffer.wrap(new byte[1]));
+
+                assertTrue(Files.exists(buffer.getFile()));
+            }
+        }
+        finally
+        {
+            done.set(true);
+            cleaner.get(10, TimeUnit.SECONDS);
+        }
+
+        for (S3WriteBufferPool pool : pools)
+        {
+            assertTrue(Files.isDirectory(pool.getWorkDirectory()));
+
+            pool.close();
+        }
+    }
+
+    @Test
+    public void truncateZeroesTheTail()
+            throws IOException
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 4 * BLOCK_SIZE, 16 * BLOCK_SIZE);
+
+        S3WriteBuffer buffer = pool.newBuffer("file1",
+                                              EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE),
+                                              new ByteArrayInputStream("hello world".getBytes()),
+                                              -1);
+
+        buffer.position(11);
+        buffer.truncate(5);
+
+        assertEquals(5, buffer.position());
+
+        // the truncated bytes do not come back when the content grows again
+        buffer.write(ByteBuffer.wrap("!".getBytes()), 8);
+
+        assertArrayEquals(new byte[]{ 'h', 'e', 'l', 'l', 'o', 0, 0, 0, '!' }, content(buffer));
+
+        buffer.release();
+    }
+
+    @Test
+    public void optionsAreHonored()
+            throws IOException
+    {
+        S3WriteBufferPool pool = new S3WriteBufferPool(spillDirectory, 4 * BLOCK_SIZE, 16 * BLOCK_SIZE);
+
+        S3WriteBuffer readOnly = pool.newBuffer("file1",
+                                                EnumSet.of(StandardOpenOption.READ),
+                                                new ByteArrayInputStream("hello".getBytes()),
+                                                -1);
+
+        assertThrows(NonWritableChannelException.class, () -> readOnly.write(ByteBuffer.wrap(new byte[1])));
+        assertThrows(NonWritableChannelException.class, () -> readOnly.truncate(0));
+
+        readOnly.close();
+
+        assertThrows(ClosedChannelException.class, () -> readOnly.read(ByteBuffer.allocate(1)));
+        readOnly.release();
+
+        S3WriteBuffer append = pool.newBuffer("file1",
+                                              EnumSet.of(StandardOpenOption.APPEND),
+                                              new ByteArrayInputStream("hello".getBytes()),
+                                              -1);
+
+        append.position(0);
+        append.write(ByteBuffer.wrap(" world".getBytes()));
+
+        assertThrows(NonReadableChannelException.class, () -> append.read(ByteBuffer.allocate(1)));
+        assertEquals("hello world", new String(content(append)));
+        append.release();
+
+        S3WriteBuffer truncated = pool.newBuffer("file1",
+                                                 EnumSet.of(StandardOpenOption.WRITE,
+                                                            StandardOpenOption.TRUNCATE_EXISTING),
+                                                 new ByteArrayInputStream("hello".getBytes()),
+                                                 -1);
+
+        assertEquals(0, truncated.size());
+        truncated.release();
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> pool.newBuffer("file1",
+                                          EnumSet.of(StandardOpenOption.READ, StandardOpenOption.APPEND),
+                                          null,
+                                          -1));
+    }
+
+    private byte[] content(S3WriteBuffer buffer)
+            throws IOException
+    {
+        try (InputStream stream = buffer.newInputStream())
+        {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+
+}
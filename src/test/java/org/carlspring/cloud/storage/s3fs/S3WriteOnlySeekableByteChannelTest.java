@@ -0,0 +1,349 @@
+package org.carlspring.cloud.storage.s3fs;
+
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3ClientMock;
+import org.carlspring.cloud.storage.s3fs.util.AmazonS3MockFactory;
+import org.carlspring.cloud.storage.s3fs.util.S3EndpointConstant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static org.carlspring.cloud.storage.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.carlspring.cloud.storage.s3fs.S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3WriteOnlySeekableByteChannelTest
+        extends S3UnitTestBase
+{
+
+    private final AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+
+
+    @BeforeEach
+    public void setup()
+            throws IOException
+    {
+        s3fsProvider = getS3fsProvider();
+        fileSystem = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+
+        reset(client);
+    }
+
+    @Test
+    public void sequentialWrites()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "old content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3WriteOnlySeekableByteChannel channel;
+        try (SeekableByteChannel seekable = s3fsProvider.newByteChannel(file1,
+                                                                        EnumSet.of(StandardOpenOption.WRITE,
+                                                                                   StandardOpenOption.TRUNCATE_EXISTING)))
+        {
+            assertTrue(seekable instanceof S3WriteOnlySeekableByteChannel);
+            channel = (S3WriteOnlySeekableByteChannel) seekable;
+
+            seekable.write(ByteBuffer.wrap("012345".getBytes()));
+            seekable.write(ByteBuffer.allocateDirect(4).put("6789".getBytes()).flip());
+
+            assertEquals(10, seekable.position());
+            assertEquals(10, seekable.size());
+        }
+
+        // the previous content is never downloaded
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+
+        assertFalse(channel.isFallback());
+        assertArrayEquals("0123456789".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void createAndTruncateSendsNoHead()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "old content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        reset(client);
+
+        Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.WRITE,
+                                                     StandardOpenOption.CREATE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING);
+
+        try (SeekableByteChannel channel = s3fsProvider.newByteChannel(file1, options))
+        {
+            assertTrue(channel instanceof S3WriteOnlySeekableByteChannel);
+
+            channel.write(ByteBuffer.wrap("content".getBytes()));
+        }
+
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        verify(client, never()).listObjects(any(ListObjectsRequest.class));
+        assertArrayEquals("content".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void forwardSeekFillsWithZeros()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3WriteOnlySeekableByteChannel channel = new S3WriteOnlySeekableByteChannel(file1, -1);
+        channel.write(ByteBuffer.wrap("01".getBytes()));
+        channel.position(4);
+        channel.write(ByteBuffer.wrap("45".getBytes()));
+        channel.close();
+
+        assertFalse(channel.isFallback());
+        assertArrayEquals(new byte[]{ '0', '1', 0, 0, '4', '5' }, Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void backwardSeekFallsBackToTempFile()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3WriteOnlySeekableByteChannel channel = new S3WriteOnlySeekableByteChannel(file1, -1);
+        channel.write(ByteBuffer.wrap("0123456789".getBytes()));
+        channel.position(2);
+        channel.write(ByteBuffer.wrap("ab".getBytes()));
+
+        assertTrue(channel.isFallback());
+        assertEquals(4, channel.position());
+        assertEquals(10, channel.size());
+
+        channel.close();
+
+        assertArrayEquals("01ab456789".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void backwardSeekBeforeAnyPartSendsNothing()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3WriteOnlySeekableByteChannel channel = new S3WriteOnlySeekableByteChannel(file1, -1);
+        channel.write(ByteBuffer.wrap("0123456789".getBytes()));
+        channel.position(2);
+
+        // the bytes are still in the memory of the stream
+        assertTrue(channel.isFallback());
+        verify(client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+        assertFalse(Files.exists(file1));
+
+        channel.write(ByteBuffer.wrap("ab".getBytes()));
+        channel.close();
+
+        assertArrayEquals("01ab456789".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void backwardSeekAfterPartsWereSent()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        fileSystem = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"),
+                                                ImmutableMap.<String, Object>builder()
+                                                            .put(ACCESS_KEY, "access_key")
+                                                            .put(SECRET_KEY, "secret_key")
+                                                            .put(MULTIPART_UPLOAD_PART_SIZE,
+                                                                 String.valueOf(S3PartialUpload.MIN_PART_SIZE))
+                                                            .build());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        byte[] content = new byte[(int) S3PartialUpload.MIN_PART_SIZE + 10];
+        new Random(0).nextBytes(content);
+
+        S3WriteOnlySeekableByteChannel channel = new S3WriteOnlySeekableByteChannel(file1, -1);
+        channel.write(ByteBuffer.wrap(content));
+        channel.position(2);
+
+        // the parts sent can't be read back: the object is completed and downloaded
+        assertTrue(channel.isFallback());
+        verify(client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+
+        channel.write(ByteBuffer.wrap("ab".getBytes()));
+        channel.close();
+
+        content[2] = 'a';
+        content[3] = 'b';
+
+        assertArrayEquals(content, Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void sequentialWritesDoNotSpill()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        byte[] content = new byte[(int) S3FileSystemProvider.DEFAULT_WRITE_BUFFER_MEMORY_THRESHOLD * 2];
+
+        try (SeekableByteChannel channel = new S3WriteOnlySeekableByteChannel(file1, -1))
+        {
+            channel.write(ByteBuffer.wrap(content));
+        }
+
+        assertNull(file1.getFileSystem().getWriteBufferPool().getWorkDirectory());
+        assertEquals(content.length, Files.size(file1));
+    }
+
+    @Test
+    public void truncateAppendedObject()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (SeekableByteChannel channel = s3fsProvider.newByteChannel(file1,
+                                                                       EnumSet.of(StandardOpenOption.WRITE,
+                                                                                  StandardOpenOption.APPEND)))
+        {
+            channel.write(ByteBuffer.wrap("4567".getBytes()));
+            channel.truncate(6);
+
+            assertTrue(((S3WriteOnlySeekableByteChannel) channel).isFallback());
+            assertArrayEquals("0123".getBytes(), Files.readAllBytes(file1));
+
+            channel.write(ByteBuffer.wrap("89".getBytes()));
+        }
+
+        assertArrayEquals("01234589".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void truncateFallsBackToTempFile()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3WriteOnlySeekableByteChannel channel = new S3WriteOnlySeekableByteChannel(file1, -1);
+        channel.write(ByteBuffer.wrap("0123456789".getBytes()));
+
+        // nothing to discard
+        channel.truncate(20);
+        assertFalse(channel.isFallback());
+
+        channel.truncate(3);
+        assertTrue(channel.isFallback());
+
+        channel.close();
+
+        assertArrayEquals("012".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void appendWritesAtTheEnd()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "0123".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        S3WriteOnlySeekableByteChannel channel;
+        try (SeekableByteChannel seekable = s3fsProvider.newByteChannel(file1,
+                                                                        EnumSet.of(StandardOpenOption.WRITE,
+                                                                                   StandardOpenOption.APPEND)))
+        {
+            assertTrue(seekable instanceof S3WriteOnlySeekableByteChannel);
+            channel = (S3WriteOnlySeekableByteChannel) seekable;
+
+            assertEquals(4, seekable.size());
+            assertEquals(4, seekable.position());
+
+            seekable.position(0);
+            seekable.write(ByteBuffer.wrap("4567".getBytes()));
+
+            assertEquals(8, seekable.position());
+        }
+
+        assertFalse(channel.isFallback());
+        assertArrayEquals("01234567".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void readNotAllowed()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        try (SeekableByteChannel channel = new S3WriteOnlySeekableByteChannel(file1, -1))
+        {
+            assertThrows(NonReadableChannelException.class, () -> channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void createNewAndFileExists()
+            throws IOException
+    {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        assertThrows(FileAlreadyExistsException.class,
+                     () -> s3fsProvider.newByteChannel(file1,
+                                                       EnumSet.of(StandardOpenOption.WRITE,
+                                                                  StandardOpenOption.CREATE_NEW)));
+    }
+
+    @Test
+    public void truncateAndFileNotExists()
+            throws IOException
+    {
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) fileSystem.getPath("/buck/file1");
+
+        assertThrows(NoSuchFileException.class,
+                     () -> s3fsProvider.newByteChannel(file1,
+                                                       EnumSet.of(StandardOpenOption.WRITE,
+                                                                  StandardOpenOption.TRUNCATE_EXISTING)));
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+    }
+
+}
@@ -25,6 +25,7 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -32,10 +33,13 @@ import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.regions.Region;
 import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.S3ResponseMetadata;
 import com.amazonaws.services.s3.model.*;
 import com.amazonaws.services.s3.waiters.AmazonS3Waiters;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
 import com.amazonaws.util.StringUtils;
 
 public class AmazonS3ClientMock
@@ -63,6 +67,8 @@ public class AmazonS3ClientMock
 
     private Map<String, Owner> bucketOwners = new HashMap<>();
 
+    private Map<String, MockMultipartUpload> multipartUploads = new ConcurrentHashMap<>();
+
 
     public AmazonS3ClientMock(Path base)
     {
@@ -469,16 +475,44 @@ public class AmazonS3ClientMock
     @Override
     public PutObjectResult putObject(String bucket, String keyName, InputStream inputStream, ObjectMetadata metadata)
     {
-        S3Element elem = parse(inputStream, bucket, keyName);
+        byte[] content;
+        try
+        {
+            content = IOUtils.toByteArray(inputStream);
+        }
+        catch (IOException e)
+        {
+            throw new AmazonClientException("Problem reading mock object: ", e);
+        }
+
+        checkContentMD5(metadata != null ? metadata.getContentMD5() : null, content);
+
+        S3Element elem = parse(new ByteArrayInputStream(content), bucket, keyName);
 
         persist(bucket, elem);
 
         PutObjectResult putObjectResult = new PutObjectResult();
-        putObjectResult.setETag("3a5c8b1ad448bca04584ecb55b836264");
+        putObjectResult.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
 
         return putObjectResult;
     }
 
+    /**
+     * S3 rejects the content that does not match the Content-MD5 sent with it.
+     */
+    private void checkContentMD5(String contentMD5, byte[] content)
+    {
+        if (contentMD5 != null && !contentMD5.equals(Md5Utils.md5AsBase64(content)))
+        {
+            AmazonS3Exception exception = new AmazonS3Exception("The Content-MD5 you specified did not match " +
+                                                                "what we received.");
+            exception.setStatusCode(400);
+            exception.setErrorCode("BadDigest");
+
+            throw exception;
+        }
+    }
+
     @Override
     public PutObjectResult putObject(String bucketName, String key, String content)
             throws AmazonClientException
@@ -634,7 +668,7 @@ public class AmazonS3ClientMock
 
         ObjectMetadata metadata = new ObjectMetadata();
         BasicFileAttributes attr = Files.readAttributes(elem, BasicFileAttributes.class);
-        metadata.setLastModified(new Date(attr.lastAccessTime().toMillis()));
+        metadata.setLastModified(new Date(attr.lastModifiedTime().toMillis()));
 
         if (dir)
         {
@@ -1301,7 +1335,66 @@ public class AmazonS3ClientMock
     public S3Object getObject(GetObjectRequest getObjectRequest)
             throws AmazonClientException
     {
-        throw new UnsupportedOperationException();
+        S3Object object = getObject(getObjectRequest.getBucketName(), getObjectRequest.getKey());
+
+        String eTag = object.getObjectMetadata().getETag();
+        if (eTag != null)
+        {
+            List<String> matching = getObjectRequest.getMatchingETagConstraints();
+            if (!matching.isEmpty() && !matching.contains(eTag))
+            {
+                // the sdk returns null when a constraint is not met
+                return null;
+            }
+
+            if (getObjectRequest.getNonmatchingETagConstraints().contains(eTag))
+            {
+                return null;
+            }
+        }
+
+        long[] range = getObjectRequest.getRange();
+        String rangeHeader = getObjectRequest.getCustomRequestHeaders() != null ?
+                             getObjectRequest.getCustomRequestHeaders().get(Headers.RANGE) : null;
+
+        if (range == null && rangeHeader == null || object.getObjectContent() == null)
+        {
+            return object;
+        }
+
+        try
+        {
+            byte[] content = IOUtils.toByteArray(object.getObjectContent());
+
+            long start;
+            long end;
+            if (rangeHeader != null)
+            {
+                // suffix range: bytes=-N, custom headers override the ones set by the client
+                long suffix = Long.parseLong(rangeHeader.substring(rangeHeader.indexOf('-') + 1));
+                start = Math.max(0, content.length - suffix);
+                end = content.length - 1;
+            }
+            else
+            {
+                start = range[0];
+                end = range.length > 1 ? Math.min(range[1], content.length - 1) : content.length - 1;
+            }
+
+            byte[] slice = start <= end ? Arrays.copyOfRange(content, (int) start, (int) end + 1) : new byte[0];
+
+            ObjectMetadata metadata = object.getObjectMetadata();
+            metadata.setContentLength(slice.length);
+            metadata.setHeader(Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length);
+
+            object.setObjectContent(new ByteArrayInputStream(slice));
+
+            return object;
+        }
+        catch (IOException e)
+        {
+            throw new AmazonServiceException("Problem getting Mock Object range: ", e);
+        }
     }
 
     @Override
@@ -1343,7 +1436,39 @@ public class AmazonS3ClientMock
     public CopyPartResult copyPart(CopyPartRequest copyPartRequest)
             throws AmazonClientException
     {
-        throw new UnsupportedOperationException();
+        MockMultipartUpload upload = getMultipartUpload(copyPartRequest.getUploadId());
+
+        S3Object source = getObject(copyPartRequest.getSourceBucketName(), copyPartRequest.getSourceKey());
+
+        String eTag = source.getObjectMetadata().getETag();
+        if (eTag != null && !copyPartRequest.getMatchingETagConstraints().isEmpty() &&
+            !copyPartRequest.getMatchingETagConstraints().contains(eTag))
+        {
+            // the sdk returns null when a constraint is not met
+            return null;
+        }
+
+        try
+        {
+            byte[] content = IOUtils.toByteArray(source.getObjectContent());
+
+            int first = copyPartRequest.getFirstByte() != null ? copyPartRequest.getFirstByte().intValue() : 0;
+            int last = copyPartRequest.getLastByte() != null ?
+                       copyPartRequest.getLastByte().intValue() :
+                       content.length - 1;
+
+            upload.parts.put(copyPartRequest.getPartNumber(), Arrays.copyOfRange(content, first, last + 1));
+        }
+        catch (IOException e)
+        {
+            throw new AmazonClientException("Problem reading mock object: ", e);
+        }
+
+        CopyPartResult result = new CopyPartResult();
+        result.setPartNumber(copyPartRequest.getPartNumber());
+        result.setETag("etag-" + copyPartRequest.getPartNumber());
+
+        return result;
     }
 
     @Override
@@ -1664,14 +1789,63 @@ public class AmazonS3ClientMock
     public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
             throws AmazonClientException
     {
-        throw new UnsupportedOperationException();
+        // fail like S3 does if the bucket does not exist
+        find(request.getBucketName());
+
+        String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new MockMultipartUpload(request.getBucketName(), request.getKey()));
+
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+
+        return result;
     }
 
     @Override
     public UploadPartResult uploadPart(UploadPartRequest request)
             throws AmazonClientException
     {
-        throw new UnsupportedOperationException();
+        MockMultipartUpload upload = getMultipartUpload(request.getUploadId());
+
+        try (InputStream stream = request.getFile() != null ?
+                                  Files.newInputStream(request.getFile().toPath()) :
+                                  request.getInputStream())
+        {
+            if (request.getFile() != null)
+            {
+                stream.skip(request.getFileOffset());
+            }
+
+            byte[] content = new byte[(int) request.getPartSize()];
+
+            int total = 0;
+            while (total < content.length)
+            {
+                int read = stream.read(content, total, content.length - total);
+                if (read < 0)
+                {
+                    throw new AmazonClientException("the part is shorter than its size");
+                }
+
+                total += read;
+            }
+
+            checkContentMD5(request.getMd5Digest(), content);
+
+            upload.parts.put(request.getPartNumber(), content);
+
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+
+            return result;
+        }
+        catch (IOException e)
+        {
+            throw new AmazonClientException("Problem reading mock part: ", e);
+        }
     }
 
     @Override
@@ -1685,21 +1859,80 @@ public class AmazonS3ClientMock
     public void abortMultipartUpload(AbortMultipartUploadRequest request)
             throws AmazonClientException
     {
-        throw new UnsupportedOperationException();
+        getMultipartUpload(request.getUploadId());
+
+        multipartUploads.remove(request.getUploadId());
     }
 
     @Override
     public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
             throws AmazonClientException
     {
-        throw new UnsupportedOperationException();
+        MockMultipartUpload upload = getMultipartUpload(request.getUploadId());
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (PartETag partETag : request.getPartETags())
+        {
+            byte[] part = upload.parts.get(partETag.getPartNumber());
+            if (part == null)
+            {
+                AmazonS3Exception e = new AmazonS3Exception("InvalidPart");
+                e.setStatusCode(400);
+
+                throw e;
+            }
+
+            content.write(part, 0, part.length);
+        }
+
+        multipartUploads.remove(request.getUploadId());
+
+        persist(upload.bucketName, parse(new ByteArrayInputStream(content.toByteArray()), upload.bucketName, upload.key));
+
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setBucketName(upload.bucketName);
+        result.setKey(upload.key);
+
+        return result;
     }
 
     @Override
     public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
             throws AmazonClientException
     {
-        throw new UnsupportedOperationException();
+        MultipartUploadListing listing = new MultipartUploadListing();
+        listing.setBucketName(request.getBucketName());
+
+        List<MultipartUpload> uploads = new ArrayList<>();
+        for (Map.Entry<String, MockMultipartUpload> entry : multipartUploads.entrySet())
+        {
+            if (entry.getValue().bucketName.equals(request.getBucketName()))
+            {
+                MultipartUpload upload = new MultipartUpload();
+                upload.setKey(entry.getValue().key);
+                upload.setUploadId(entry.getKey());
+
+                uploads.add(upload);
+            }
+        }
+
+        listing.setMultipartUploads(uploads);
+
+        return listing;
+    }
+
+    private MockMultipartUpload getMultipartUpload(String uploadId)
+    {
+        MockMultipartUpload upload = multipartUploads.get(uploadId);
+        if (upload == null)
+        {
+            AmazonS3Exception e = new AmazonS3Exception("NoSuchUpload");
+            e.setStatusCode(404);
+
+            throw e;
+        }
+
+        return upload;
     }
 
     @Override
@@ -1841,4 +2074,22 @@ public class AmazonS3ClientMock
         throw new UnsupportedOperationException();
     }
 
+    private static class MockMultipartUpload
+    {
+
+        private final String bucketName;
+
+        private final String key;
+
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+
+
+        private MockMultipartUpload(String bucketName, String key)
+        {
+            this.bucketName = bucketName;
+            this.key = key;
+        }
+
+    }
+
 }